@@ -0,0 +1,201 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Приближённое множество просмотренных URL на основе фильтра Блума. Подходит
+ * для обходов на сотни миллионов URL, когда точное множество не помещается
+ * в память. Может ошибочно считать новый URL просмотренным, но никогда не
+ * пропускает уже просмотренный.
+ *
+ * Биты устанавливаются без блокировок, но k битов одного URL вместе не
+ * атомарны: два потока, добавляющие один и тот же URL, могли бы оба
+ * увидеть сброшенный бит и оба получить true. Поэтому add захватывает
+ * одну из STRIPES блокировок, выбранную по отпечатку URL: один URL всегда
+ * попадает в одну блокировку, а разные URL почти никогда не ждут друг
+ * друга. contains блокировок не берёт.
+ * @author sergeychaika
+ */
+public class BloomVisitedSet implements VisitedSet {
+    
+    /**
+     * Количество блокировок add, степень двойки.
+     */
+    private static final int STRIPES = 256;
+    
+    /**
+     * Добавка к отпечатку для второго хеша двойного хеширования.
+     */
+    private static final long SECOND_SEED = 0x9e3779b97f4a7c15L;
+    
+    /**
+     * Битовый массив фильтра.
+     */
+    private final AtomicLongArray bits;
+    
+    /**
+     * Количество битов и количество хеш-функций.
+     */
+    private final long numBits;
+    private final int numHashes;
+    
+    private final LongAdder count = new LongAdder();
+    private final LongAdder setBits = new LongAdder();
+    private final Object[] stripes = new Object[STRIPES];
+    
+    /**
+     * Подбирает размер фильтра под ожидаемое количество URL и желаемую
+     * вероятность ложного срабатывания.
+     * @param expectedURLs ожидаемое количество URL
+     * @param falsePositiveRate желаемая вероятность ложного срабатывания
+     */
+    public BloomVisitedSet(long expectedURLs, double falsePositiveRate) {
+        
+        if (expectedURLs <= 0 || falsePositiveRate <= 0.0
+                || falsePositiveRate >= 1.0) {
+            
+            throw new IllegalArgumentException("Неверные параметры фильтра "
+                    + "Блума: " + expectedURLs + ", " + falsePositiveRate);
+        }
+        
+        double ln2 = Math.log(2);
+        long optimalBits = (long) Math.ceil(-expectedURLs
+                * Math.log(falsePositiveRate) / (ln2 * ln2));
+        
+        /**
+         * Округляем вверх до целого числа 64-битных слов.
+         */
+        long words = Math.max(1, (optimalBits + 63) >>> 6);
+        
+        if (words > Integer.MAX_VALUE) {
+            
+            throw new IllegalArgumentException("Фильтр Блума слишком велик: "
+                    + optimalBits + " бит");
+        }
+        
+        bits = new AtomicLongArray((int) words);
+        numBits = words << 6;
+        numHashes = Math.max(1,
+                (int) Math.round((double) numBits / expectedURLs * ln2));
+        
+        for (int stripe = 0; stripe < STRIPES; ++stripe) {
+            
+            stripes[stripe] = new Object();
+        }
+    }
+    
+    @Override
+    public boolean add(long fingerprint) {
+        
+        long h1 = fingerprint;
+        long h2 = secondHash(fingerprint);
+        boolean added = false;
+        
+        synchronized (stripes[(int) fingerprint & (STRIPES - 1)]) {
+            
+            for (int i = 0; i < numHashes; ++i) {
+                
+                if (setBit(Math.floorMod(h1 + i * h2, numBits))) {
+                    
+                    added = true;
+                }
+            }
+        }
+        
+        if (added) {
+            
+            count.increment();
+        }
+        
+        return added;
+    }
+    
+    @Override
+    public boolean contains(long fingerprint) {
+        
+        long h1 = fingerprint;
+        long h2 = secondHash(fingerprint);
+        
+        for (int i = 0; i < numHashes; ++i) {
+            
+            long index = Math.floorMod(h1 + i * h2, numBits);
+            
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Двойное хеширование: i-й индекс равен h1 + i * h2 по модулю numBits.
+     * Оба хеша 64-битные, поэтому и фильтр больше 2^32 битов заполняется
+     * равномерно: h1 - сам отпечаток, h2 - отпечаток, перемешанный ещё раз
+     * с другой добавкой, и нечётный.
+     */
+    private static long secondHash(long fingerprint) {
+        
+        return URLFingerprint.mix(fingerprint + SECOND_SEED) | 1;
+    }
+    
+    /**
+     * Устанавливает бит без блокировок.
+     * @param index номер бита
+     * @return true, если бит раньше был сброшен
+     */
+    private boolean setBit(long index) {
+        
+        int word = (int) (index >>> 6);
+        long mask = 1L << index;
+        
+        while (true) {
+            
+            long current = bits.get(word);
+            
+            if ((current & mask) != 0) {
+                
+                return false;
+            }
+            
+            if (bits.compareAndSet(word, current, current | mask)) {
+                
+                setBits.increment();
+                return true;
+            }
+        }
+    }
+    
+    @Override
+    public long size() {
+        
+        return count.sum();
+    }
+    
+    /**
+     * Оценка по доле установленных битов: новый URL ошибочно считается
+     * просмотренным, если все его k битов уже установлены.
+     * @return текущая вероятность ложного срабатывания
+     */
+    @Override
+    public double falsePositiveRate() {
+        
+        return Math.pow((double) setBits.sum() / numBits, numHashes);
+    }
+    
+    /**
+     * @return размер фильтра в битах
+     */
+    public long getNumBits() {
+        
+        return numBits;
+    }
+    
+    /**
+     * @return количество хеш-функций
+     */
+    public int getNumHashes() {
+        
+        return numHashes;
+    }
+}
@@ -0,0 +1,144 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Декодирует тело ответа с Transfer-Encoding: chunked. Читает ровно до конца
+ * последнего блока и трейлеров, поэтому соединение после этого можно
+ * использовать для следующего запроса.
+ * @author sergeychaika
+ */
+public class ChunkedInputStream extends InputStream {
+    
+    private final InputStream input;
+    
+    /**
+     * Сколько байтов осталось в текущем блоке.
+     */
+    private long remaining;
+    
+    private boolean finished;
+    
+    /**
+     * @param in поток, стоящий на начале тела ответа
+     */
+    public ChunkedInputStream(InputStream in) {
+        
+        input = in;
+    }
+    
+    @Override
+    public int read() throws IOException {
+        
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+    
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        
+        if (length == 0) {
+            
+            return 0;
+        }
+        
+        if (remaining == 0 && !nextChunk()) {
+            
+            return -1;
+        }
+        
+        int count = input.read(buffer, offset,
+                (int) Math.min(length, remaining));
+        
+        if (count < 0) {
+            
+            throw new EOFException("Соединение закрыто посреди блока");
+        }
+        
+        remaining -= count;
+        
+        /**
+         * После данных блока идёт CRLF.
+         */
+        if (remaining == 0) {
+            
+            HttpResponse.readLine(input);
+        }
+        
+        return count;
+    }
+    
+    /**
+     * Читает заголовок следующего блока.
+     * @return false, если блоков больше нет
+     */
+    private boolean nextChunk() throws IOException {
+        
+        if (finished) {
+            
+            return false;
+        }
+        
+        String sizeLine = HttpResponse.readLine(input);
+        
+        if (sizeLine == null) {
+            
+            throw new EOFException("Нет размера блока");
+        }
+        
+        /**
+         * Отбрасываем расширения блока после ';'.
+         */
+        int extension = sizeLine.indexOf(';');
+        
+        if (extension >= 0) {
+            
+            sizeLine = sizeLine.substring(0, extension);
+        }
+        
+        try {
+            
+            remaining = Long.parseLong(sizeLine.trim(), 16);
+        }
+        
+        catch (NumberFormatException e) {
+            
+            throw new IOException("Неверный размер блока: " + sizeLine);
+        }
+        
+        /**
+         * parseLong принимает знак, а отрицательный размер дошёл бы до
+         * input.read как отрицательная длина.
+         */
+        if (remaining < 0 || sizeLine.trim().startsWith("+")) {
+            
+            throw new IOException("Неверный размер блока: " + sizeLine);
+        }
+        
+        if (remaining == 0) {
+            
+            /**
+             * Последний блок: пропускаем трейлеры до пустой строки.
+             */
+            String trailer;
+            
+            do {
+                
+                trailer = HttpResponse.readLine(input);
+            } while (trailer != null && !trailer.isEmpty());
+            
+            finished = true;
+            return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * @return true, если тело прочитано до конца
+     */
+    public boolean isFinished() {
+        
+        return finished;
+    }
+}
@@ -0,0 +1,772 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Узел распределённого обхода. Несколько процессов обходят сайт вместе:
+ * хосты делятся между узлами согласованным хешированием (HashRing), и
+ * каждый узел загружает только свои хосты. Ссылки на чужие хосты
+ * накапливаются по узлам и пересылаются пакетами по TCP, а на узле-владельце
+ * добавляются в пул как обычные ссылки, поэтому проверка на повтор и
+ * вежливость к хосту остаются локальными.
+ *
+ * Обход закончен, когда все узлы простаивают и ни одна ссылка не находится в
+ * пути. Это проверяет узел 0 методом четырёх счётчиков: он опрашивает все
+ * узлы двумя волнами подряд, и если в обеих волнах все узлы простаивали, а
+ * суммы отправленных и полученных ссылок равны между собой и не изменились
+ * между волнами, рассылает команду остановки.
+ *
+ * Формат сообщений: байт типа, затем поля через DataOutputStream.
+ * Отказоустойчивости нет: если узел недоступен, обход останавливается.
+ * @author sergeychaika
+ */
+public class ClusterNode {
+    
+    /**
+     * Типы сообщений.
+     */
+    private static final int BATCH = 'B';
+    private static final int QUERY = 'Q';
+    private static final int REPLY = 'R';
+    private static final int STOP = 'S';
+    
+    /**
+     * Сколько ждать, пока соседний узел начнёт принимать соединения.
+     */
+    private static final long CONNECT_DEADLINE =
+            TimeUnit.SECONDS.toNanos(30);
+    
+    /**
+     * Пауза между волнами проверки завершения и наибольшее время ожидания
+     * ответов на волну.
+     */
+    private static final long WAVE_INTERVAL = 200;
+    private static final long WAVE_TIMEOUT = TimeUnit.SECONDS.toNanos(10);
+    
+    /**
+     * Состояние узла в волне проверки завершения.
+     */
+    private static final class Status {
+        
+        final boolean idle;
+        final long sent;
+        final long received;
+        
+        Status(boolean isIdle, long sentURLs, long receivedURLs) {
+            
+            idle = isIdle;
+            sent = sentURLs;
+            received = receivedURLs;
+        }
+    }
+    
+    /**
+     * Исходящее соединение с другим узлом и накопленный для него пакет.
+     */
+    private final class Peer {
+        
+        final int node;
+        final List<URLDepthPair> batch = new ArrayList<>();
+        Socket socket;
+        DataOutputStream out;
+        
+        Peer(int number) {
+            
+            node = number;
+        }
+        
+        synchronized void add(URLDepthPair depthPair) throws IOException {
+            
+            batch.add(depthPair);
+            
+            if (batch.size() >= batchSize) {
+                
+                flush();
+            }
+        }
+        
+        synchronized void flush() throws IOException {
+            
+            if (batch.isEmpty()) {
+                
+                return;
+            }
+            
+            connect();
+            out.writeByte(BATCH);
+            out.writeInt(batch.size());
+            
+            for (URLDepthPair depthPair : batch) {
+                
+                byte[] URL = depthPair.getURL().getBytes(
+                        StandardCharsets.UTF_8);
+                
+                out.writeInt(depthPair.getDepth());
+                out.writeInt(URL.length);
+                out.write(URL);
+            }
+            
+            out.flush();
+            batches.increment();
+            batch.clear();
+        }
+        
+        synchronized void query(long wave) throws IOException {
+            
+            connect();
+            out.writeByte(QUERY);
+            out.writeLong(wave);
+            out.flush();
+        }
+        
+        synchronized void reply(long wave, Status status)
+                throws IOException {
+            
+            connect();
+            out.writeByte(REPLY);
+            out.writeLong(wave);
+            out.writeInt(self);
+            out.writeBoolean(status.idle);
+            out.writeLong(status.sent);
+            out.writeLong(status.received);
+            out.flush();
+        }
+        
+        synchronized void stop() throws IOException {
+            
+            connect();
+            out.writeByte(STOP);
+            out.flush();
+        }
+        
+        synchronized void close() {
+            
+            try {
+                
+                if (socket != null) {
+                    
+                    socket.close();
+                }
+            }
+            
+            catch (IOException e) {
+                
+                /**
+                 * Соединение уже не нужно.
+                 */
+            }
+        }
+        
+        /**
+         * Соединяется с узлом, повторяя попытки, пока он не запустится.
+         */
+        private void connect() throws IOException {
+            
+            if (out != null) {
+                
+                return;
+            }
+            
+            long deadline = System.nanoTime() + CONNECT_DEADLINE;
+            
+            while (true) {
+                
+                Socket attempt = new Socket();
+                
+                try {
+                    
+                    attempt.connect(addresses[node], 3000);
+                    attempt.setTcpNoDelay(true);
+                    socket = attempt;
+                    out = new DataOutputStream(new BufferedOutputStream(
+                            attempt.getOutputStream(), 64 * 1024));
+                    return;
+                }
+                
+                catch (IOException e) {
+                    
+                    attempt.close();
+                    
+                    if (System.nanoTime() - deadline > 0) {
+                        
+                        throw new IOException("Узел " + node + " ("
+                                + addresses[node] + ") недоступен: "
+                                + e.getMessage());
+                    }
+                }
+                
+                try {
+                    
+                    Thread.sleep(200);
+                }
+                
+                catch (InterruptedException e) {
+                    
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Подключение к узлу " + node
+                            + " прервано");
+                }
+            }
+        }
+    }
+    
+    private final int self;
+    private final InetSocketAddress[] addresses;
+    private final HashRing ring;
+    private final int batchSize;
+    private final long batchDelay;
+    private final Peer[] peers;
+    
+    private URLPool pool;
+    private ServerSocket server;
+    private volatile boolean stopped;
+    
+    /**
+     * Счётчики для проверки завершения: сколько URL отправлено другим узлам
+     * и сколько получено от них и добавлено в пул.
+     */
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private long waves;
+    
+    /**
+     * Ответы текущей волны (только на узле 0), защищены this.
+     */
+    private long wave;
+    private Status[] replies;
+    
+    /**
+     * @param nodeAddresses адреса всех узлов, одинаковые на каждом узле
+     * @param nodeNumber номер этого узла в списке
+     * @param maxBatch сколько URL накапливать для узла перед отправкой
+     * @param batchDelayMillis не дольше скольки миллисекунд держать
+     * неполный пакет
+     */
+    public ClusterNode(List<InetSocketAddress> nodeAddresses, int nodeNumber,
+            int maxBatch, long batchDelayMillis) {
+        
+        if (nodeNumber < 0 || nodeNumber >= nodeAddresses.size()) {
+            
+            throw new IllegalArgumentException("Номер узла должен быть от 0 "
+                    + "до " + (nodeAddresses.size() - 1));
+        }
+        
+        if (maxBatch < 1 || batchDelayMillis < 1) {
+            
+            throw new IllegalArgumentException("Размер пакета и задержка "
+                    + "отправки должны быть больше нуля");
+        }
+        
+        self = nodeNumber;
+        addresses = nodeAddresses.toArray(new InetSocketAddress[0]);
+        ring = new HashRing(addresses.length);
+        batchSize = maxBatch;
+        batchDelay = batchDelayMillis;
+        peers = new Peer[addresses.length];
+        
+        for (int node = 0; node < peers.length; ++node) {
+            
+            if (node != self) {
+                
+                peers[node] = new Peer(node);
+            }
+        }
+    }
+    
+    /**
+     * Разбирает список адресов вида host:port,host:port.
+     * @param list список адресов
+     * @return адреса узлов
+     */
+    public static List<InetSocketAddress> parseAddresses(String list) {
+        
+        List<InetSocketAddress> result = new ArrayList<>();
+        
+        for (String item : list.split(",")) {
+            
+            int colon = item.lastIndexOf(':');
+            
+            try {
+                
+                result.add(new InetSocketAddress(item.substring(0, colon),
+                        Integer.parseInt(item.substring(colon + 1))));
+            }
+            
+            catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+                
+                throw new IllegalArgumentException("Неверный адрес узла: "
+                        + item);
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Подключает пул: с этого момента ссылки на чужие хосты пересылаются.
+     * Вызывается до добавления первого URL.
+     * @param urlPool пул этого узла
+     */
+    public void attach(URLPool urlPool) {
+        
+        pool = urlPool;
+        urlPool.joinCluster(this);
+    }
+    
+    /**
+     * Начинает принимать сообщения других узлов, периодически отправлять
+     * неполные пакеты и, на узле 0, проверять завершение обхода.
+     * @throws IOException порт этого узла занят
+     */
+    public void start() throws IOException {
+        
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(addresses[self].getPort()));
+        
+        daemon("cluster-accept", this::accept);
+        daemon("cluster-flush", this::flushPeriodically);
+        
+        if (self == 0) {
+            
+            daemon("cluster-termination", this::detectTermination);
+        }
+    }
+    
+    /**
+     * Пересылает пару узлу-владельцу, если её хост принадлежит другому
+     * узлу.
+     * @param depthPair новая пара
+     * @return true, если пара передана другому узлу
+     */
+    public boolean forward(URLDepthPair depthPair) {
+        
+        int owner = ring.nodeOf(depthPair.getWebHost());
+        
+        if (owner == self) {
+            
+            return false;
+        }
+        
+        /**
+         * Счётчик увеличивается до отправки: пока пара в пакете, суммы
+         * отправленных и полученных не сходятся.
+         */
+        sent.increment();
+        
+        try {
+            
+            peers[owner].add(depthPair);
+        }
+        
+        catch (IOException e) {
+            
+            fail(e);
+        }
+        
+        return true;
+    }
+    
+    /**
+     * @return true, если обход остановлен на всех узлах
+     */
+    public boolean isStopped() {
+        
+        return stopped;
+    }
+    
+    /**
+     * Закрывает соединения после окончания обхода.
+     */
+    public void close() {
+        
+        stopped = true;
+        
+        for (Peer peer : peers) {
+            
+            if (peer != null) {
+                
+                peer.close();
+            }
+        }
+        
+        try {
+            
+            if (server != null) {
+                
+                server.close();
+            }
+        }
+        
+        catch (IOException e) {
+            
+            /**
+             * Сервер уже закрыт.
+             */
+        }
+    }
+    
+    @Override
+    public synchronized String toString() {
+        
+        return String.format("Кластер: узел %d из %d, отправлено URL %d "
+                + "(пакетов %d), получено URL %d, волн проверки завершения "
+                + "%d", self, addresses.length, sent.sum(), batches.sum(),
+                received.sum(), waves);
+    }
+    
+    private Status status() {
+        
+        return new Status(pool.getUnfinished() == 0, sent.sum(),
+                received.sum());
+    }
+    
+    private void accept() {
+        
+        AtomicInteger number = new AtomicInteger();
+        
+        while (!stopped) {
+            
+            try {
+                
+                Socket socket = server.accept();
+                daemon("cluster-in-" + number.incrementAndGet(),
+                        () -> receive(socket));
+            }
+            
+            catch (IOException e) {
+                
+                if (!stopped) {
+                    
+                    System.err.println("Кластер: " + e.getMessage());
+                }
+                
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Читает сообщения одного входящего соединения.
+     */
+    private void receive(Socket socket) {
+        
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                socket.getInputStream(), 64 * 1024))) {
+            
+            while (true) {
+                
+                int type = in.readByte();
+                
+                if (type == BATCH) {
+                    
+                    for (int count = in.readInt(); count > 0; --count) {
+                        
+                        int depth = in.readInt();
+                        byte[] URL = new byte[in.readInt()];
+                        in.readFully(URL);
+                        
+                        /**
+                         * Счётчик увеличивается после добавления: когда
+                         * суммы сходятся, пара уже учтена в пуле.
+                         */
+                        pool.put(new String(URL, StandardCharsets.UTF_8),
+                                depth);
+                        received.increment();
+                    }
+                }
+                
+                else if (type == QUERY) {
+                    
+                    peers[0].reply(in.readLong(), status());
+                }
+                
+                else if (type == REPLY) {
+                    
+                    long replyWave = in.readLong();
+                    int node = in.readInt();
+                    Status status = new Status(in.readBoolean(),
+                            in.readLong(), in.readLong());
+                    
+                    recordReply(replyWave, node, status);
+                }
+                
+                else if (type == STOP) {
+                    
+                    stopLocally();
+                    return;
+                }
+                
+                else {
+                    
+                    throw new IOException("Неизвестное сообщение: " + type);
+                }
+            }
+        }
+        
+        catch (EOFException | SocketException e) {
+            
+            /**
+             * Соседний узел закрыл соединение.
+             */
+        }
+        
+        catch (IOException e) {
+            
+            fail(e);
+        }
+    }
+    
+    private void flushPeriodically() {
+        
+        while (!stopped) {
+            
+            try {
+                
+                Thread.sleep(batchDelay);
+                flushAll();
+            }
+            
+            catch (InterruptedException e) {
+                
+                return;
+            }
+            
+            catch (IOException e) {
+                
+                fail(e);
+            }
+        }
+    }
+    
+    private void flushAll() throws IOException {
+        
+        for (Peer peer : peers) {
+            
+            if (peer != null) {
+                
+                peer.flush();
+            }
+        }
+    }
+    
+    /**
+     * Волны проверки завершения на узле 0.
+     */
+    private void detectTermination() {
+        
+        Status[] previous = null;
+        
+        try {
+            
+            while (!stopped) {
+                
+                Thread.sleep(WAVE_INTERVAL);
+                
+                Status[] current = collectWave();
+                
+                if (previous != null && current != null
+                        && isQuiet(previous) && isQuiet(current)
+                        && sentTotal(previous) == sentTotal(current)
+                        && receivedTotal(previous)
+                        == receivedTotal(current)) {
+                    
+                    for (Peer peer : peers) {
+                        
+                        if (peer != null) {
+                            
+                            peer.stop();
+                        }
+                    }
+                    
+                    stopLocally();
+                    return;
+                }
+                
+                previous = current;
+            }
+        }
+        
+        catch (InterruptedException e) {
+            
+            Thread.currentThread().interrupt();
+        }
+        
+        catch (IOException e) {
+            
+            fail(e);
+        }
+    }
+    
+    /**
+     * Опрашивает все узлы.
+     * @return состояния узлов или null, если ответили не все
+     */
+    private Status[] collectWave() throws IOException, InterruptedException {
+        
+        long number;
+        
+        synchronized (this) {
+            
+            number = ++wave;
+            replies = new Status[addresses.length];
+            ++waves;
+        }
+        
+        for (Peer peer : peers) {
+            
+            if (peer != null) {
+                
+                peer.query(number);
+            }
+        }
+        
+        recordReply(number, self, status());
+        
+        long deadline = System.nanoTime() + WAVE_TIMEOUT;
+        
+        synchronized (this) {
+            
+            while (!isComplete(replies)) {
+                
+                long left = deadline - System.nanoTime();
+                
+                if (left <= 0) {
+                    
+                    return null;
+                }
+                
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            }
+            
+            return replies;
+        }
+    }
+    
+    private synchronized void recordReply(long replyWave, int node,
+            Status status) {
+        
+        /**
+         * Опоздавшие ответы прошлых волн не учитываются.
+         */
+        if (replyWave == wave && replies != null) {
+            
+            replies[node] = status;
+            notifyAll();
+        }
+    }
+    
+    private void stopLocally() {
+        
+        stopped = true;
+        pool.wakeWaiting();
+    }
+    
+    /**
+     * Соседний узел недоступен: распределённый обход продолжить нельзя.
+     */
+    private void fail(IOException e) {
+        
+        if (!stopped) {
+            
+            System.err.println("Кластер: " + e.getMessage()
+                    + ", обход остановлен");
+            stopLocally();
+            
+            /**
+             * Остальные узлы тоже останавливаются, насколько они доступны.
+             */
+            for (Peer peer : peers) {
+                
+                try {
+                    
+                    if (peer != null) {
+                        
+                        peer.stop();
+                    }
+                }
+                
+                catch (IOException stopError) {
+                    
+                    /**
+                     * Этот узел и есть недоступный.
+                     */
+                }
+            }
+        }
+    }
+    
+    private static void daemon(String name, Runnable task) {
+        
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    private static boolean isComplete(Status[] wave) {
+        
+        for (Status status : wave) {
+            
+            if (status == null) {
+                
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Все узлы простаивают, и ни одна ссылка не в пути.
+     */
+    private static boolean isQuiet(Status[] wave) {
+        
+        for (Status status : wave) {
+            
+            if (!status.idle) {
+                
+                return false;
+            }
+        }
+        
+        return sentTotal(wave) == receivedTotal(wave);
+    }
+    
+    private static long sentTotal(Status[] wave) {
+        
+        long total = 0;
+        
+        for (Status status : wave) {
+            
+            total += status.sent;
+        }
+        
+        return total;
+    }
+    
+    private static long receivedTotal(Status[] wave) {
+        
+        long total = 0;
+        
+        for (Status status : wave) {
+            
+            total += status.received;
+        }
+        
+        return total;
+    }
+}
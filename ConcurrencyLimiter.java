@@ -0,0 +1,285 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Адаптивное ограничение количества одновременных запросов по схеме AIMD
+ * (аддитивное увеличение, мультипликативное уменьшение), общее и для
+ * каждого хоста. Пределы читает HostFrontier, а результаты загрузок
+ * передаёт URLPool.
+ *
+ * Общий предел пересматривается после каждого окна завершённых запросов
+ * (не меньше 16 и не меньше текущего предела). Если в окне много ошибок или
+ * задержка заметно выросла относительно наименьшей, предел уменьшается,
+ * иначе растёт: сначала вдвое за окно (медленный старт), после первого
+ * уменьшения - на единицу. Предел хоста уменьшается вдвое при ошибке сети,
+ * ответе 429 или 503 и растёт на единицу за каждые limit успешных ответов.
+ * Каждое изменение пишется в поток ошибок вместе с причиной.
+ * @author sergeychaika
+ */
+public class ConcurrencyLimiter {
+    
+    /**
+     * Окно, после которого пересматривается общий предел.
+     */
+    private static final int MIN_WINDOW = 16;
+    
+    /**
+     * Доля ошибок в окне, при которой общий предел уменьшается.
+     */
+    private static final double ERROR_RATE = 0.1;
+    
+    /**
+     * Во сколько раз задержка может превысить наименьшую, прежде чем это
+     * будет сочтено перегрузкой.
+     */
+    private static final double LATENCY_TOLERANCE = 2.0;
+    
+    /**
+     * Множители уменьшения: при ошибках и при росте задержки.
+     */
+    private static final double ERROR_BACKOFF = 0.5;
+    private static final double LATENCY_BACKOFF = 0.75;
+    
+    /**
+     * После уменьшения предела хоста следующие ошибки в течение этого
+     * времени считаются следствием той же перегрузки.
+     */
+    private static final long HOST_QUIET_NANOS = TimeUnit.SECONDS.toNanos(1);
+    
+    /**
+     * Состояние одного хоста.
+     */
+    private static class HostLimit {
+        
+        double limit;
+        boolean slowStart = true;
+        long lastDecrease;
+        
+        HostLimit(int initial) {
+            
+            limit = initial;
+        }
+    }
+    
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxHostLimit;
+    
+    private double limit;
+    private boolean slowStart = true;
+    private String reason = "начальное значение";
+    
+    /**
+     * Текущее окно: сколько запросов завершено, сколько с ошибкой и сумма
+     * задержек успешных.
+     */
+    private int windowCount;
+    private int windowErrors;
+    private long windowLatency;
+    
+    /**
+     * Наименьшая средняя задержка окна: задержка без перегрузки.
+     */
+    private long baseline = Long.MAX_VALUE;
+    
+    private final ConcurrentHashMap<String, HostLimit> hosts =
+            new ConcurrentHashMap<>();
+    
+    /**
+     * @param min наименьший общий предел
+     * @param max наибольший общий предел (количество рабочих потоков или
+     * запросов в режиме nio)
+     * @param maxPerHost наибольший предел хоста
+     */
+    public ConcurrencyLimiter(int min, int max, int maxPerHost) {
+        
+        maxLimit = Math.max(1, max);
+        minLimit = Math.max(1, Math.min(min, maxLimit));
+        maxHostLimit = Math.max(1, maxPerHost);
+        limit = Math.min(maxLimit, Math.max(minLimit, 4));
+    }
+    
+    /**
+     * @return текущий общий предел одновременных запросов
+     */
+    public synchronized int getLimit() {
+        
+        return (int) limit;
+    }
+    
+    /**
+     * @return причина последнего изменения общего предела
+     */
+    public synchronized String getReason() {
+        
+        return reason;
+    }
+    
+    /**
+     * @param host хост
+     * @return текущий предел одновременных запросов к хосту
+     */
+    public int getHostLimit(String host) {
+        
+        HostLimit state = hosts.get(host);
+        
+        if (state == null) {
+            
+            return Math.min(maxHostLimit, 2);
+        }
+        
+        synchronized (state) {
+            
+            return (int) state.limit;
+        }
+    }
+    
+    /**
+     * Учитывает завершённую загрузку.
+     * @param result результат загрузки
+     * @return true, если общий предел вырос и можно запустить больше
+     * запросов
+     */
+    public boolean record(FetchResult result) {
+        
+        int code = result.getStatusCode();
+        
+        if (code == FetchResult.NOT_FETCHED) {
+            
+            return false;
+        }
+        
+        boolean overload = code == FetchResult.FAILED || code == 429
+                || code == 503;
+        
+        recordHost(result.getDepthPair().getWebHost(), code, overload);
+        return recordGlobal(result.getLatencyNanos(), overload);
+    }
+    
+    @Override
+    public synchronized String toString() {
+        
+        return String.format("Параллельность: предел %d (от %d до %d), "
+                + "последнее изменение: %s", (int) limit, minLimit, maxLimit,
+                reason);
+    }
+    
+    private synchronized boolean recordGlobal(long latency,
+            boolean overload) {
+        
+        ++windowCount;
+        
+        if (overload) {
+            
+            ++windowErrors;
+        }
+        
+        else {
+            
+            windowLatency += latency;
+        }
+        
+        if (windowCount < Math.max(MIN_WINDOW, (int) limit)) {
+            
+            return false;
+        }
+        
+        int before = (int) limit;
+        double errorRate = (double) windowErrors / windowCount;
+        int successes = windowCount - windowErrors;
+        long mean = successes == 0 ? 0 : windowLatency / successes;
+        
+        if (successes != 0) {
+            
+            baseline = Math.min(baseline, mean);
+        }
+        
+        String cause;
+        
+        if (errorRate > ERROR_RATE) {
+            
+            limit = Math.max(minLimit, limit * ERROR_BACKOFF);
+            slowStart = false;
+            cause = String.format("ошибок %.0f%%", errorRate * 100);
+        }
+        
+        else if (successes != 0 && mean > baseline * LATENCY_TOLERANCE) {
+            
+            limit = Math.max(minLimit, limit * LATENCY_BACKOFF);
+            slowStart = false;
+            cause = String.format("задержка %.1f мс при наименьшей %.1f мс",
+                    mean / 1e6, baseline / 1e6);
+        }
+        
+        else {
+            
+            limit = Math.min(maxLimit, slowStart ? limit * 2 : limit + 1);
+            cause = String.format("ошибок %.0f%%, задержка %.1f мс",
+                    errorRate * 100, mean / 1e6);
+        }
+        
+        /**
+         * Наименьшая задержка понемногу забывается, чтобы предел не
+         * застревал внизу, если сервер стал медленнее насовсем.
+         */
+        if (successes != 0) {
+            
+            baseline += (mean - baseline) / 8;
+        }
+        
+        windowCount = 0;
+        windowErrors = 0;
+        windowLatency = 0;
+        
+        int after = (int) limit;
+        
+        if (after != before) {
+            
+            reason = cause;
+            System.err.println("Параллельность: " + before + " -> " + after
+                    + " (" + cause + ")");
+        }
+        
+        return after > before;
+    }
+    
+    private void recordHost(String host, int code, boolean overload) {
+        
+        HostLimit state = hosts.computeIfAbsent(host,
+                key -> new HostLimit(Math.min(maxHostLimit, 2)));
+        
+        synchronized (state) {
+            
+            int before = (int) state.limit;
+            long now = System.nanoTime();
+            
+            if (overload) {
+                
+                if (now - state.lastDecrease < HOST_QUIET_NANOS) {
+                    
+                    return;
+                }
+                
+                state.limit = Math.max(1, state.limit * ERROR_BACKOFF);
+                state.slowStart = false;
+                state.lastDecrease = now;
+            }
+            
+            else {
+                
+                state.limit = Math.min(maxHostLimit, state.slowStart
+                        ? state.limit + 1 : state.limit + 1 / state.limit);
+            }
+            
+            int after = (int) state.limit;
+            
+            if (after != before) {
+                
+                System.err.println("Параллельность " + host + ": " + before
+                        + " -> " + after + " (" + (overload ? code
+                                == FetchResult.FAILED ? "ошибка сети"
+                                : "ответ " + code : "успешный ответ") + ")");
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+import java.util.function.BooleanSupplier;
+
+/**
+ * Очередь, которой не нужна блокировка пула: add, poll и release
+ * потокобезопасны без общей блокировки, а потоки без готовых пар ждут и
+ * будятся в самой очереди. URLPool с такой очередью не захватывает свой
+ * монитор ни в put, ни в get, ни в done.
+ *
+ * add и release сами будят один спящий поток; пул будит все, когда обход
+ * закончен, вырос общий предел или release открыл следующий уровень.
+ * @author sergeychaika
+ */
+public interface ConcurrentFrontier extends Frontier {
+    
+    /**
+     * Усыпляет текущий поток до пробуждения или до истечения времени.
+     * @param ready условие, при котором спать не нужно; проверяется уже
+     * после того, как поток отмечен спящим
+     * @param nanos сколько спать не дольше или -1, чтобы спать до
+     * пробуждения
+     */
+    void park(BooleanSupplier ready, long nanos);
+    
+    /**
+     * Будит все спящие потоки.
+     */
+    void wakeAll();
+    
+    /**
+     * @return количество спящих потоков
+     */
+    int getIdle();
+}
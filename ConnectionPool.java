@@ -0,0 +1,437 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Пул постоянных соединений, разбитый по хостам. Для каждого хоста хранится
+ * очередь свободных соединений и ограничивается количество открытых
+ * соединений. Соединения, простоявшие без дела дольше заданного времени,
+ * закрываются, а хосты без открытых соединений удаляются из пула.
+ * @author sergeychaika
+ */
+public class ConnectionPool {
+    
+    /**
+     * Соединения одного хоста.
+     */
+    private static class HostSlot {
+        
+        final ArrayDeque<HttpConnection> idle = new ArrayDeque<>();
+        
+        /**
+         * Количество открытых соединений, включая занятые.
+         */
+        int open;
+        
+        /**
+         * Слот удалён из пула; поток, успевший получить его до удаления,
+         * берёт новый.
+         */
+        boolean removed;
+    }
+    
+    private final ConcurrentHashMap<String, HostSlot> hosts =
+            new ConcurrentHashMap<>();
+    
+    private final int maxPerHost;
+    private final long idleTimeoutNanos;
+    private final int connectTimeout;
+    private final int readTimeout;
+    
+    /**
+     * Рукопожатия TLS для соединений https.
+     */
+    private final TlsConnector tls;
+    
+    /**
+     * Время разрешения имён и подключения.
+     */
+    private final CrawlMetrics metrics;
+    
+    /**
+     * Кэш адресов хостов.
+     */
+    private final DnsCache dns;
+    
+    /**
+     * Статистика пула.
+     */
+    private final LongAdder created = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    
+    /**
+     * Настройки пула. Обязательны только рукопожатия TLS; по умолчанию 4
+     * соединения на хост, простой 15 секунд, таймаут 3 секунды, новые
+     * метрики и новый кэш DNS.
+     */
+    public static class Builder {
+        
+        private final TlsConnector tls;
+        private int connectionsPerHost = 4;
+        private long idleTimeoutMillis = 15000;
+        private int timeoutMillis = 3000;
+        private CrawlMetrics metrics;
+        private DnsCache dns;
+        
+        /**
+         * @param connector рукопожатия TLS для https
+         */
+        public Builder(TlsConnector connector) {
+            
+            tls = connector;
+        }
+        
+        /**
+         * @param connections максимум открытых соединений на хост
+         * @return этот же объект
+         */
+        public Builder connectionsPerHost(int connections) {
+            
+            connectionsPerHost = connections;
+            return this;
+        }
+        
+        /**
+         * @param millis время простоя, после которого соединение
+         * закрывается
+         * @return этот же объект
+         */
+        public Builder idleTimeout(long millis) {
+            
+            idleTimeoutMillis = millis;
+            return this;
+        }
+        
+        /**
+         * @param millis таймаут подключения и чтения
+         * @return этот же объект
+         */
+        public Builder timeout(int millis) {
+            
+            timeoutMillis = millis;
+            return this;
+        }
+        
+        /**
+         * @param crawlMetrics метрики обхода
+         * @return этот же объект
+         */
+        public Builder metrics(CrawlMetrics crawlMetrics) {
+            
+            metrics = crawlMetrics;
+            return this;
+        }
+        
+        /**
+         * @param dnsCache кэш адресов хостов
+         * @return этот же объект
+         */
+        public Builder dns(DnsCache dnsCache) {
+            
+            dns = dnsCache;
+            return this;
+        }
+        
+        public ConnectionPool build() {
+            
+            return new ConnectionPool(this);
+        }
+    }
+    
+    private ConnectionPool(Builder builder) {
+        
+        long idleTimeoutMillis = builder.idleTimeoutMillis;
+        
+        tls = builder.tls;
+        metrics = builder.metrics != null ? builder.metrics
+                : new CrawlMetrics();
+        dns = builder.dns != null ? builder.dns : new DnsCache();
+        maxPerHost = builder.connectionsPerHost;
+        idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        connectTimeout = builder.timeoutMillis;
+        readTimeout = builder.timeoutMillis;
+        
+        /**
+         * Фоновый поток, закрывающий простаивающие соединения.
+         */
+        Thread evictor = new Thread(() -> {
+            
+            while (true) {
+                
+                try {
+                    
+                    Thread.sleep(Math.max(1, idleTimeoutMillis / 2));
+                }
+                
+                catch (InterruptedException e) {
+                    
+                    return;
+                }
+                
+                evictIdle();
+            }
+        }, "connection-evictor");
+        
+        evictor.setDaemon(true);
+        evictor.start();
+    }
+    
+    /**
+     * Берёт свободное соединение с хостом или открывает новое. Если открыто
+     * уже максимальное количество соединений, ждёт, пока одно не освободится.
+     * Для https поверх нового соединения выполняется рукопожатие TLS.
+     * @param scheme схема (http или https)
+     * @param host имя хоста
+     * @param port порт
+     * @return соединение
+     * @throws IOException ошибка подключения
+     */
+    public HttpConnection acquire(String scheme, String host, int port)
+            throws IOException {
+        
+        String key = scheme + "://" + host + ':' + port;
+        HostSlot slot;
+        
+        while (true) {
+            
+            slot = hosts.computeIfAbsent(key, k -> new HostSlot());
+            
+            synchronized (slot) {
+                
+                if (!slot.removed) {
+                    
+                    HttpConnection connection = reserve(slot);
+                    
+                    if (connection != null) {
+                        
+                        return connection;
+                    }
+                    
+                    break;
+                }
+            }
+        }
+        
+        /**
+         * Подключаемся вне блокировки, чтобы не задерживать другие потоки.
+         */
+        try {
+            
+            /**
+             * Имя разрешается отдельно от подключения, чтобы время DNS и
+             * время подключения считались раздельно. Обычно адрес уже
+             * есть в кэше, и время DNS близко к нулю.
+             */
+            long start = System.nanoTime();
+            InetAddress address = dns.resolve(host);
+            long resolved = System.nanoTime();
+            metrics.getDns().record(resolved - start);
+            
+            Socket socket = new Socket();
+            socket.connect(new InetSocketAddress(address, port),
+                    connectTimeout);
+            metrics.getConnect().record(System.nanoTime() - resolved);
+            socket.setSoTimeout(readTimeout);
+            
+            if (scheme.equals("https")) {
+                
+                try {
+                    
+                    socket = tls.connect(socket, host, port);
+                }
+                
+                catch (IOException e) {
+                    
+                    socket.close();
+                    throw e;
+                }
+            }
+            
+            created.increment();
+            
+            return new HttpConnection(socket, key);
+        }
+        
+        catch (IOException | RuntimeException e) {
+            
+            synchronized (slot) {
+                
+                --slot.open;
+                slot.notify();
+            }
+            
+            throw e;
+        }
+    }
+    
+    /**
+     * Берёт свободное соединение слота или резервирует место для нового,
+     * ожидая, пока оно не появится. Вызывается под блокировкой слота.
+     * @return свободное соединение или null, если нужно открыть новое
+     */
+    private HttpConnection reserve(HostSlot slot) throws IOException {
+        
+        while (true) {
+            
+            HttpConnection connection;
+            
+            while ((connection = slot.idle.pollFirst()) != null) {
+                
+                if (connection.isOpen()
+                        && !isExpired(connection, System.nanoTime())) {
+                    
+                    reused.increment();
+                    return connection;
+                }
+                
+                --slot.open;
+                connection.close();
+                evicted.increment();
+            }
+            
+            if (slot.open < maxPerHost) {
+                
+                ++slot.open;
+                return null;
+            }
+            
+            try {
+                
+                slot.wait();
+            }
+            
+            catch (InterruptedException e) {
+                
+                Thread.currentThread().interrupt();
+                throw new IOException("Ожидание соединения прервано");
+            }
+        }
+    }
+    
+    /**
+     * Возвращает соединение в пул.
+     * @param connection соединение
+     * @param reusable true, если ответ прочитан полностью и сервер не
+     * закрывает соединение
+     */
+    public void release(HttpConnection connection, boolean reusable) {
+        
+        HostSlot slot = hosts.get(connection.getHostKey());
+        
+        /**
+         * Слот с открытым соединением не удаляется, но соединение могли
+         * взять не из этого пула.
+         */
+        if (slot == null) {
+            
+            connection.close();
+            return;
+        }
+        
+        synchronized (slot) {
+            
+            if (reusable && connection.isOpen()) {
+                
+                connection.markUsed();
+                slot.idle.addFirst(connection);
+            }
+            
+            else {
+                
+                --slot.open;
+                connection.close();
+            }
+            
+            slot.notify();
+        }
+    }
+    
+    /**
+     * Закрывает соединения, простоявшие дольше заданного времени, и удаляет
+     * хосты, у которых не осталось открытых соединений.
+     */
+    public void evictIdle() {
+        
+        long now = System.nanoTime();
+        
+        for (Map.Entry<String, HostSlot> host : hosts.entrySet()) {
+            
+            HostSlot slot = host.getValue();
+            
+            synchronized (slot) {
+                
+                Iterator<HttpConnection> iterator = slot.idle.iterator();
+                
+                while (iterator.hasNext()) {
+                    
+                    HttpConnection connection = iterator.next();
+                    
+                    if (!connection.isOpen() || isExpired(connection, now)) {
+                        
+                        iterator.remove();
+                        --slot.open;
+                        connection.close();
+                        evicted.increment();
+                    }
+                }
+                
+                if (slot.open == 0) {
+                    
+                    slot.removed = true;
+                    hosts.remove(host.getKey(), slot);
+                }
+            }
+        }
+    }
+    
+    private boolean isExpired(HttpConnection connection, long now) {
+        
+        return now - connection.getLastUsed() > idleTimeoutNanos;
+    }
+    
+    /**
+     * @return рукопожатия TLS
+     */
+    public TlsConnector getTls() {
+        
+        return tls;
+    }
+    
+    public long getCreated() {
+        
+        return created.sum();
+    }
+    
+    public long getReused() {
+        
+        return reused.sum();
+    }
+    
+    /**
+     * Доля запросов, выполненных через уже открытое соединение.
+     * @return доля повторного использования от 0 до 1
+     */
+    public double getReuseRatio() {
+        
+        long reuses = reused.sum();
+        long total = reuses + created.sum();
+        
+        return total == 0 ? 0.0 : (double) reuses / total;
+    }
+    
+    @Override
+    public String toString() {
+        
+        return String.format("Соединения: открыто %d, использовано повторно "
+                + "%d (%.1f%%), закрыто по простою %d", created.sum(),
+                reused.sum(), getReuseRatio() * 100, evicted.sum());
+    }
+}
@@ -0,0 +1,71 @@
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Поток, считающий прочитанные байты.
+ * @author sergeychaika
+ */
+public class CountingInputStream extends FilterInputStream {
+    
+    private long count;
+    
+    /**
+     * @param in исходный поток
+     */
+    public CountingInputStream(InputStream in) {
+        
+        super(in);
+    }
+    
+    @Override
+    public int read() throws IOException {
+        
+        int b = in.read();
+        
+        if (b >= 0) {
+            
+            ++count;
+        }
+        
+        return b;
+    }
+    
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        
+        int read = in.read(buffer, offset, length);
+        
+        if (read > 0) {
+            
+            count += read;
+        }
+        
+        return read;
+    }
+    
+    @Override
+    public long skip(long n) throws IOException {
+        
+        long skipped = in.skip(n);
+        count += skipped;
+        return skipped;
+    }
+    
+    /**
+     * Метки не поддерживаются, чтобы счётчик не считал байты дважды.
+     */
+    @Override
+    public boolean markSupported() {
+        
+        return false;
+    }
+    
+    /**
+     * @return сколько байтов прочитано
+     */
+    public long getCount() {
+        
+        return count;
+    }
+}
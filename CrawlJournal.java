@@ -0,0 +1,364 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Журнал состояния обхода для продолжения после остановки. Вместо снимков
+ * всего пула в журнал дописываются только изменения: каждый новый URL,
+ * попавший в множество просмотренных (запись S с глубиной и URL), и каждая
+ * обработанная страница (запись D с отпечатком URL). Рабочие потоки только
+ * кладут записи в очередь, а на диск их пишет отдельный поток, который
+ * периодически вызывает fsync, поэтому сохранение не останавливает обход.
+ * Ссылки страницы попадают в журнал раньше, чем отметка о её обработке,
+ * поэтому после сбоя ни одна найденная ссылка не теряется.
+ * @author sergeychaika
+ */
+public class CrawlJournal {
+    
+    private static final byte SEEN = 'S';
+    private static final byte DONE = 'D';
+    
+    private static final int MAX_URL_BYTES = 1024 * 1024;
+    
+    /**
+     * Запись в очереди на запись.
+     */
+    private static class Entry {
+        
+        final boolean done;
+        final URLDepthPair depthPair;
+        
+        Entry(boolean isDone, URLDepthPair pair) {
+            
+            done = isDone;
+            depthPair = pair;
+        }
+    }
+    
+    /**
+     * Получатель пар при восстановлении обхода.
+     */
+    public interface Replay {
+        
+        /**
+         * @param depthPair просмотренная пара
+         * @param done обработана ли страница
+         */
+        void restore(URLDepthPair depthPair, boolean done);
+    }
+    
+    /**
+     * Ограниченная очередь: если диск не успевает, рабочие потоки ждут.
+     */
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>(
+            64 * 1024);
+    
+    private final Path path;
+    private final FileChannel channel;
+    private final DataOutputStream out;
+    private final long syncNanos;
+    private final Thread writer;
+    
+    private volatile boolean closing;
+    private volatile boolean failed;
+    private long written;
+    
+    /**
+     * Отпечатки обработанных страниц прошлого обхода, нужны до вызова
+     * replay.
+     */
+    private Set<Long> restoredDone = new HashSet<>();
+    
+    /**
+     * Открывает журнал. При продолжении обхода журнал прочитывается, его
+     * неполная последняя запись, оставшаяся после аварийной остановки,
+     * отрезается, и новые записи дописываются в конец. Иначе журнал
+     * начинается заново.
+     * @param file файл журнала
+     * @param resume продолжить прошлый обход
+     * @param syncMillis как часто сбрасывать журнал на диск
+     * @throws IOException ошибка чтения или открытия файла
+     */
+    public CrawlJournal(Path file, boolean resume, long syncMillis)
+            throws IOException {
+        
+        path = file;
+        
+        /**
+         * Первый проход собирает отпечатки обработанных страниц, второй
+         * (replay) восстанавливает пары, поэтому все URL в памяти не
+         * держатся.
+         */
+        long validLength = resume && Files.exists(file)
+                ? read(file, null, restoredDone) : 0;
+        
+        channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        channel.truncate(validLength);
+        channel.position(validLength);
+        out = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(channel), 64 * 1024));
+        syncNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, syncMillis));
+        
+        writer = new Thread(this::writeLoop, "journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    /**
+     * Отмечает новый просмотренный URL.
+     * @param depthPair пара, добавленная в множество просмотренных
+     */
+    public void seen(URLDepthPair depthPair) {
+        
+        enqueue(new Entry(false, depthPair));
+    }
+    
+    /**
+     * Отмечает обработанную страницу.
+     * @param depthPair пара, полученная из пула
+     */
+    public void done(URLDepthPair depthPair) {
+        
+        enqueue(new Entry(true, depthPair));
+    }
+    
+    /**
+     * @return сколько записей сохранено
+     */
+    public long getWritten() {
+        
+        return written;
+    }
+    
+    /**
+     * Дописывает оставшиеся записи и закрывает журнал. Записи, добавленные
+     * после вызова, отбрасываются.
+     */
+    public void close() {
+        
+        closing = true;
+        
+        try {
+            
+            writer.join();
+        }
+        
+        catch (InterruptedException e) {
+            
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Передаёт каждую пару прошлого обхода получателю в порядке добавления.
+     * Вызывается один раз, до начала обхода.
+     * @param replay получатель пар
+     * @return сколько пар восстановлено
+     * @throws IOException ошибка чтения
+     */
+    public long replay(Replay replay) throws IOException {
+        
+        long[] count = new long[1];
+        
+        if (channel.size() == 0) {
+            
+            return 0;
+        }
+        
+        read(path, (depthPair, done) -> {
+            
+            ++count[0];
+            replay.restore(depthPair, done);
+        }, restoredDone);
+        
+        restoredDone = null;
+        return count[0];
+    }
+    
+    /**
+     * Один проход по журналу.
+     * @return длина журнала без неполной последней записи
+     */
+    private static long read(Path file, Replay replay, Set<Long> done)
+            throws IOException {
+        
+        try (InputStream raw = Files.newInputStream(file)) {
+            
+            CountingInputStream counter = new CountingInputStream(
+                    new BufferedInputStream(raw, 64 * 1024));
+            DataInputStream in = new DataInputStream(counter);
+            long valid = 0;
+            
+            try {
+                
+                while (true) {
+                    
+                    byte type = in.readByte();
+                    
+                    if (type == DONE) {
+                        
+                        long fingerprint = in.readLong();
+                        
+                        if (replay == null) {
+                            
+                            done.add(fingerprint);
+                        }
+                    }
+                    
+                    else if (type == SEEN) {
+                        
+                        int depth = in.readInt();
+                        int length = in.readInt();
+                        
+                        /**
+                         * Длина из недописанной записи.
+                         */
+                        if (length < 0 || length > MAX_URL_BYTES) {
+                            
+                            break;
+                        }
+                        
+                        byte[] url = new byte[length];
+                        in.readFully(url);
+                        
+                        if (replay != null) {
+                            
+                            String URL = new String(url,
+                                    StandardCharsets.UTF_8);
+                            replay.restore(new URLDepthPair(URL, depth),
+                                    done.contains(URLFingerprint.of(URL)));
+                        }
+                    }
+                    
+                    else {
+                        
+                        break;
+                    }
+                    
+                    valid = counter.getCount();
+                }
+            }
+            
+            catch (EOFException e) {
+                
+                /**
+                 * Журнал кончился, возможно на неполной записи.
+                 */
+            }
+            
+            return valid;
+        }
+    }
+    
+    private void enqueue(Entry entry) {
+        
+        if (closing || failed) {
+            
+            return;
+        }
+        
+        try {
+            
+            queue.put(entry);
+        }
+        
+        catch (InterruptedException e) {
+            
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Цикл потока записи: пишет записи из очереди и раз в syncNanos
+     * сбрасывает их на диск.
+     */
+    private void writeLoop() {
+        
+        long lastSync = System.nanoTime();
+        
+        try {
+            
+            while (true) {
+                
+                Entry entry = queue.poll(syncNanos, TimeUnit.NANOSECONDS);
+                
+                if (entry != null) {
+                    
+                    write(entry);
+                }
+                
+                else if (closing) {
+                    
+                    break;
+                }
+                
+                long now = System.nanoTime();
+                
+                if (now - lastSync >= syncNanos) {
+                    
+                    sync();
+                    lastSync = now;
+                }
+            }
+            
+            sync();
+            out.close();
+        }
+        
+        catch (IOException e) {
+            
+            failed = true;
+            queue.clear();
+            System.err.println("Журнал обхода не сохранён: " + e.getMessage());
+        }
+        
+        catch (InterruptedException e) {
+            
+            failed = true;
+        }
+    }
+    
+    private void write(Entry entry) throws IOException {
+        
+        String URL = entry.depthPair.getURL();
+        
+        if (entry.done) {
+            
+            out.writeByte(DONE);
+            out.writeLong(URLFingerprint.of(URL));
+        }
+        
+        else {
+            
+            byte[] url = URL.getBytes(StandardCharsets.UTF_8);
+            out.writeByte(SEEN);
+            out.writeInt(entry.depthPair.getDepth());
+            out.writeInt(url.length);
+            out.write(url);
+        }
+        
+        ++written;
+    }
+    
+    private void sync() throws IOException {
+        
+        out.flush();
+        channel.force(false);
+    }
+}
@@ -0,0 +1,416 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Счётчики и гистограммы задержек обхода. Запись выполняется из рабочих
+ * потоков и потоков NIO без блокировок и без создания объектов (только
+ * первый ответ нового хоста заводит для него счётчики); чтение собирает
+ * снимок для JMX, страницы статистики и итоговой сводки.
+ * @author sergeychaika
+ */
+public class CrawlMetrics implements CrawlMetricsMXBean {
+    
+    /**
+     * Индексы счётчиков хоста: ошибки сети, классы кодов 1xx-5xx и прочие
+     * коды.
+     */
+    private static final int HOST_ERRORS = 0;
+    private static final int HOST_OTHER = 6;
+    private static final String[] HOST_KEYS = {"errors", "1xx", "2xx", "3xx",
+        "4xx", "5xx", "other"};
+    
+    private final LatencyHistogram dns = new LatencyHistogram();
+    private final LatencyHistogram connect = new LatencyHistogram();
+    private final LatencyHistogram ttfb = new LatencyHistogram();
+    private final LatencyHistogram download = new LatencyHistogram();
+    private final LatencyHistogram parse = new LatencyHistogram();
+    
+    private final LongAdder pages = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    
+    /**
+     * Количество ответов по коду; неверные коды считаются под номером 0.
+     */
+    private final AtomicLongArray statusCodes = new AtomicLongArray(600);
+    
+    private final ConcurrentHashMap<String, AtomicLongArray> hosts =
+            new ConcurrentHashMap<>();
+    
+    private final long started = System.nanoTime();
+    
+    private volatile URLPool pool;
+    private volatile ConcurrencyLimiter limiter;
+    
+    /**
+     * Подключает пул, из которого берутся размер очереди и количество
+     * ожидающих потоков.
+     * @param urlPool пул URL
+     */
+    public void watch(URLPool urlPool) {
+        
+        pool = urlPool;
+    }
+    
+    /**
+     * Подключает адаптивные пределы, текущий предел которых выводится в
+     * статистике.
+     * @param concurrencyLimiter пределы параллельности
+     */
+    public void watch(ConcurrencyLimiter concurrencyLimiter) {
+        
+        limiter = concurrencyLimiter;
+    }
+    
+    /**
+     * Регистрирует метрики в JMX под именем WebParser:type=CrawlMetrics.
+     * @throws JMException не удалось зарегистрировать
+     */
+    public void registerMBean() throws JMException {
+        
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                new ObjectName("WebParser:type=CrawlMetrics"));
+    }
+    
+    public LatencyHistogram getDns() {
+        
+        return dns;
+    }
+    
+    public LatencyHistogram getConnect() {
+        
+        return connect;
+    }
+    
+    /**
+     * @return время от отправки запроса до заголовков ответа
+     */
+    public LatencyHistogram getTtfb() {
+        
+        return ttfb;
+    }
+    
+    /**
+     * @return время чтения тела страницы из сети
+     */
+    public LatencyHistogram getDownload() {
+        
+        return download;
+    }
+    
+    /**
+     * @return время поиска ссылок в теле страницы
+     */
+    public LatencyHistogram getParse() {
+        
+        return parse;
+    }
+    
+    /**
+     * Отмечает полученный ответ.
+     * @param host хост страницы
+     * @param code код ответа
+     * @param bodyBytes сколько байтов тела получено по сети
+     */
+    public void recordResponse(String host, int code, long bodyBytes) {
+        
+        pages.increment();
+        bytes.add(bodyBytes);
+        statusCodes.incrementAndGet(code >= 100 && code < 600 ? code : 0);
+        hostCounters(host).incrementAndGet(code >= 100 && code < 600
+                ? code / 100 : HOST_OTHER);
+    }
+    
+    /**
+     * Отмечает загрузку, не удавшуюся из-за ошибки сети.
+     * @param host хост страницы
+     */
+    public void recordError(String host) {
+        
+        errors.increment();
+        hostCounters(host).incrementAndGet(HOST_ERRORS);
+    }
+    
+    @Override
+    public long getPages() {
+        
+        return pages.sum();
+    }
+    
+    @Override
+    public long getBytes() {
+        
+        return bytes.sum();
+    }
+    
+    @Override
+    public long getErrors() {
+        
+        return errors.sum();
+    }
+    
+    @Override
+    public double getPagesPerSecond() {
+        
+        return pages.sum() / elapsedSeconds();
+    }
+    
+    @Override
+    public double getBytesPerSecond() {
+        
+        return bytes.sum() / elapsedSeconds();
+    }
+    
+    @Override
+    public long getFrontierSize() {
+        
+        URLPool urlPool = pool;
+        return urlPool == null ? 0 : urlPool.size();
+    }
+    
+    @Override
+    public int getWaitingWorkers() {
+        
+        URLPool urlPool = pool;
+        return urlPool == null ? 0 : urlPool.getWaitThreads();
+    }
+    
+    @Override
+    public int getUnfinished() {
+        
+        URLPool urlPool = pool;
+        return urlPool == null ? 0 : urlPool.getUnfinished();
+    }
+    
+    @Override
+    public int getConcurrencyLimit() {
+        
+        ConcurrencyLimiter concurrencyLimiter = limiter;
+        return concurrencyLimiter == null ? 0 : concurrencyLimiter.getLimit();
+    }
+    
+    @Override
+    public String getConcurrencyReason() {
+        
+        ConcurrencyLimiter concurrencyLimiter = limiter;
+        return concurrencyLimiter == null ? ""
+                : concurrencyLimiter.getReason();
+    }
+    
+    @Override
+    public Map<String, Long> getStatusCodes() {
+        
+        Map<String, Long> codes = new TreeMap<>();
+        
+        for (int code = 0; code < statusCodes.length(); ++code) {
+            
+            long count = statusCodes.get(code);
+            
+            if (count != 0) {
+                
+                codes.put(code == 0 ? "invalid" : Integer.toString(code),
+                        count);
+            }
+        }
+        
+        return codes;
+    }
+    
+    @Override
+    public Map<String, Double> getLatencyMillis() {
+        
+        Map<String, Double> latency = new LinkedHashMap<>();
+        
+        putLatency(latency, "dns", dns);
+        putLatency(latency, "connect", connect);
+        putLatency(latency, "ttfb", ttfb);
+        putLatency(latency, "download", download);
+        putLatency(latency, "parse", parse);
+        
+        return latency;
+    }
+    
+    @Override
+    public Map<String, Map<String, Long>> getHosts() {
+        
+        Map<String, Map<String, Long>> result = new TreeMap<>();
+        
+        for (Map.Entry<String, AtomicLongArray> entry : hosts.entrySet()) {
+            
+            Map<String, Long> counters = new LinkedHashMap<>();
+            
+            for (int index = 0; index < HOST_KEYS.length; ++index) {
+                
+                long count = entry.getValue().get(index);
+                
+                if (count != 0) {
+                    
+                    counters.put(HOST_KEYS[index], count);
+                }
+            }
+            
+            result.put(entry.getKey(), counters);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Все метрики в формате JSON для страницы статистики.
+     * @return объект JSON
+     */
+    public String toJson() {
+        
+        StringBuilder json = new StringBuilder(1024);
+        
+        json.append("{\"pages\":").append(getPages())
+                .append(",\"bytes\":").append(getBytes())
+                .append(",\"errors\":").append(getErrors())
+                .append(",\"pagesPerSecond\":").append(round(
+                        getPagesPerSecond()))
+                .append(",\"bytesPerSecond\":").append(round(
+                        getBytesPerSecond()))
+                .append(",\"frontier\":").append(getFrontierSize())
+                .append(",\"waitingWorkers\":").append(getWaitingWorkers())
+                .append(",\"unfinished\":").append(getUnfinished());
+        
+        if (limiter != null) {
+            
+            json.append(",\"concurrency\":{\"limit\":")
+                    .append(getConcurrencyLimit()).append(",\"reason\":");
+            appendString(json, getConcurrencyReason()).append('}');
+        }
+        
+        json.append(",\"latencyMillis\":{");
+        
+        appendHistogram(json, "dns", dns).append(',');
+        appendHistogram(json, "connect", connect).append(',');
+        appendHistogram(json, "ttfb", ttfb).append(',');
+        appendHistogram(json, "download", download).append(',');
+        appendHistogram(json, "parse", parse).append("},\"statusCodes\":");
+        
+        appendCounters(json, getStatusCodes()).append(",\"hosts\":{");
+        
+        boolean first = true;
+        
+        for (Map.Entry<String, Map<String, Long>> host
+                : getHosts().entrySet()) {
+            
+            if (!first) {
+                
+                json.append(',');
+            }
+            
+            first = false;
+            appendString(json, host.getKey()).append(':');
+            appendCounters(json, host.getValue());
+        }
+        
+        return json.append("}}").toString();
+    }
+    
+    @Override
+    public String toString() {
+        
+        return String.format("Загружено страниц: %d (%.1f в секунду), %d байт "
+                + "(%.0f байт в секунду), ошибок сети %d%n%s%n%s%n%s%n%s%n%s",
+                getPages(), getPagesPerSecond(), getBytes(),
+                getBytesPerSecond(), getErrors(), dns.summary("DNS"),
+                connect.summary("Подключение"),
+                ttfb.summary("Первый байт"), download.summary("Загрузка"),
+                parse.summary("Разбор"));
+    }
+    
+    private AtomicLongArray hostCounters(String host) {
+        
+        return hosts.computeIfAbsent(host == null ? "" : host,
+                key -> new AtomicLongArray(HOST_KEYS.length));
+    }
+    
+    private double elapsedSeconds() {
+        
+        return Math.max(1e-9, (System.nanoTime() - started) / 1e9);
+    }
+    
+    private static double round(double value) {
+        
+        return Math.round(value * 1000) / 1000.0;
+    }
+    
+    private static void putLatency(Map<String, Double> latency, String name,
+            LatencyHistogram histogram) {
+        
+        latency.put(name + ".count", (double) histogram.getCount());
+        latency.put(name + ".mean", round(histogram.getMeanMillis()));
+        latency.put(name + ".p50", histogram.getPercentileMillis(0.5));
+        latency.put(name + ".p90", histogram.getPercentileMillis(0.9));
+        latency.put(name + ".p99", histogram.getPercentileMillis(0.99));
+        latency.put(name + ".max", histogram.getMaxMillis());
+    }
+    
+    private static StringBuilder appendHistogram(StringBuilder json,
+            String name, LatencyHistogram histogram) {
+        
+        return json.append('"').append(name).append("\":{\"count\":")
+                .append(histogram.getCount())
+                .append(",\"mean\":").append(round(histogram.getMeanMillis()))
+                .append(",\"p50\":").append(histogram.getPercentileMillis(0.5))
+                .append(",\"p90\":").append(histogram.getPercentileMillis(0.9))
+                .append(",\"p99\":").append(histogram.getPercentileMillis(
+                        0.99))
+                .append(",\"max\":").append(histogram.getMaxMillis())
+                .append('}');
+    }
+    
+    private static StringBuilder appendCounters(StringBuilder json,
+            Map<String, Long> counters) {
+        
+        json.append('{');
+        
+        boolean first = true;
+        
+        for (Map.Entry<String, Long> counter : counters.entrySet()) {
+            
+            if (!first) {
+                
+                json.append(',');
+            }
+            
+            first = false;
+            appendString(json, counter.getKey()).append(':')
+                    .append(counter.getValue());
+        }
+        
+        return json.append('}');
+    }
+    
+    private static StringBuilder appendString(StringBuilder json,
+            String value) {
+        
+        json.append('"');
+        
+        for (int i = 0; i < value.length(); ++i) {
+            
+            char c = value.charAt(i);
+            
+            if (c == '"' || c == '\\') {
+                
+                json.append('\\');
+            }
+            
+            if (c >= 0x20) {
+                
+                json.append(c);
+            }
+        }
+        
+        return json.append('"');
+    }
+}
@@ -0,0 +1,71 @@
+import java.util.Map;
+
+/**
+ * Метрики обхода, доступные через JMX (например, в JConsole или
+ * VisualVM под именем WebParser:type=CrawlMetrics).
+ * @author sergeychaika
+ */
+public interface CrawlMetricsMXBean {
+    
+    /**
+     * @return сколько страниц загружено (с любым кодом ответа)
+     */
+    long getPages();
+    
+    /**
+     * @return сколько байтов тел страниц получено по сети
+     */
+    long getBytes();
+    
+    /**
+     * @return сколько загрузок не удалось из-за ошибок сети
+     */
+    long getErrors();
+    
+    double getPagesPerSecond();
+    
+    double getBytesPerSecond();
+    
+    /**
+     * @return сколько URL ждут загрузки
+     */
+    long getFrontierSize();
+    
+    /**
+     * @return сколько рабочих потоков ждут URL
+     */
+    int getWaitingWorkers();
+    
+    /**
+     * @return сколько URL в очереди или в работе
+     */
+    int getUnfinished();
+    
+    /**
+     * @return текущий общий предел одновременных запросов или 0, если
+     * параллельность не подбирается
+     */
+    int getConcurrencyLimit();
+    
+    /**
+     * @return причина последнего изменения предела
+     */
+    String getConcurrencyReason();
+    
+    /**
+     * @return количество ответов по кодам
+     */
+    Map<String, Long> getStatusCodes();
+    
+    /**
+     * @return процентили задержек по стадиям в миллисекундах, ключи вида
+     * "ttfb.p99"
+     */
+    Map<String, Double> getLatencyMillis();
+    
+    /**
+     * @return для каждого хоста количество ответов по классам (2xx, 3xx,
+     * ...) и ошибок сети
+     */
+    Map<String, Map<String, Long>> getHosts();
+}
@@ -1,20 +1,14 @@
-import java.io.BufferedReader;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PrintWriter;
-import java.net.Socket;
-import java.net.SocketException;
-import java.net.UnknownHostException;
-import java.util.LinkedList;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.net.MalformedURLException;
+import java.nio.file.Paths;
+import javax.management.JMException;
 
 /**
- * Этот класс реализует основную функциональность искателя веб-страниц. В нём
- * есть метод getSites для хранения всех ссылок на данной веб-странице в
- * дополнение к основному методу, который отслеживает важные переменные.
+ * Этот класс реализует основную функциональность искателя веб-страниц: он
+ * разбирает аргументы, создаёт пул URL и загрузчик страниц и запускает
+ * рабочие потоки. Загрузка страниц и поиск ссылок вынесены в PageFetcher.
  * @author sergeychaika
  */
 public class Crawler {
@@ -34,429 +28,608 @@ public class Crawler {
         
         int numThreads = 0;
         
-        if (args.length != 3) {
-            
-            System.out.println("usage: java Crawler <URL> <depth> "
-                    + "<number of crawler threads>");
-            System.exit(1);
-        }
+        CrawlerOptions options = null;
+        URLDepthPair currentDepthPair = null;
+        VisitedSet visited = null;
+        ConnectionPool connections = null;
+        CrawlMetrics metrics = new CrawlMetrics();
+        DnsCache dns = null;
+        NioFetchEngine engine = null;
+        Frontier frontier = null;
+        SpillingFrontier spilling = null;
+        WorkStealingFrontier stealing = null;
+        ResultSink results = null;
+        CrawlJournal journal = null;
+        ValidatorCache validators = null;
+        NearDuplicateIndex duplicates = null;
+        ConcurrencyLimiter limiter = null;
+        ClusterNode cluster = null;
+        RedirectCache redirects = null;
+        DownloadPolicy policy = null;
+        RobotsCache robots = null;
+        LinkGraph graph = null;
         
         /**
-         * Если пользователь ввёл правильное количество параметров, то
-         * продолжаем.
+         * Разбираем обязательные аргументы и необязательные параметры.
          */
         try {
+            
+            options = new CrawlerOptions(args);
+            
+            if (options.positionalCount() != 3) {
+                
+                System.out.println(CrawlerOptions.usage());
+                System.exit(1);
+            }
                 
             /**
              * Перевод аргумента командной строки из string в integer.
              */
-            maxDepthPair = Integer.parseInt(args[1]);
-            numThreads = Integer.parseInt(args[2]);
-        }
-            
-        catch (NumberFormatException nfe) {
+            maxDepthPair = Integer.parseInt(options.positional(1));
+            numThreads = Integer.parseInt(options.positional(2));
             
             /**
-             * Если второй и/или третий аргумент командной строки был введён не
-             * числом, то остановка.
+             * Начальный URL проверяется до открытия файлов и соединений.
              */
-            System.out.println("usage: java Crawler <URL> <depth> "
-                    + "<number of crawler threads>");
-            System.exit(1);
-        }
-        
-        URLDepthPair currentDepthPair = new URLDepthPair(args[0], 0);
-        
-        /**
-         * Содание нового пула.
-         */
-        URLPool pool = new URLPool(maxDepthPair);
-        pool.put(currentDepthPair);
-        
-        /**
-         * Поле для начального количества потоков.
-         */
-        int initialActiveThreads = Thread.activeCount();
-        
-        /**
-         * Если количество ожидающих потоки не равно запрошенному числу
-         * потоков и если количество всех потоков меньше запрошенного количества
-         * потоков, то создаём больше потоков и запускаем их на CrawlerTask.
-         * Иначе ждём.
-         */
-        while (pool.getWaitThreads() != numThreads) {
+            try {
+                
+                currentDepthPair = new URLDepthPair(options.positional(0), 0);
+            }
             
-            if (Thread.activeCount() - initialActiveThreads < numThreads) {
+            catch (MalformedURLException e) {
+                
+                throw new IllegalArgumentException("Неверный URL: "
+                        + e.getMessage());
+            }
+            
+            /**
+             * Для очень больших обходов точное множество просмотренных URL
+             * можно заменить фильтром Блума.
+             */
+            if (options.has("bloom")) {
                 
-                CrawlerTask crawler = new CrawlerTask(pool);
-                new Thread(crawler).start();
+                visited = new BloomVisitedSet(options.getLong("bloom", 0),
+                        options.getDouble("bloom-fpp", 0.001));
             }
             
             else {
                 
-                try {
+                visited = new HashVisitedSet();
+            }
+            
+            /**
+             * Общий кэш DNS: хосты разрешаются заранее, пока ссылки стоят в
+             * очереди.
+             */
+            int dnsThreads = options.getInt("dns-threads", 4);
+            
+            if (dnsThreads < 1) {
+                
+                throw new IllegalArgumentException("--dns-threads должно "
+                        + "быть больше нуля");
+            }
+            
+            dns = new DnsCache(options.getLong("dns-ttl", 300000),
+                    options.getLong("dns-negative-ttl", 30000), dnsThreads);
+            
+            /**
+             * Поиск почти одинаковых страниц по отпечаткам текста.
+             */
+            if (options.has("near-duplicates")) {
+                
+                duplicates = new NearDuplicateIndex(options.getInt(
+                        "near-duplicates", 3), visited);
+            }
+            
+            /**
+             * Пул постоянных соединений по хостам.
+             */
+            int hostConnections = options.getInt("host-connections", 4);
+            connections = new ConnectionPool.Builder(new TlsConnector(
+                    options.getInt("tls-sessions", 10000),
+                    options.getInt("tls-session-timeout", 3600)))
+                    .connectionsPerHost(hostConnections)
+                    .idleTimeout(options.getLong("idle-timeout", 15000))
+                    .timeout(3000)
+                    .metrics(metrics)
+                    .dns(dns)
+                    .build();
+            
+            int hostConcurrency = options.getInt("host-concurrency",
+                    hostConnections);
+            
+            /**
+             * Адаптивная параллельность: потоки или запросы nio задают
+             * только верхнюю границу, а сколько из них работает, решает
+             * ограничитель по задержкам и ошибкам.
+             */
+            if (options.has("adaptive")) {
+                
+                int maxConcurrency = options.getString("fetch", "blocking")
+                        .equals("nio") ? options.getInt("inflight", 1000)
+                        : numThreads;
+                
+                limiter = new ConcurrencyLimiter(options.getInt(
+                        "min-concurrency", 1), maxConcurrency,
+                        hostConcurrency);
+            }
+            
+            else if (options.has("min-concurrency")) {
+                
+                throw new IllegalArgumentException("Для --min-concurrency "
+                        + "нужен --adaptive");
+            }
+            
+            /**
+             * Правила robots.txt загружаются по одному разу на хост;
+             * запрещённые ссылки не попадают в очередь.
+             */
+            if (!options.has("ignore-robots")) {
+                
+                robots = new RobotsCache(connections, options.getString(
+                        "robots-agent", "crawler"), options.getInt(
+                        "robots-cache", 10000), options.getLong("robots-ttl",
+                        86_400_000));
+            }
+            
+            /**
+             * Очередь по хостам: задержка между запросами к хосту (не
+             * меньше его Crawl-delay) и ограничение одновременных запросов
+             * к нему.
+             */
+            String order = options.getString("order", "fifo");
+            
+            if (order.equals("fifo")) {
+                
+                frontier = new HostFrontier.Builder()
+                        .hostDelay(options.getLong("host-delay", 0))
+                        .hostConcurrency(hostConcurrency)
+                        .limiter(limiter)
+                        .robots(robots)
+                        .build();
+            }
+            
+            /**
+             * Очередь по приоритету: строгий обход в ширину по уровням или
+             * сначала самые полезные URL.
+             */
+            else if (order.equals("levels") || order.equals("best")) {
+                
+                if (options.has("frontier-memory")) {
                     
-                    Thread.sleep(500);
+                    throw new IllegalArgumentException("--frontier-memory "
+                            + "работает только с --order=fifo");
                 }
                 
-                catch (InterruptedException ie) {
+                frontier = new PriorityFrontier(order.equals("levels")
+                        ? PriorityFrontier.Mode.LEVELS
+                        : PriorityFrontier.Mode.BEST,
+                        scorerOf(options.getString("scorer", null)),
+                        options.getLong("host-delay", 0), hostConcurrency,
+                        limiter, robots);
+            }
+            
+            /**
+             * Очередь без общей блокировки: у каждого потока своя очередь,
+             * а свободные потоки крадут пары у занятых. Задержки и
+             * ограничения по хостам требуют общего состояния и с ней не
+             * работают.
+             */
+            else if (order.equals("steal")) {
+                
+                for (String option : new String[] {"host-delay",
+                        "host-concurrency", "adaptive", "frontier-memory"}) {
                     
-                    System.out.println("Caught unexpected InterruptedException,"
-                            + " ignoring...");
+                    if (options.has(option)) {
+                        
+                        throw new IllegalArgumentException("--" + option
+                                + " не работает с --order=steal");
+                    }
                 }
+                
+                stealing = new WorkStealingFrontier();
+                frontier = stealing;
+            }
+            
+            else {
+                
+                throw new IllegalArgumentException("Неизвестный порядок "
+                        + "очереди: " + order);
+            }
+            
+            if (options.has("scorer") && !order.equals("best")) {
+                
+                throw new IllegalArgumentException("Для --scorer нужен "
+                        + "--order=best");
+            }
+            
+            /**
+             * Для обходов больше кучи очередь держит в памяти только окно,
+             * а остальное сбрасывает на диск.
+             */
+            if (options.has("frontier-memory")) {
+                
+                spilling = new SpillingFrontier(frontier,
+                        options.getLong("frontier-memory", 0),
+                        Paths.get(options.getString("spill-dir",
+                                System.getProperty("java.io.tmpdir"))));
+                frontier = spilling;
+            }
+            
+            /**
+             * Неблокирующий режим загрузки: потоки командной строки только
+             * разбирают ответы, а загрузкой занимаются потоки NIO.
+             */
+            String fetchMode = options.getString("fetch", "blocking");
+            
+            /**
+             * Тела загружаются только у страниц разрешённых типов и не
+             * дальше лимита размера и времени.
+             */
+            policy = new DownloadPolicy(options.getString("content-types",
+                    DownloadPolicy.DEFAULT_TYPES),
+                    options.getLong("max-page-bytes", 4L * 1024 * 1024),
+                    options.getLong("page-time-budget", 30000));
+            
+            if (fetchMode.equals("nio")) {
+                
+                engine = new NioFetchEngine.Builder()
+                        .threads(options.getInt("io-threads", 2))
+                        .timeout(3000)
+                        .metrics(metrics)
+                        .dns(dns)
+                        .policy(policy)
+                        .build();
+            }
+            
+            else if (!fetchMode.equals("blocking")) {
+                
+                throw new IllegalArgumentException("Неизвестный режим "
+                        + "загрузки: " + fetchMode);
+            }
+            
+            /**
+             * Результаты пишутся по мере обработки страниц на экран или в
+             * файл.
+             */
+            String format = options.getString("format", "text");
+            
+            if (!format.equals("text") && !format.equals("ndjson")) {
+                
+                throw new IllegalArgumentException("Неизвестный формат "
+                        + "результатов: " + format);
+            }
+            
+            String output = options.getString("output", null);
+            boolean toFile = output != null;
+            OutputStream stream = toFile ? new FileOutputStream(output,
+                    options.has("resume")) : System.out;
+            
+            results = format.equals("ndjson")
+                    ? new NdjsonResultSink(stream, toFile)
+                    : new TextResultSink(stream, toFile);
+            
+            /**
+             * Кэш валидаторов: при повторном обходе неизменившиеся страницы
+             * не загружаются, а их ссылки берутся из кэша.
+             */
+            String cache = options.getString("cache", null);
+            
+            if (cache != null) {
+                
+                validators = new ValidatorCache(Paths.get(cache),
+                        options.getLong("cache-size", 64) * 1024 * 1024);
+            }
+            
+            else if (options.has("cache-size")) {
+                
+                throw new IllegalArgumentException("Для --cache-size нужен "
+                        + "--cache");
+            }
+            
+            /**
+             * Распределённый обход: хосты делятся между несколькими
+             * процессами, ссылки на чужие хосты пересылаются владельцу.
+             */
+            String nodes = options.getString("cluster", null);
+            
+            if (nodes != null) {
+                
+                cluster = new ClusterNode(ClusterNode.parseAddresses(nodes),
+                        options.getInt("node", 0),
+                        options.getInt("batch-size", 256),
+                        options.getLong("batch-delay", 100));
+            }
+            
+            else if (options.has("node")) {
+                
+                throw new IllegalArgumentException("Для --node нужен "
+                        + "--cluster");
+            }
+            
+            /**
+             * Постоянные перенаправления запоминаются, и следующие URL,
+             * которые перенаправляются так же, загружаются сразу по
+             * конечному адресу.
+             */
+            redirects = new RedirectCache(options.getInt("redirect-cache",
+                    10000));
+            
+            /**
+             * Журнал обхода: новые и обработанные URL дописываются в файл,
+             * чтобы остановленный обход можно было продолжить.
+             */
+            String checkpoint = options.getString("checkpoint", null);
+            
+            if (checkpoint != null) {
+                
+                journal = new CrawlJournal(Paths.get(checkpoint),
+                        options.has("resume"),
+                        options.getLong("checkpoint-interval", 1000));
+            }
+            
+            else if (options.has("resume")) {
+                
+                throw new IllegalArgumentException("Для --resume нужен "
+                        + "--checkpoint");
+            }
+            
+            /**
+             * Граф ссылок: номера URL пишутся в файл во время обхода, а
+             * рёбра копятся в памяти и записываются в конце.
+             */
+            String graphFile = options.getString("graph", null);
+            
+            if (graphFile != null) {
+                
+                graph = new LinkGraph(Paths.get(graphFile));
             }
         }
             
-        /**
-         * Если все потоки ждут вывод найденных пар <глубина, URL> на экран.
-         */
-        for (int counter = 0; counter < pool.processedURLs.size(); ++counter){
+        catch (IllegalArgumentException iae) {
             
-            System.out.println(pool.processedURLs.get(counter));
+            /**
+             * Если второй и/или третий аргумент командной строки был введён не
+             * числом или указан неизвестный параметр, то остановка.
+             */
+            System.out.println(iae.getMessage());
+            System.out.println(CrawlerOptions.usage());
+            System.exit(1);
         }
         
-        System.exit(0);
-    }
-    
-    /**
-     * Поиск всех ссылок на рассматриваемом сайте и сохранение их в
-     * список LinkedList<String>.
-     */
-    static LinkedList<String> getSites(URLDepthPair myDepthPair)
-            throws IOException {
-        
         /**
-         * Создание списка LinkedList<String>, списка всех ссылок на
-         * рассматриваемом сайте.
+         * Содание нового пула.
          */
-        LinkedList<String> URLs = new LinkedList<>();
+        URLPool pool = new URLPool.Builder(maxDepthPair)
+                .visited(visited)
+                .frontier(frontier)
+                .sink(results)
+                .journal(journal)
+                .dns(dns)
+                .limiter(limiter)
+                .robots(robots)
+                .build();
         
         /**
-         * Создаём новый сокет.
+         * Листья и граф ссылок настраиваются до чтения журнала: restore
+         * уже решает, ставить ли лист в очередь.
          */
-        Socket sock;
+        pool.setCheckLeaves(options.has("check-leaves"));
         
-        /**
-         * Инициализируем новый сокет из строки String, содержащей имя хоста, и
-         * из номера порта, равный 80 (http).
-         */
-        try {
+        if (graph != null) {
             
-            sock = new Socket(myDepthPair.getWebHost(), 80);   
+            pool.recordLinks(graph);
         }
         
-        catch (UnknownHostException e) {
+        if (cluster != null) {
             
-            System.err.println("UnknownHostException: " + e.getMessage());
-            return URLs;
+            cluster.attach(pool);
         }
-
-        catch (IOException ex) {
+        
+        if (journal != null) {
+            
+            /**
+             * Восстанавливаем просмотренные URL и очередь прошлого обхода.
+             * При остановке программы сначала дописываются результаты,
+             * потом журнал, чтобы страница не считалась обработанной без
+             * записанного результата.
+             */
+            System.err.println("Восстановлено из журнала URL: "
+                    + journal.replay(pool::restore));
+            
+            CrawlJournal crawlJournal = journal;
+            ResultSink sink = results;
             
-            System.err.println("IOException: " + ex.getMessage()); 
-            return URLs;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                
+                try {
+                    
+                    sink.flush();
+                }
+                
+                catch (IOException e) {
+                    
+                    /**
+                     * Получатель уже закрыт в конце обхода.
+                     */
+                }
+                
+                crawlJournal.close();
+            }));
         }
         
         /**
-         * Устанавливает таймаут сокета на 3 секунды.
+         * Каждый узел кластера получает один и тот же начальный URL; если
+         * его хост чужой, URL просто пересылается владельцу.
          */
-        try {
-            
-            sock.setSoTimeout(3000);
-        }
+        pool.put(currentDepthPair);
         
-        catch (SocketException exc) {
+        if (cluster != null) {
             
-            System.err.println("SocketException: " + exc.getMessage());
-            return URLs;
+            cluster.start();
         }
         
-        /**
-         * Поля для хранения пути к файлу и хоста.
-         */
-        String docPath = myDepthPair.getDocPath();
-        String webHost = myDepthPair.getWebHost();
-        
-        OutputStream outStream;
+        PageFetcher fetcher = new PageFetcher.Builder(connections)
+                .metrics(metrics)
+                .validators(validators)
+                .duplicates(duplicates)
+                .redirects(redirects)
+                .policy(policy)
+                .visited(visited)
+                .robots(robots)
+                .build();
         
         /**
-         * Возвращает OutputStream связанный с сокетом используемый для передачи
-         * данных.
+         * Метрики доступны во время обхода через JMX и, если указан порт,
+         * через локальную страницу статистики.
          */
-        try {
+        metrics.watch(pool);
+        
+        if (limiter != null) {
             
-            outStream = sock.getOutputStream(); 
+            metrics.watch(limiter);
         }
         
-        catch (IOException exce) {
+        try {
             
-            System.err.println("IOException: " + exce.getMessage());
-            return URLs;
+            metrics.registerMBean();
         }
         
-        PrintWriter myWriter = new PrintWriter(outStream, true);
-        
-        /**
-         * Составление запроса на сервер сайта.
-         */
-        if (docPath.length() == 0) {
+        catch (JMException e) {
             
-            myWriter.println("GET / HTTP/1.1");
-            myWriter.println("Host: " + webHost);
-            myWriter.println("Connection: close");
-            myWriter.println();
+            System.err.println("Метрики не зарегистрированы в JMX: "
+                    + e.getMessage());
         }
-        else {
+        
+        if (options.has("stats-port")) {
             
-            myWriter.println("GET " + docPath + " HTTP/1.1");
-            myWriter.println("Host: " + webHost);
-            myWriter.println("Connection: close");
-            myWriter.println();  
+            StatsServer stats = new StatsServer(options.getInt("stats-port",
+                    0), metrics);
+            System.err.println("Статистика обхода: http://127.0.0.1:"
+                    + stats.getPort() + "/stats");
         }
         
-        InputStream inStream;
-        
-        /**
-         * Возвращает InputStream связанный с объектом Socket используемый для
-         * приема данных.
-         */
         try {
             
-            inStream = sock.getInputStream(); 
+            if (engine != null) {
+                
+                new NioCrawler(pool, engine, fetcher, numThreads,
+                        options.getInt("inflight", 1000)).run();
+            }
+            
+            else {
+                
+                /**
+                 * Запускаем фиксированный пул рабочих потоков. Каждый поток
+                 * обрабатывает пары из пула, пока обход не закончится.
+                 */
+                WorkerPool workers = new WorkerPool(numThreads,
+                        options.has("virtual"));
+                workers.start(() -> new CrawlerTask(pool, fetcher));
+                workers.join();
+            }
         }
-
-        catch (IOException excep){
+                
+        catch (InterruptedException ie) {
             
-            System.err.println("IOException: " + excep.getMessage());
-            return URLs;
+            System.out.println("Caught unexpected InterruptedException,"
+                    + " ignoring...");
         }
-        
-        InputStreamReader inStreamReader = new InputStreamReader(inStream);
-        BufferedReader BuffReader = new BufferedReader(inStreamReader);
-        
+            
         /**
-         * Проверям код ответа сервера.
+         * Все пары уже переданы получателю результатов, осталось дописать
+         * буфер.
          */
-        int serverCode = 0;
-        String lineCode;
+        results.close();
         
-        try {
+        if (journal != null) {
             
-            lineCode = BuffReader.readLine();
+            journal.close();
+            System.err.println("Журнал обхода: записей " + journal.getWritten());
         }
         
-        catch (IOException except) {
-                
-            System.err.println("IOException: " + except.getMessage());
-            return URLs;
-        }
+        System.err.println("Просмотрено URL: " + visited.size()
+                + ", вероятность ложного срабатывания: "
+                + visited.falsePositiveRate());
+        System.err.println(connections);
+        System.err.println(dns);
+        System.err.println(connections.getTls());
+        System.err.println(fetcher.getTransferStats());
+        System.err.println(redirects);
+        System.err.println(policy);
         
-        /**
-         * Если сервер вернул пустой ответ, то заканчиваем обработку ответа.
-         */
-        if (lineCode == null) {
+        if (robots != null) {
             
-            System.out.println("Ошибка: сайт \"" + myDepthPair.getURL() + 
-                    "\" вернул пустой ответ");
-                         
-            /**
-             * Возвращаем пустой список ссылок.
-             */
-            return URLs;
+            System.err.println(robots);
         }
+        System.err.println(metrics);
         
-        /**
-         * Паттерн для кодов html: 2xx, 3xx, 4xx.
-         */
-        Pattern patternCode = Pattern.compile("(2|3|4)[0-9]{2}");
-        Matcher matcherCode = patternCode.matcher(lineCode);
-        
-        /**
-         * Поиск кода html: 2xx, 3xx, 4xx.
-         */
-        while (matcherCode.find()) {
-                
-            serverCode = Integer.valueOf(lineCode.substring(matcherCode.start(),
-                    matcherCode.end() - 2));
+        if (validators != null) {
+            
+            validators.save();
+            System.err.println(validators);
         }
         
-        /**
-         * Обработка для кодов html, равных 2xx.
-         */
-        if (serverCode == 2) {
-            
-            /**
-             * Читаем строчка за строчкой ответ сервера.
-             */
-            while (true) {
-                
-                String line;
-                        
-                try {
-                
-                    line = BuffReader.readLine();
-                }            
-                        
-                catch (IOException except) {
-                
-                    System.err.println("IOException: " + except.getMessage());
-                    
-                    /**
-                     * Возвращаем пустой список ссылок.
-                     */
-                    return URLs;
-                }
-                
-                /**
-                 * Конец чтения документа.
-                 */
-                if (line == null) {
-                
-                    break;
-                }
-            
-                /**
-                 * Паттерн для поиска URL.
-                 */
-                Pattern patternURL = Pattern.compile(
-                    "[\"]"              /**
-                                         * Перед ссылкой должно быть ".
-                                         */
-                    + "[https?://]{7,8}"/**
-                                         * Может быть http://, а может быть
-                                         * https://.
-                                         */
-                    + "([w]{3})?"       /**
-                                         * www может быть, а может не быть.
-                                         */
-                    + "[\\w\\.\\-]+"    /** 
-                                         * Хост сайта без домена 1-ого уровня.
-                                         */
-                    + "\\."             /**
-                                         * Точка перед доменом 1-ого уровня.
-                                         */
-                    + "[A-Za-z]{2,6}"   /**
-                                         * Домен 1-ого уровня.
-                                         */
-                    + "[\\w\\.-/]*"     /**
-                                         * Путь к странице.
-                                         */
-                    + "[\"]");          /**
-                                         * После ссылки должно быть ".
-                                         */
-            
-                Matcher matcherURL = patternURL.matcher(line);
+        if (duplicates != null) {
             
-                /**
-                 * Поиск URL в строке с помощью паттерна.
-                 */
-                while (matcherURL.find()) {
-                
-                    String newLink = line.substring(matcherURL.start() + 1,
-                            matcherURL.end() - 1);
-                
-                    /**
-                     * Добавление ссылки в список URLs.
-                     */
-                    URLs.add(newLink);
-                }
-            }
-        
-            sock.close();
-        
-            /**
-             * Возвращаем все ссылки на рассматриваемом сайте.
-             */
-            return URLs;
+            System.err.println(duplicates);
         }
         
-        /**
-         * Обработка для кодов html, равных 3xx.
-         */
-        if (serverCode == 3) {
+        if (limiter != null) {
             
-            /**
-             * Поле для исправленного URL.
-             */
-            String newURL = "";
-            String tempLine;
+            System.err.println(limiter);
+        }
+        
+        if (cluster != null) {
             
-            while (true) {
-                
-                try {
-                
-                    tempLine = BuffReader.readLine();
-                }            
-                        
-                catch (IOException except) {
-                
-                    System.err.println("IOException: " + except.getMessage());
-                    
-                    /**
-                     * Возвращаем пустой список ссылок.
-                     */
-                    return URLs;
-                }
-                
-                /**
-                 * Конец чтения документа.
-                 */
-                if (tempLine == null) {
-                
-                    break;
-                }
-                
-                /**
-                 * Паттерн для поиска URL для перенаправления.
-                 */
-                Pattern patternNewURL = Pattern.compile(
-                        "(Location: ){1}[\\S]+");
-                Matcher matcherNewURL = patternNewURL.matcher(tempLine);
+            System.err.println(cluster);
+            cluster.close();
+        }
         
-                while (matcherNewURL.find()) {
-                
-                    newURL = tempLine.substring(matcherNewURL.start() + 10,
-                            matcherNewURL.end());
-                }
-            }
+        if (spilling != null) {
             
-            if (newURL.equals(myDepthPair.getURL())) {
-                
-                System.out.println("Ошибка: сайт \"" + myDepthPair.getURL() +
-                            "\" перенаправляет на самого себя"
-                                + " (код ответа HTML 3xx)");
-
-                sock.close();
-                
-                /**
-                 * Возвращаем пустой список ссылок.
-                 */
-                return URLs;
-            }
+            System.err.println(spilling);
+            spilling.close();
+        }
+        
+        if (stealing != null) {
             
-            URLDepthPair newDepthPair;
-            newDepthPair = new URLDepthPair(newURL, myDepthPair.getDepth());
+            System.err.println(stealing);
+        }
+        
+        if (graph != null) {
             
-            /**
-             * Вызываем этот метод с исправленным URL.
-             */
-            return getSites(newDepthPair);
+            CsrGraph links = graph.save();
+            System.err.println(graph);
+            GraphAnalytics.report(links, graph.getURLsFile(),
+                    options.getInt("graph-top", 10), System.err);
         }
         
-        /**
-         * Обработка для кодов html, равных 4xx.
-         */
-        else {
+        System.exit(0);
+    }
+    
+    /**
+     * Создаёт оценку URL по имени класса.
+     * @param name имя класса, реализующего URLScorer, или null
+     * @return оценка или null для оценки по умолчанию
+     */
+    private static URLScorer scorerOf(String name) {
+        
+        if (name == null) {
             
-            System.out.println("Ошибка: сайт \"" + myDepthPair.getURL() +
-                            "\" недоступен (код ответа HTML 4xx)");
+            return null;
+        }
+        
+        try {
             
-            sock.close();
+            return Class.forName(name).asSubclass(URLScorer.class)
+                    .getDeclaredConstructor().newInstance();
+        }
+        
+        catch (ReflectiveOperationException | ClassCastException e) {
             
-            /**
-             * Возвращаем пустой список ссылок.
-             */
-            return URLs;
+            throw new IllegalArgumentException("Неверный класс оценки URL "
+                    + name + ": " + e);
         }
-    }   
+    }
 }
\ No newline at end of file
@@ -0,0 +1,231 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Разбор аргументов командной строки. Обязательные аргументы идут первыми,
+ * за ними необязательные параметры вида --имя=значение или флаги вида --имя.
+ * @author sergeychaika
+ */
+public class CrawlerOptions {
+    
+    /**
+     * Известные параметры и их описания для справки.
+     */
+    private static final Map<String, String> KNOWN = new LinkedHashMap<>();
+    
+    static {
+        
+        KNOWN.put("virtual", " запускать рабочие потоки как виртуальные "
+                + "(Java 21+)");
+        KNOWN.put("host-connections", "=<n> максимум постоянных соединений "
+                + "с одним хостом (по умолчанию 4)");
+        KNOWN.put("idle-timeout", "=<ms> время простоя, после которого "
+                + "соединение закрывается (по умолчанию 15000)");
+        KNOWN.put("tls-sessions", "=<n> сколько сессий TLS хранить для "
+                + "возобновления (по умолчанию 10000)");
+        KNOWN.put("tls-session-timeout", "=<s> время жизни сессии TLS в "
+                + "кэше в секундах (по умолчанию 3600)");
+        KNOWN.put("dns-ttl", "=<ms> сколько хранить адрес хоста в кэше DNS "
+                + "(по умолчанию 300000)");
+        KNOWN.put("dns-negative-ttl", "=<ms> сколько помнить, что хост не "
+                + "найден (по умолчанию 30000)");
+        KNOWN.put("dns-threads", "=<n> потоков, заранее разрешающих хосты "
+                + "новых ссылок (по умолчанию 4)");
+        KNOWN.put("host-delay", "=<ms> минимальная задержка между запросами "
+                + "к одному хосту (по умолчанию 0)");
+        KNOWN.put("host-concurrency", "=<n> максимум одновременных запросов "
+                + "к одному хосту (по умолчанию как host-connections)");
+        KNOWN.put("adaptive", " подбирать количество одновременных запросов "
+                + "(общее и к каждому хосту) по задержкам и ошибкам");
+        KNOWN.put("min-concurrency", "=<n> наименьший общий предел при "
+                + "--adaptive (по умолчанию 1)");
+        KNOWN.put("fetch", "=blocking|nio способ загрузки страниц: поток на "
+                + "запрос или неблокирующие каналы (по умолчанию blocking)");
+        KNOWN.put("io-threads", "=<n> потоков событийного цикла в режиме nio "
+                + "(по умолчанию 2)");
+        KNOWN.put("inflight", "=<n> максимум одновременных запросов в режиме "
+                + "nio (по умолчанию 1000)");
+        KNOWN.put("bloom", "=<N> фильтр Блума вместо точного множества "
+                + "просмотренных URL, N - ожидаемое количество URL");
+        KNOWN.put("bloom-fpp", "=<p> желаемая вероятность ложного "
+                + "срабатывания фильтра Блума (по умолчанию 0.001)");
+        KNOWN.put("frontier-memory", "=<n> держать в памяти не больше n URL "
+                + "из очереди, остальные сбрасывать на диск");
+        KNOWN.put("spill-dir", "=<каталог> где хранить сброшенную на диск "
+                + "часть очереди (по умолчанию временный каталог)");
+        KNOWN.put("near-duplicates", "=<k> не добавлять в очередь ссылки "
+                + "страниц, текст которых почти совпадает с уже загруженной "
+                + "(SimHash отличается не больше чем в k битах, обычно 3)");
+        KNOWN.put("cache", "=<файл> кэш ETag/Last-Modified и ссылок страниц "
+                + "для условных запросов при повторном обходе");
+        KNOWN.put("cache-size", "=<MB> наибольший размер кэша в памяти "
+                + "(по умолчанию 64)");
+        KNOWN.put("redirect-cache", "=<n> сколько постоянных перенаправлений "
+                + "отдельных URL помнить (по умолчанию 10000)");
+        KNOWN.put("content-types", "=<тип,...> тела каких Content-Type "
+                + "загружать и разбирать (по умолчанию "
+                + DownloadPolicy.DEFAULT_TYPES + ", можно text/*)");
+        KNOWN.put("max-page-bytes", "=<n> сколько байтов тела страницы "
+                + "читать (по умолчанию 4194304)");
+        KNOWN.put("page-time-budget", "=<мс> сколько времени можно загружать "
+                + "одну страницу (по умолчанию 30000)");
+        KNOWN.put("order", "=<fifo|levels|best|steal> порядок очереди: по "
+                + "поступлению (по умолчанию), строго по уровням глубины, "
+                + "сначала самые полезные URL или очереди потоков с кражей "
+                + "работы без ограничений по хостам");
+        KNOWN.put("scorer", "=<класс> оценка URL для --order=best "
+                + "(реализация URLScorer, по умолчанию количество ссылок)");
+        KNOWN.put("check-leaves", " проверять страницы на максимальной "
+                + "глубине запросом HEAD, а не только записывать их");
+        KNOWN.put("ignore-robots", " не загружать robots.txt и не "
+                + "соблюдать его правила");
+        KNOWN.put("robots-agent", "=<имя> имя агента, для которого ищутся "
+                + "группы в robots.txt (по умолчанию crawler)");
+        KNOWN.put("robots-cache", "=<n> для скольких хостов хранить правила "
+                + "robots.txt (по умолчанию 10000)");
+        KNOWN.put("robots-ttl", "=<мс> сколько хранить правила robots.txt "
+                + "(по умолчанию 86400000, сутки)");
+        KNOWN.put("graph", "=<файл> записать граф ссылок (CSR) в файл, "
+                + "номера URL - в <файл>.urls, и вывести PageRank, входящие "
+                + "ссылки и сильно связные компоненты");
+        KNOWN.put("graph-top", "=<n> сколько лучших URL выводить для "
+                + "--graph (по умолчанию 10)");
+        KNOWN.put("checkpoint", "=<файл> журнал обхода, по которому его "
+                + "можно продолжить после остановки");
+        KNOWN.put("checkpoint-interval", "=<мс> как часто сбрасывать журнал "
+                + "на диск (по умолчанию 1000)");
+        KNOWN.put("resume", " продолжить обход по журналу из --checkpoint");
+        KNOWN.put("cluster", "=<host:port,...> адреса всех узлов "
+                + "распределённого обхода, одинаковые на каждом узле");
+        KNOWN.put("node", "=<i> номер этого узла в --cluster (по умолчанию "
+                + "0)");
+        KNOWN.put("batch-size", "=<n> сколько URL для другого узла "
+                + "накапливать перед отправкой (по умолчанию 256)");
+        KNOWN.put("batch-delay", "=<ms> не дольше скольки миллисекунд "
+                + "держать неполный пакет (по умолчанию 100)");
+        KNOWN.put("stats-port", "=<порт> отдавать метрики обхода в JSON по "
+                + "адресу http://127.0.0.1:<порт>/stats");
+        KNOWN.put("output", "=<файл> писать результаты в файл, а не на "
+                + "экран");
+        KNOWN.put("format", "=text|ndjson формат результатов: строки "
+                + "<глубина, URL> или NDJSON с кодом ответа, размером и "
+                + "временем загрузки (по умолчанию text)");
+    }
+    
+    private final List<String> positional = new ArrayList<>();
+    private final Map<String, String> options = new HashMap<>();
+    
+    /**
+     * @param args аргументы командной строки
+     * @throws IllegalArgumentException неизвестный параметр
+     */
+    public CrawlerOptions(String[] args) {
+        
+        for (String arg : args) {
+            
+            if (!arg.startsWith("--")) {
+                
+                positional.add(arg);
+                continue;
+            }
+            
+            int separator = arg.indexOf('=');
+            String name = separator < 0 ? arg.substring(2)
+                    : arg.substring(2, separator);
+            String value = separator < 0 ? "" : arg.substring(separator + 1);
+            
+            if (!KNOWN.containsKey(name)) {
+                
+                throw new IllegalArgumentException("Неизвестный параметр: "
+                        + arg);
+            }
+            
+            options.put(name, value);
+        }
+    }
+    
+    /**
+     * Строка со справкой по использованию программы.
+     * @return справка
+     */
+    public static String usage() {
+        
+        StringBuilder usage = new StringBuilder("usage: java Crawler <URL> "
+                + "<depth> <number of crawler threads> [options]");
+        
+        for (Map.Entry<String, String> option : KNOWN.entrySet()) {
+            
+            usage.append("\n  --").append(option.getKey())
+                    .append(option.getValue());
+        }
+        
+        return usage.toString();
+    }
+    
+    /**
+     * @return количество обязательных аргументов
+     */
+    public int positionalCount() {
+        
+        return positional.size();
+    }
+    
+    /**
+     * @param index номер обязательного аргумента
+     * @return значение аргумента
+     */
+    public String positional(int index) {
+        
+        return positional.get(index);
+    }
+    
+    /**
+     * @param name имя параметра
+     * @return true, если параметр указан
+     */
+    public boolean has(String name) {
+        
+        return options.containsKey(name);
+    }
+    
+    /**
+     * @param name имя параметра
+     * @param defaultValue значение по умолчанию
+     * @return значение параметра
+     */
+    public String getString(String name, String defaultValue) {
+        
+        String value = options.get(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+    
+    /**
+     * @throws NumberFormatException значение не является числом
+     */
+    public int getInt(String name, int defaultValue) {
+        
+        String value = options.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+    
+    /**
+     * @throws NumberFormatException значение не является числом
+     */
+    public long getLong(String name, long defaultValue) {
+        
+        String value = options.get(name);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+    
+    /**
+     * @throws NumberFormatException значение не является числом
+     */
+    public double getDouble(String name, double defaultValue) {
+        
+        String value = options.get(name);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+}
@@ -1,27 +1,31 @@
 import java.io.IOException;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * CrawlerTask реализует интерфейс Runnable. Каждый экземпляр имеет ссылку на
- * экземпляр класса URLPool. Получает пару <URL, глубина> из пула (ждёт если
- * недоступно), извлекает веб-страницу, получает все URL-адреса со страницы и
- * добавляет новую пару URLDepth в пул URL для каждого найденного URL.
+ * экземпляр класса URLPool. В цикле получает пару <URL, глубина> из пула (ждёт
+ * если недоступно), извлекает веб-страницу, получает все URL-адреса со
+ * страницы и добавляет новую пару URLDepth в пул URL для каждого найденного
+ * URL. Завершается, когда пул сообщает об окончании обхода.
  * @author sergeychaika
  */
 public class CrawlerTask implements Runnable {
     
     public URLDepthPair depthPair;    
     public URLPool pool;
+    public PageFetcher fetcher;
     
     /**
      * Конструктор для инициализации пула.
      * @param newPool
+     * @param newFetcher загрузчик страниц
      */
-    public CrawlerTask (URLPool newPool) {
+    public CrawlerTask (URLPool newPool, PageFetcher newFetcher) {
         
         pool = newPool;
+        fetcher = newFetcher;
     }
     
     /**
@@ -31,39 +35,70 @@ public class CrawlerTask implements Runnable {
     public void run() {
 
         /**
-         * Достаём из пула следующую пару.
+         * Достаём из пула следующую пару, пока обход не закончится.
          */
-        depthPair = pool.get();
+        while ((depthPair = pool.get()) != null) {
         
-        int depth = depthPair.getDepth();
+            FetchResult result = null;
+            
+            try {
+                
+                result = process(depthPair);
+            }
+            
+            finally {
+                
+                if (result == null) {
+                    
+                    result = new FetchResult(depthPair, FetchResult.FAILED, 0,
+                            0, Collections.emptyList());
+                }
+                
+                pool.done(result);
+            }
+        }
+    }
+    
+    /**
+     * Обработка одной пары: загрузка страницы и добавление найденных ссылок
+     * в пул.
+     * @param myDepthPair обрабатываемая пара
+     * @return результат загрузки или null, если загрузка не удалась
+     */
+    private FetchResult process(URLDepthPair myDepthPair) {
+        
+        /**
+         * Поиск всех ссылок на рассматриваемом сайте вместе с кодом ответа и
+         * временем загрузки.
+         */
+        FetchResult result;
         
         /**
-         * Поиск всех ссылок на рассматриваемом сайте и сохранение их в
-         * список linksList.
+         * Пара на максимальной глубине только проверяется: ссылки с неё
+         * всё равно не нужны.
          */
-        LinkedList<String> linksList = null;
+        if (pool.isLeaf(myDepthPair)) {
+            
+            return fetcher.check(myDepthPair);
+        }
         
         try {
             
-            linksList = Crawler.getSites(depthPair);
+            result = fetcher.fetch(myDepthPair);
         }
         
         catch (IOException ex) {
             
             Logger.getLogger(CrawlerTask.class.getName()).log(Level.SEVERE,
                     null, ex);
+            return null;
         }
         
-        for (int counter = 0; counter < linksList.size(); ++counter) {
-            
-            String newURL = linksList.get(counter);
-            
-            /**
-             * Создание новой пары для каждой ссылки и добавление её в пул.
-             */
-            URLDepthPair newDepthPair = new URLDepthPair(newURL, depth + 1);
-                
-            pool.put(newDepthPair);
-        }
+        /**
+         * Создание новой пары для каждой ссылки и добавление её в пул.
+         */
+        pool.putLinks(myDepthPair, result.getLinks());
+        
+        return result;
     }
 }
\ No newline at end of file
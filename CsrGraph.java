@@ -0,0 +1,319 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Ориентированный граф в сжатом построчном виде (CSR): вершины - числа от 0
+ * до n - 1, исходящие рёбра вершины v - targets[offsets[v]] ...
+ * targets[offsets[v + 1] - 1], отсортированные и без повторов. Весь граф -
+ * два массива int, поэтому десятки миллионов рёбер занимают сотни
+ * мегабайт, а не гигабайты объектов.
+ *
+ * Формат файла: "LGR1", число вершин, число рёбер, массив offsets и
+ * массив targets - всё числами int в порядке big-endian.
+ * @author sergeychaika
+ */
+public final class CsrGraph {
+    
+    private static final int MAGIC = 0x4C475231;
+    
+    /**
+     * Размер буфера для записи и чтения файла.
+     */
+    private static final int BUFFER_BYTES = 1 << 20;
+    
+    /**
+     * Сколько строк сортирует одна задача при построении.
+     */
+    private static final int ROWS_PER_TASK = 1 << 14;
+    
+    private final int[] offsets;
+    private final int[] targets;
+    
+    /**
+     * @param rowOffsets начала строк, n + 1 элемент
+     * @param edgeTargets концы рёбер по строкам
+     */
+    public CsrGraph(int[] rowOffsets, int[] edgeTargets) {
+        
+        offsets = rowOffsets;
+        targets = edgeTargets;
+    }
+    
+    /**
+     * Строит граф по списку рёбер сортировкой подсчётом. Строки сортируются
+     * параллельно, повторные рёбра удаляются.
+     * @param nodes число вершин
+     * @param edges рёбра парами (начало, конец)
+     * @param count число рёбер
+     * @param pool пул для сортировки строк
+     * @return граф
+     */
+    public static CsrGraph fromEdges(int nodes, int[] edges, int count,
+            ForkJoinPool pool) {
+        
+        int[] starts = new int[nodes + 1];
+        
+        for (int edge = 0; edge < count; ++edge) {
+            
+            ++starts[edges[2 * edge] + 1];
+        }
+        
+        for (int node = 0; node < nodes; ++node) {
+            
+            starts[node + 1] += starts[node];
+        }
+        
+        int[] filled = new int[count];
+        int[] position = Arrays.copyOf(starts, nodes);
+        
+        for (int edge = 0; edge < count; ++edge) {
+            
+            filled[position[edges[2 * edge]]++] = edges[2 * edge + 1];
+        }
+        
+        pool.invoke(new SortRows(starts, filled, 0, nodes));
+        
+        /**
+         * Сжатие на месте: после сортировки повторы в строке стоят рядом.
+         */
+        int[] rows = new int[nodes + 1];
+        int size = 0;
+        
+        for (int node = 0; node < nodes; ++node) {
+            
+            rows[node] = size;
+            
+            for (int edge = starts[node]; edge < starts[node + 1]; ++edge) {
+                
+                if (edge == starts[node] || filled[edge] != filled[edge - 1]) {
+                    
+                    filled[size++] = filled[edge];
+                }
+            }
+        }
+        
+        rows[nodes] = size;
+        return new CsrGraph(rows, size == count ? filled
+                : Arrays.copyOf(filled, size));
+    }
+    
+    /**
+     * @return граф с обращёнными рёбрами: строка вершины - её входящие
+     * рёбра
+     */
+    public CsrGraph transpose() {
+        
+        int nodes = nodeCount();
+        int[] starts = new int[nodes + 1];
+        
+        for (int edge = 0; edge < targets.length; ++edge) {
+            
+            ++starts[targets[edge] + 1];
+        }
+        
+        for (int node = 0; node < nodes; ++node) {
+            
+            starts[node + 1] += starts[node];
+        }
+        
+        int[] position = Arrays.copyOf(starts, nodes);
+        int[] sources = new int[targets.length];
+        
+        /**
+         * Начала перебираются по возрастанию, поэтому строки сразу
+         * отсортированы.
+         */
+        for (int node = 0; node < nodes; ++node) {
+            
+            for (int edge = offsets[node]; edge < offsets[node + 1]; ++edge) {
+                
+                sources[position[targets[edge]]++] = node;
+            }
+        }
+        
+        return new CsrGraph(starts, sources);
+    }
+    
+    /**
+     * @return число вершин
+     */
+    public int nodeCount() {
+        
+        return offsets.length - 1;
+    }
+    
+    /**
+     * @return число рёбер
+     */
+    public int edgeCount() {
+        
+        return targets.length;
+    }
+    
+    /**
+     * @param node вершина
+     * @return число исходящих рёбер вершины
+     */
+    public int degree(int node) {
+        
+        return offsets[node + 1] - offsets[node];
+    }
+    
+    /**
+     * Массивы отдаются без копирования и не должны изменяться.
+     * @return начала строк
+     */
+    int[] getOffsets() {
+        
+        return offsets;
+    }
+    
+    /**
+     * @return концы рёбер по строкам
+     */
+    int[] getTargets() {
+        
+        return targets;
+    }
+    
+    /**
+     * Записывает граф в файл.
+     * @param file файл графа
+     * @throws IOException ошибка записи
+     */
+    public void write(Path file) throws IOException {
+        
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            buffer.putInt(MAGIC).putInt(nodeCount()).putInt(edgeCount());
+            writeInts(channel, buffer, offsets);
+            writeInts(channel, buffer, targets);
+            buffer.flip();
+            
+            while (buffer.hasRemaining()) {
+                
+                channel.write(buffer);
+            }
+        }
+    }
+    
+    /**
+     * Читает граф из файла, записанного методом write.
+     * @param file файл графа
+     * @return граф
+     * @throws IOException ошибка чтения или файл не в формате графа
+     */
+    public static CsrGraph read(Path file) throws IOException {
+        
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            buffer.flip();
+            int[] header = new int[3];
+            readInts(channel, buffer, header);
+            
+            if (header[0] != MAGIC || header[1] < 0 || header[2] < 0) {
+                
+                throw new IOException("не файл графа ссылок: " + file);
+            }
+            
+            int[] rows = new int[header[1] + 1];
+            int[] edges = new int[header[2]];
+            readInts(channel, buffer, rows);
+            readInts(channel, buffer, edges);
+            return new CsrGraph(rows, edges);
+        }
+    }
+    
+    private static void writeInts(FileChannel channel, ByteBuffer buffer,
+            int[] values) throws IOException {
+        
+        for (int value : values) {
+            
+            if (buffer.remaining() < Integer.BYTES) {
+                
+                buffer.flip();
+                
+                while (buffer.hasRemaining()) {
+                    
+                    channel.write(buffer);
+                }
+                
+                buffer.clear();
+            }
+            
+            buffer.putInt(value);
+        }
+    }
+    
+    private static void readInts(FileChannel channel, ByteBuffer buffer,
+            int[] values) throws IOException {
+        
+        for (int index = 0; index < values.length; ++index) {
+            
+            while (buffer.remaining() < Integer.BYTES) {
+                
+                buffer.compact();
+                int count = channel.read(buffer);
+                buffer.flip();
+                
+                if (count < 0) {
+                    
+                    throw new EOFException("файл графа обрезан");
+                }
+            }
+            
+            values[index] = buffer.getInt();
+        }
+    }
+    
+    /**
+     * Сортирует строки диапазона вершин, деля его пополам.
+     */
+    private static final class SortRows extends RecursiveAction {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final int[] starts;
+        private final int[] values;
+        private final int from;
+        private final int to;
+        
+        SortRows(int[] rowStarts, int[] rowValues, int first, int last) {
+            
+            starts = rowStarts;
+            values = rowValues;
+            from = first;
+            to = last;
+        }
+        
+        @Override
+        protected void compute() {
+            
+            if (to - from <= ROWS_PER_TASK) {
+                
+                for (int node = from; node < to; ++node) {
+                    
+                    Arrays.sort(values, starts[node], starts[node + 1]);
+                }
+                
+                return;
+            }
+            
+            int middle = (from + to) >>> 1;
+            invokeAll(new SortRows(starts, values, from, middle),
+                    new SortRows(starts, values, middle, to));
+        }
+    }
+}
@@ -0,0 +1,392 @@
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Общий кэш разрешения имён. Адрес хоста хранится заданное время, а
+ * неудачный ответ - отдельное, обычно меньшее время, чтобы ссылки на
+ * несуществующий хост не ждали DNS каждый раз. Хосты можно разрешать
+ * заранее в фоновых потоках: пул URL вызывает prefetch для каждой новой
+ * ссылки, и к тому времени, когда рабочий поток возьмёт её из очереди,
+ * адрес обычно уже известен. Пока имя разрешается, остальные потоки ждут
+ * этот же ответ, а не отправляют свой запрос.
+ *
+ * Когда хостов в кэше становится больше MAX_HOSTS, устаревшие записи
+ * удаляются. Очередь фонового разрешения ограничена: если она полна,
+ * prefetch пропускается, а ответ resolveAsync завершается ошибкой, и
+ * имя разрешается заново при следующем обращении. Ни тот, ни другой не
+ * разрешают имя в вызывающем потоке.
+ * @author sergeychaika
+ */
+public class DnsCache {
+    
+    /**
+     * Сколько хостов хранить, не проверяя сроки записей.
+     */
+    private static final int MAX_HOSTS = 100_000;
+    
+    /**
+     * Сколько хостов может ждать фонового разрешения.
+     */
+    private static final int MAX_QUEUED = 4096;
+    
+    /**
+     * Запись кэша. Срок годности выставляется до завершения future, поэтому
+     * всякий, кто видит готовый ответ, видит и его срок.
+     */
+    private static final class Entry {
+        
+        final CompletableFuture<InetAddress> address =
+                new CompletableFuture<>();
+        volatile long expires;
+        
+        /**
+         * Запись не попала в переполненную очередь и завершена ошибкой без
+         * запроса к DNS.
+         */
+        volatile boolean rejected;
+        
+        boolean isFresh(long now) {
+            
+            return !address.isDone() || now - expires < 0;
+        }
+    }
+    
+    private final ConcurrentHashMap<String, Entry> entries =
+            new ConcurrentHashMap<>();
+    
+    /**
+     * Размер кэша, при котором удаляются устаревшие записи. Если свежих
+     * записей больше MAX_HOSTS, порог растёт, чтобы удаление не
+     * повторялось при каждом новом хосте.
+     */
+    private volatile int sweepAt = MAX_HOSTS;
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    
+    /**
+     * Потоки фонового разрешения; создаются по мере надобности.
+     */
+    private final ThreadPoolExecutor prefetcher;
+    
+    /**
+     * Время запросов к DNS, в отличие от времени ожидания в рабочих
+     * потоках, которое считает CrawlMetrics.
+     */
+    private final LatencyHistogram lookups = new LatencyHistogram();
+    
+    /**
+     * Статистика кэша.
+     */
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder prefetched = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    
+    /**
+     * Кэш на 5 минут, отрицательные ответы на 30 секунд, 4 потока.
+     */
+    public DnsCache() {
+        
+        this(300_000, 30_000, 4);
+    }
+    
+    /**
+     * @param ttlMillis сколько хранить адрес хоста
+     * @param negativeTtlMillis сколько хранить ошибку разрешения
+     * @param threads сколько потоков разрешают имена заранее
+     */
+    public DnsCache(long ttlMillis, long negativeTtlMillis, int threads) {
+        
+        ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+        
+        AtomicInteger number = new AtomicInteger();
+        
+        prefetcher = new ThreadPoolExecutor(threads, threads, 30,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<>(MAX_QUEUED),
+                task -> {
+                    
+                    Thread thread = new Thread(task, "dns-"
+                            + number.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        prefetcher.allowCoreThreadTimeOut(true);
+    }
+    
+    /**
+     * Начинает разрешать хост в фоне, если его адреса ещё нет в кэше, а
+     * в очереди фонового разрешения есть место.
+     * @param host имя хоста
+     */
+    public void prefetch(String host) {
+        
+        Entry entry = entries.get(host);
+        
+        if (entry != null && entry.isFresh(System.nanoTime())) {
+            
+            return;
+        }
+        
+        /**
+         * Хост без записи разрешит рабочий поток, когда возьмёт ссылку.
+         */
+        if (prefetcher.getQueue().remainingCapacity() == 0) {
+            
+            skipped.increment();
+            return;
+        }
+        
+        Entry started = start(host, entry);
+        
+        if (started != null) {
+            
+            submit(host, started);
+        }
+    }
+    
+    /**
+     * Адрес хоста без ожидания: если адреса нет в кэше, имя разрешается в
+     * фоне, как в prefetch. Подходит для потоков, которые не должны
+     * блокироваться, например для событийного цикла. Если очередь
+     * фонового разрешения полна, ответ сразу завершается ошибкой.
+     * @param host имя хоста
+     * @return ответ, который завершится адресом или UnknownHostException
+     */
+    public CompletableFuture<InetAddress> resolveAsync(String host) {
+        
+        while (true) {
+            
+            Entry entry = entries.get(host);
+            
+            if (entry != null && entry.isFresh(System.nanoTime())) {
+                
+                hits.increment();
+                return entry.address;
+            }
+            
+            Entry started = start(host, entry);
+            
+            if (started != null) {
+                
+                submit(host, started);
+                return started.address;
+            }
+        }
+    }
+    
+    /**
+     * Адрес хоста из кэша. Если адреса нет, имя разрешается в текущем
+     * потоке; если оно уже разрешается в фоне, поток ждёт этот ответ.
+     * @param host имя хоста
+     * @return адрес
+     * @throws UnknownHostException хост не найден (в том числе по
+     * сохранённому отрицательному ответу)
+     */
+    public InetAddress resolve(String host) throws UnknownHostException {
+        
+        while (true) {
+            
+            Entry entry = entries.get(host);
+            
+            if (entry != null && entry.isFresh(System.nanoTime())) {
+                
+                hits.increment();
+                
+                try {
+                    
+                    return await(entry);
+                }
+                
+                catch (UnknownHostException e) {
+                    
+                    /**
+                     * Запись не дошла до фоновой очереди и уже удалена -
+                     * разрешаем имя в этом потоке.
+                     */
+                    if (!entry.rejected) {
+                        
+                        throw e;
+                    }
+                }
+                
+                continue;
+            }
+            
+            Entry started = start(host, entry);
+            
+            if (started != null) {
+                
+                misses.increment();
+                lookup(host, started);
+                return await(started);
+            }
+            
+            /**
+             * Другой поток успел заменить запись - берём его.
+             */
+        }
+    }
+    
+    /**
+     * @return количество хостов в кэше
+     */
+    public int size() {
+        
+        return entries.size();
+    }
+    
+    public LatencyHistogram getLookups() {
+        
+        return lookups;
+    }
+    
+    @Override
+    public String toString() {
+        
+        return String.format("DNS: хостов в кэше %d, из кэша %d, "
+                + "разрешено в рабочем потоке %d, заранее %d, "
+                + "не найдено %d, удалено устаревших %d, пропущено из-за "
+                + "полной очереди %d%n%s", entries.size(),
+                hits.sum(), misses.sum(), prefetched.sum(), failed.sum(),
+                evicted.sum(), skipped.sum(), lookups.summary("Запросы DNS"));
+    }
+    
+    /**
+     * Ставит новую запись вместо отсутствующей или устаревшей.
+     * @return новая запись или null, если другой поток успел первым
+     */
+    private Entry start(String host, Entry stale) {
+        
+        Entry fresh = new Entry();
+        
+        boolean won = stale == null
+                ? entries.putIfAbsent(host, fresh) == null
+                : entries.replace(host, stale, fresh);
+        
+        if (won && stale == null && entries.size() > sweepAt) {
+            
+            sweep();
+        }
+        
+        return won ? fresh : null;
+    }
+    
+    /**
+     * Удаляет записи с истёкшим сроком. Записи, которые ещё разрешаются,
+     * остаются. Удаляет один поток, остальные не ждут его.
+     */
+    private void sweep() {
+        
+        if (!sweeping.compareAndSet(false, true)) {
+            
+            return;
+        }
+        
+        try {
+            
+            long now = System.nanoTime();
+            int before = entries.size();
+            
+            entries.values().removeIf(entry -> !entry.isFresh(now));
+            evicted.add(Math.max(0, before - entries.size()));
+            sweepAt = Math.max(MAX_HOSTS, 2 * entries.size());
+        }
+        
+        finally {
+            
+            sweeping.set(false);
+        }
+    }
+    
+    /**
+     * Отдаёт запись фоновому потоку. Если очередь полна, запись удаляется
+     * и завершается ошибкой: текущий поток может быть событийным циклом
+     * или пулом URL, и ждать DNS в нём нельзя.
+     */
+    private void submit(String host, Entry entry) {
+        
+        try {
+            
+            prefetcher.execute(() -> lookup(host, entry));
+            prefetched.increment();
+        }
+        
+        catch (RejectedExecutionException e) {
+            
+            skipped.increment();
+            entry.rejected = true;
+            entry.expires = System.nanoTime();
+            entries.remove(host, entry);
+            entry.address.completeExceptionally(new UnknownHostException(
+                    host + ": очередь DNS переполнена"));
+        }
+    }
+    
+    private void lookup(String host, Entry entry) {
+        
+        long start = System.nanoTime();
+        
+        try {
+            
+            InetAddress address = InetAddress.getByName(host);
+            entry.expires = System.nanoTime() + ttlNanos;
+            entry.address.complete(address);
+        }
+        
+        catch (UnknownHostException e) {
+            
+            failed.increment();
+            entry.expires = System.nanoTime() + negativeTtlNanos;
+            entry.address.completeExceptionally(e);
+        }
+        
+        catch (RuntimeException e) {
+            
+            /**
+             * Ошибку не сохраняем: следующий запрос попробует ещё раз.
+             */
+            entry.expires = start;
+            entry.address.completeExceptionally(new UnknownHostException(
+                    host + ": " + e));
+        }
+        
+        finally {
+            
+            lookups.record(System.nanoTime() - start);
+        }
+    }
+    
+    private static InetAddress await(Entry entry)
+            throws UnknownHostException {
+        
+        try {
+            
+            return entry.address.join();
+        }
+        
+        catch (CompletionException e) {
+            
+            if (e.getCause() instanceof UnknownHostException) {
+                
+                throw new UnknownHostException(e.getCause().getMessage());
+            }
+            
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Что и сколько загружать со страницы. Тело ответа 2xx читается, только если
+ * его Content-Type есть в списке разрешённых (по умолчанию HTML и XHTML):
+ * PDF, картинки, архивы и видео не загружаются и не разбираются. Тело
+ * разрешённого типа читается не дальше заданного количества байтов и не
+ * дольше заданного времени от начала загрузки страницы; ссылки ищутся в уже
+ * прочитанной части.
+ *
+ * Ответ без Content-Type считается разрешённым: такие серверы обычно
+ * отдают HTML.
+ * @author sergeychaika
+ */
+public class DownloadPolicy {
+    
+    /**
+     * Типы по умолчанию.
+     */
+    public static final String DEFAULT_TYPES =
+            "text/html,application/xhtml+xml";
+    
+    /**
+     * Ненужный остаток тела не больше этого дочитывается, чтобы сохранить
+     * соединение: новое соединение дороже нескольких килобайтов. Больший
+     * или неизвестный остаток не читается, соединение закрывается.
+     */
+    static final long DRAIN_BYTES = 16 * 1024;
+    
+    /**
+     * Разрешённые типы в нижнем регистре, например text/html или text/*.
+     */
+    private final List<String> types = new ArrayList<>();
+    private final long maxBytes;
+    private final long budgetNanos;
+    
+    /**
+     * Статистика.
+     */
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder truncatedBySize = new LongAdder();
+    private final LongAdder truncatedByTime = new LongAdder();
+    private final LongAdder avoidedBytes = new LongAdder();
+    private final LongAdder drainedBytes = new LongAdder();
+    private final LongAdder unknownLength = new LongAdder();
+    
+    /**
+     * HTML и XHTML, 4 МБ, 30 секунд.
+     */
+    public DownloadPolicy() {
+        
+        this(DEFAULT_TYPES, 4L * 1024 * 1024, 30000);
+    }
+    
+    /**
+     * @param contentTypes разрешённые типы через запятую
+     * @param maxPageBytes сколько байтов тела страницы читать
+     * @param budgetMillis сколько миллисекунд можно загружать страницу
+     */
+    public DownloadPolicy(String contentTypes, long maxPageBytes,
+            long budgetMillis) {
+        
+        for (String type : contentTypes.split(",")) {
+            
+            type = type.trim().toLowerCase(Locale.ROOT);
+            
+            if (!type.isEmpty()) {
+                
+                types.add(type);
+            }
+        }
+        
+        if (types.isEmpty() || maxPageBytes < 1 || budgetMillis < 1) {
+            
+            throw new IllegalArgumentException("Нужен хотя бы один тип "
+                    + "содержимого, а размер и время страницы должны быть "
+                    + "больше нуля");
+        }
+        
+        maxBytes = maxPageBytes;
+        budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+    }
+    
+    /**
+     * @return сколько байтов тела страницы читать
+     */
+    public long getMaxBytes() {
+        
+        return maxBytes;
+    }
+    
+    /**
+     * @param start когда началась загрузка страницы (System.nanoTime)
+     * @return до какого момента можно читать страницу
+     */
+    public long deadline(long start) {
+        
+        return start + budgetNanos;
+    }
+    
+    /**
+     * @param contentType значение заголовка Content-Type или null
+     * @return true, если тело такого типа нужно читать
+     */
+    public boolean accepts(String contentType) {
+        
+        if (contentType == null) {
+            
+            return true;
+        }
+        
+        int end = contentType.indexOf(';');
+        String media = (end < 0 ? contentType : contentType.substring(0, end))
+                .trim().toLowerCase(Locale.ROOT);
+        
+        if (media.isEmpty()) {
+            
+            return true;
+        }
+        
+        int slash = media.indexOf('/');
+        
+        for (String type : types) {
+            
+            if (type.equals(media) || type.equals("*/*")
+                    || slash > 0 && type.endsWith("/*")
+                    && type.regionMatches(0, media, 0, slash + 1)) {
+                
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Проверяет тип ответа и, если его читать не нужно, учитывает пропуск.
+     * @param response ответ 2xx с непрочитанным телом
+     * @return true, если тело нужно читать
+     */
+    public boolean admit(HttpResponse response) {
+        
+        if (accepts(response.getHeader("Content-Type"))) {
+            
+            return true;
+        }
+        
+        skipped.increment();
+        avoid(response);
+        return false;
+    }
+    
+    /**
+     * Оборачивает тело в ограничение по размеру и времени.
+     * @param body распакованное тело
+     * @param deadline до какого момента можно читать
+     * @param truncated тело уже обрезано загрузчиком
+     * @return ограниченное тело
+     */
+    public LimitedInputStream limit(InputStream body, long deadline,
+            boolean truncated) {
+        
+        return new LimitedInputStream(body, maxBytes, deadline, truncated);
+    }
+    
+    /**
+     * Учитывает страницу, тело которой прочитано через limit.
+     * @param response ответ
+     * @param body ограниченное тело
+     */
+    public void finished(HttpResponse response, LimitedInputStream body) {
+        
+        if (body.isSizeExceeded()) {
+            
+            truncatedBySize.increment();
+            avoid(response);
+        }
+        
+        else if (body.isTimeExceeded()) {
+            
+            truncatedByTime.increment();
+            avoid(response);
+        }
+    }
+    
+    @Override
+    public String toString() {
+        
+        return String.format("Загрузка тел: пропущено по Content-Type %d, "
+                + "обрезано по размеру %d, по времени %d, не загружено "
+                + "примерно %d байт (ещё у %d ответов длина неизвестна), "
+                + "дочитано ради соединения %d байт", skipped.sum(),
+                truncatedBySize.sum(), truncatedByTime.sum(),
+                avoidedBytes.sum(), unknownLength.sum(), drainedBytes.sum());
+    }
+    
+    /**
+     * Решает, что делать с ненужным остатком тела. Небольшой остаток
+     * известной длины дочитывается в finish и считается загруженным.
+     * Остальное бросается: finish его уже не читает, поэтому не загруженным
+     * считается только то, что действительно не будет прочитано. Тело,
+     * которое загрузчик nio уже прервал, не дочитывается.
+     */
+    private void avoid(HttpResponse response) {
+        
+        long length = response.getContentLength();
+        long rest = Math.max(0, length - response.getWireBytes());
+        
+        if (length >= 0 && rest <= DRAIN_BYTES && !response.isTruncated()) {
+            
+            drainedBytes.add(rest);
+            return;
+        }
+        
+        response.abandon();
+        
+        if (length < 0) {
+            
+            unknownLength.increment();
+        }
+        
+        else {
+            
+            avoidedBytes.add(rest);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Результат обработки одной пары <URL, глубина>: код ответа, размер тела,
+ * время загрузки и найденные ссылки. Передаётся в ResultSink.
+ * @author sergeychaika
+ */
+public class FetchResult {
+    
+    /**
+     * Код для пары на максимальной глубине: страница не загружалась.
+     */
+    public static final int NOT_FETCHED = 0;
+    
+    /**
+     * Код для страницы, которую не удалось загрузить (ошибка соединения или
+     * неверный ответ).
+     */
+    public static final int FAILED = -1;
+    
+    private final URLDepthPair depthPair;
+    private final int statusCode;
+    private final long bytes;
+    private final long latencyNanos;
+    private final List<String> links;
+    
+    /**
+     * Результат для пары, которая не загружалась.
+     * @param pair пара <URL, глубина>
+     */
+    public FetchResult(URLDepthPair pair) {
+        
+        this(pair, NOT_FETCHED, 0, 0, Collections.emptyList());
+    }
+    
+    /**
+     * @param pair пара <URL, глубина>
+     * @param code код ответа, NOT_FETCHED или FAILED
+     * @param size сколько байтов тела получено по сети
+     * @param latency время загрузки в наносекундах
+     * @param found найденные на странице ссылки
+     */
+    public FetchResult(URLDepthPair pair, int code, long size, long latency,
+            List<String> found) {
+        
+        depthPair = pair;
+        statusCode = code;
+        bytes = size;
+        latencyNanos = latency;
+        links = found;
+    }
+    
+    public URLDepthPair getDepthPair() {
+        
+        return depthPair;
+    }
+    
+    public int getStatusCode() {
+        
+        return statusCode;
+    }
+    
+    /**
+     * @return сколько байтов тела получено по сети
+     */
+    public long getBytes() {
+        
+        return bytes;
+    }
+    
+    /**
+     * @return время загрузки в наносекундах
+     */
+    public long getLatencyNanos() {
+        
+        return latencyNanos;
+    }
+    
+    /**
+     * @return время загрузки в миллисекундах
+     */
+    public double getLatencyMillis() {
+        
+        return (double) latencyNanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+    
+    /**
+     * @return найденные на странице ссылки
+     */
+    public List<String> getLinks() {
+        
+        return links;
+    }
+}
@@ -0,0 +1,71 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Тело ответа с известной длиной (Content-Length). Не читает из соединения
+ * ни байта сверх этой длины.
+ * @author sergeychaika
+ */
+public class FixedLengthInputStream extends InputStream {
+    
+    private final InputStream input;
+    private long remaining;
+    
+    /**
+     * @param in поток, стоящий на начале тела ответа
+     * @param length длина тела
+     */
+    public FixedLengthInputStream(InputStream in, long length) {
+        
+        input = in;
+        remaining = length;
+    }
+    
+    @Override
+    public int read() throws IOException {
+        
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+    
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        
+        if (remaining == 0) {
+            
+            return -1;
+        }
+        
+        if (length == 0) {
+            
+            return 0;
+        }
+        
+        int count = input.read(buffer, offset,
+                (int) Math.min(length, remaining));
+        
+        if (count < 0) {
+            
+            throw new EOFException("Соединение закрыто, не хватает "
+                    + remaining + " байт");
+        }
+        
+        remaining -= count;
+        return count;
+    }
+    
+    @Override
+    public int available() throws IOException {
+        
+        return (int) Math.min(input.available(), remaining);
+    }
+    
+    /**
+     * @return true, если тело прочитано до конца
+     */
+    public boolean isFinished() {
+        
+        return remaining == 0;
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Очередь пар <URL, глубина>, ожидающих загрузки. URLPool решает, когда
+ * ждать и когда обход закончен, а реализация - в каком порядке и когда
+ * выдавать пары. Реализации должны быть потокобезопасными.
+ * @author sergeychaika
+ */
+public interface Frontier {
+    
+    /**
+     * Добавляет пару в очередь.
+     * @param depthPair новая пара
+     */
+    void add(URLDepthPair depthPair);
+    
+    /**
+     * Выдаёт пару, которую можно загружать прямо сейчас.
+     * @param now текущее время System.nanoTime()
+     * @return пара или null, если готовых пар нет
+     */
+    URLDepthPair poll(long now);
+    
+    /**
+     * Сколько ждать до появления готовой пары без новых вызовов add и
+     * release.
+     * @param now текущее время System.nanoTime()
+     * @return задержка в наносекундах или -1, если сама по себе готовая
+     * пара не появится
+     */
+    long readyDelay(long now);
+    
+    /**
+     * Сообщает, что загрузка пары, выданной poll, закончена.
+     * @param depthPair обработанная пара
+     * @param now текущее время System.nanoTime()
+     * @return true, если после этого готовыми стали сразу многие пары
+     * (например, открылся следующий уровень обхода) и ждущие потоки нужно
+     * будить все
+     */
+    boolean release(URLDepthPair depthPair, long now);
+    
+    /**
+     * Сообщает, что найдена ещё одна ссылка на уже известный URL. Очередь
+     * по приоритету может поднять его, пока он ждёт загрузки.
+     * @param depthPair пара из новой ссылки
+     */
+    default void relink(URLDepthPair depthPair) {
+    
+    }
+    
+    /**
+     * @return количество пар в очереди
+     */
+    long size();
+}
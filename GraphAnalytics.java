@@ -0,0 +1,623 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Анализ графа ссылок в виде CsrGraph: PageRank, вершины с наибольшим
+ * числом входящих ссылок и сильно связные компоненты. Все величины по
+ * вершинам хранятся в массивах double и int. PageRank и выбор лучших
+ * вершин делятся задачами fork/join по диапазонам вершин; компоненты
+ * ищутся алгоритмом Тарьяна без рекурсии, со стеком вызовов в массивах,
+ * поэтому глубина графа не ограничена размером стека потока.
+ *
+ * Запуск отдельно от обхода по сохранённому графу:
+ * java GraphAnalytics <файл графа> [сколько лучших URL выводить]
+ * @author sergeychaika
+ */
+public final class GraphAnalytics {
+    
+    /**
+     * Параметры PageRank: вероятность перехода по ссылке, наибольшее
+     * число итераций и точность (сумма изменений рангов за итерацию).
+     */
+    public static final double DAMPING = 0.85;
+    public static final int MAX_ITERATIONS = 100;
+    public static final double TOLERANCE = 1e-9;
+    
+    /**
+     * Сколько вершин обрабатывает одна задача.
+     */
+    private static final int NODES_PER_TASK = 1 << 13;
+    
+    private GraphAnalytics() {
+    
+    }
+    
+    /**
+     * Вычисляет PageRank. На каждой итерации вершина собирает доли рангов
+     * по входящим рёбрам, поэтому задачи пишут каждая в свой диапазон и
+     * не мешают друг другу. Ранг страниц без ссылок делится поровну между
+     * всеми.
+     * @param graph граф
+     * @param reversed граф с обращёнными рёбрами
+     * @param pool пул задач
+     * @return ранги вершин, в сумме 1
+     */
+    public static double[] pageRank(CsrGraph graph, CsrGraph reversed,
+            ForkJoinPool pool) {
+        
+        int nodes = graph.nodeCount();
+        double[] rank = new double[nodes];
+        double[] next = new double[nodes];
+        double[] share = new double[nodes];
+        Arrays.fill(rank, 1.0 / nodes);
+        
+        for (int iteration = 0; iteration < MAX_ITERATIONS; ++iteration) {
+            
+            double dangling = pool.invoke(new Shares(graph.getOffsets(),
+                    rank, share, 0, nodes));
+            double base = (1 - DAMPING + DAMPING * dangling) / nodes;
+            double change = pool.invoke(new Gather(reversed, rank, share,
+                    next, base, 0, nodes));
+            
+            double[] swap = rank;
+            rank = next;
+            next = swap;
+            
+            if (change < TOLERANCE) {
+                
+                break;
+            }
+        }
+        
+        return rank;
+    }
+    
+    /**
+     * @param reversed граф с обращёнными рёбрами
+     * @return число входящих рёбер каждой вершины
+     */
+    public static int[] inDegrees(CsrGraph reversed) {
+        
+        int[] degrees = new int[reversed.nodeCount()];
+        
+        for (int node = 0; node < degrees.length; ++node) {
+            
+            degrees[node] = reversed.degree(node);
+        }
+        
+        return degrees;
+    }
+    
+    /**
+     * Находит сильно связные компоненты алгоритмом Тарьяна. Вместо
+     * рекурсии - стек вызовов из двух массивов: вершина и следующее её
+     * ребро.
+     * @param graph граф
+     * @return номер компоненты каждой вершины; компонент столько, сколько
+     * наибольший номер плюс один
+     */
+    public static int[] components(CsrGraph graph) {
+        
+        int nodes = graph.nodeCount();
+        int[] offsets = graph.getOffsets();
+        int[] targets = graph.getTargets();
+        
+        int[] index = new int[nodes];
+        int[] low = new int[nodes];
+        int[] component = new int[nodes];
+        boolean[] onStack = new boolean[nodes];
+        int[] stack = new int[nodes];
+        int[] callNode = new int[nodes];
+        int[] callEdge = new int[nodes];
+        Arrays.fill(index, -1);
+        
+        int counter = 0;
+        int components = 0;
+        int top = 0;
+        
+        for (int root = 0; root < nodes; ++root) {
+            
+            if (index[root] >= 0) {
+                
+                continue;
+            }
+            
+            int calls = 0;
+            callNode[calls] = root;
+            callEdge[calls++] = offsets[root];
+            index[root] = low[root] = counter++;
+            stack[top++] = root;
+            onStack[root] = true;
+            
+            while (calls > 0) {
+                
+                int node = callNode[calls - 1];
+                int edge = callEdge[calls - 1];
+                
+                if (edge < offsets[node + 1]) {
+                    
+                    ++callEdge[calls - 1];
+                    int target = targets[edge];
+                    
+                    if (index[target] < 0) {
+                        
+                        /**
+                         * "Рекурсивный вызов" для новой вершины.
+                         */
+                        index[target] = low[target] = counter++;
+                        stack[top++] = target;
+                        onStack[target] = true;
+                        callNode[calls] = target;
+                        callEdge[calls++] = offsets[target];
+                    }
+                    
+                    else if (onStack[target]) {
+                        
+                        low[node] = Math.min(low[node], index[target]);
+                    }
+                    
+                    continue;
+                }
+                
+                /**
+                 * Рёбра вершины кончились - "возврат из вызова".
+                 */
+                --calls;
+                
+                if (low[node] == index[node]) {
+                    
+                    int member;
+                    
+                    do {
+                        
+                        member = stack[--top];
+                        onStack[member] = false;
+                        component[member] = components;
+                    } while (member != node);
+                    
+                    ++components;
+                }
+                
+                if (calls > 0) {
+                    
+                    int parent = callNode[calls - 1];
+                    low[parent] = Math.min(low[parent], low[node]);
+                }
+            }
+        }
+        
+        return component;
+    }
+    
+    /**
+     * Выбирает вершины с наибольшими значениями: каждая задача держит
+     * кучу из limit лучших вершин своего диапазона, затем кучи сливаются.
+     * @param nodes число вершин
+     * @param value значение вершины
+     * @param limit сколько вершин выбрать
+     * @param pool пул задач
+     * @return вершины по убыванию значения, при равенстве - по возрастанию
+     * номера
+     */
+    public static int[] top(int nodes, IntToDoubleFunction value, int limit,
+            ForkJoinPool pool) {
+        
+        int[] best = pool.invoke(new Top(value, Math.max(0, Math.min(limit,
+                nodes)), 0, nodes));
+        int[] sorted = new int[best.length];
+        
+        /**
+         * Куча отдаёт худшую вершину первой, поэтому массив заполняется с
+         * конца.
+         */
+        int size = best.length;
+        
+        for (int position = sorted.length - 1; position >= 0; --position) {
+            
+            sorted[position] = best[0];
+            best[0] = best[--size];
+            siftDown(best, size, 0, value);
+        }
+        
+        return sorted;
+    }
+    
+    /**
+     * Считает и выводит PageRank, входящие ссылки и компоненты графа.
+     * @param graph граф
+     * @param urlsFile файл номеров URL или null
+     * @param limit сколько лучших URL выводить
+     * @param out куда выводить
+     * @throws IOException ошибка чтения файла номеров
+     */
+    public static void report(CsrGraph graph, Path urlsFile, int limit,
+            PrintStream out) throws IOException {
+        
+        int nodes = graph.nodeCount();
+        out.println("Граф ссылок: вершин " + nodes + ", рёбер "
+                + graph.edgeCount());
+        
+        if (nodes == 0) {
+            
+            return;
+        }
+        
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        CsrGraph reversed = graph.transpose();
+        double[] rank = pageRank(graph, reversed, pool);
+        int[] degrees = inDegrees(reversed);
+        int[] byRank = top(nodes, node -> rank[node], limit, pool);
+        int[] byLinks = top(nodes, node -> degrees[node], limit, pool);
+        
+        int[] component = components(graph);
+        int count = 0;
+        
+        for (int node = 0; node < nodes; ++node) {
+            
+            count = Math.max(count, component[node] + 1);
+        }
+        
+        int[] sizes = new int[count];
+        int largest = 0;
+        
+        for (int node = 0; node < nodes; ++node) {
+            
+            largest = Math.max(largest, ++sizes[component[node]]);
+        }
+        
+        Map<Integer, String> names = urlsFile == null ? new HashMap<>()
+                : names(urlsFile, byRank, byLinks);
+        
+        out.println("Наибольший PageRank:");
+        
+        for (int node : byRank) {
+            
+            out.printf("%12.8f  %s%n", rank[node], names.getOrDefault(node,
+                    "#" + node));
+        }
+        
+        out.println("Больше всего входящих ссылок:");
+        
+        for (int node : byLinks) {
+            
+            out.printf("%12d  %s%n", degrees[node], names.getOrDefault(node,
+                    "#" + node));
+        }
+        
+        out.println("Сильно связных компонент: " + count
+                + ", в наибольшей вершин: " + largest);
+    }
+    
+    /**
+     * Анализ сохранённого графа.
+     * @param args файл графа и, необязательно, сколько лучших URL выводить
+     * @throws IOException ошибка чтения
+     */
+    public static void main(String[] args) throws IOException {
+        
+        if (args.length < 1 || args.length > 2) {
+            
+            System.out.println("usage: java GraphAnalytics <файл графа> "
+                    + "[сколько лучших URL выводить]");
+            System.exit(1);
+        }
+        
+        Path file = Paths.get(args[0]);
+        Path urls = LinkGraph.urlsOf(file);
+        report(CsrGraph.read(file), Files.exists(urls) ? urls : null,
+                args.length > 1 ? Integer.parseInt(args[1]) : 10,
+                System.out);
+    }
+    
+    /**
+     * Читает из файла номеров только URL выбранных вершин.
+     */
+    private static Map<Integer, String> names(Path urlsFile, int[] first,
+            int[] second) throws IOException {
+        
+        int[] wanted = new int[first.length + second.length];
+        System.arraycopy(first, 0, wanted, 0, first.length);
+        System.arraycopy(second, 0, wanted, first.length, second.length);
+        Arrays.sort(wanted);
+        
+        Map<Integer, String> names = new HashMap<>();
+        
+        try (BufferedReader reader = Files.newBufferedReader(urlsFile,
+                StandardCharsets.UTF_8)) {
+            
+            String line;
+            int node = 0;
+            
+            for (int position = 0; position < wanted.length
+                    && (line = reader.readLine()) != null; ++node) {
+                
+                if (node == wanted[position]) {
+                    
+                    names.put(node, line);
+                    
+                    while (position < wanted.length
+                            && wanted[position] == node) {
+                        
+                        ++position;
+                    }
+                }
+            }
+        }
+        
+        return names;
+    }
+    
+    /**
+     * Куча с худшей вершиной в корне: меньшее значение хуже, при равенстве
+     * хуже больший номер.
+     */
+    private static boolean worse(int first, int second,
+            IntToDoubleFunction value) {
+        
+        int result = Double.compare(value.applyAsDouble(first),
+                value.applyAsDouble(second));
+        return result != 0 ? result < 0 : first > second;
+    }
+    
+    private static void siftDown(int[] heap, int size, int position,
+            IntToDoubleFunction value) {
+        
+        while (true) {
+            
+            int child = 2 * position + 1;
+            
+            if (child >= size) {
+                
+                return;
+            }
+            
+            if (child + 1 < size && worse(heap[child + 1], heap[child],
+                    value)) {
+                
+                ++child;
+            }
+            
+            if (!worse(heap[child], heap[position], value)) {
+                
+                return;
+            }
+            
+            int swap = heap[child];
+            heap[child] = heap[position];
+            heap[position] = swap;
+            position = child;
+        }
+    }
+    
+    private static void siftUp(int[] heap, int position,
+            IntToDoubleFunction value) {
+        
+        while (position > 0) {
+            
+            int parent = (position - 1) / 2;
+            
+            if (!worse(heap[position], heap[parent], value)) {
+                
+                return;
+            }
+            
+            int swap = heap[parent];
+            heap[parent] = heap[position];
+            heap[position] = swap;
+            position = parent;
+        }
+    }
+    
+    /**
+     * Кладёт вершину в кучу из не больше чем limit лучших.
+     * @return новый размер кучи
+     */
+    private static int offer(int[] heap, int size, int node,
+            IntToDoubleFunction value) {
+        
+        if (size < heap.length) {
+            
+            heap[size] = node;
+            siftUp(heap, size, value);
+            return size + 1;
+        }
+        
+        if (size > 0 && worse(heap[0], node, value)) {
+            
+            heap[0] = node;
+            siftDown(heap, size, 0, value);
+        }
+        
+        return size;
+    }
+    
+    /**
+     * Доли рангов по исходящим рёбрам; возвращает сумму рангов вершин без
+     * исходящих рёбер.
+     */
+    private static final class Shares extends RecursiveTask<Double> {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final int[] offsets;
+        private final double[] rank;
+        private final double[] share;
+        private final int from;
+        private final int to;
+        
+        Shares(int[] rowOffsets, double[] ranks, double[] shares, int first,
+                int last) {
+            
+            offsets = rowOffsets;
+            rank = ranks;
+            share = shares;
+            from = first;
+            to = last;
+        }
+        
+        @Override
+        protected Double compute() {
+            
+            if (to - from > NODES_PER_TASK) {
+                
+                int middle = (from + to) >>> 1;
+                Shares left = new Shares(offsets, rank, share, from, middle);
+                left.fork();
+                double right = new Shares(offsets, rank, share, middle, to)
+                        .compute();
+                return left.join() + right;
+            }
+            
+            double dangling = 0;
+            
+            for (int node = from; node < to; ++node) {
+                
+                int degree = offsets[node + 1] - offsets[node];
+                
+                if (degree == 0) {
+                    
+                    dangling += rank[node];
+                    share[node] = 0;
+                }
+                
+                else {
+                    
+                    share[node] = rank[node] / degree;
+                }
+            }
+            
+            return dangling;
+        }
+    }
+    
+    /**
+     * Новые ранги по входящим рёбрам; возвращает сумму изменений рангов.
+     */
+    private static final class Gather extends RecursiveTask<Double> {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final CsrGraph reversed;
+        private final double[] rank;
+        private final double[] share;
+        private final double[] next;
+        private final double base;
+        private final int from;
+        private final int to;
+        
+        Gather(CsrGraph reversedGraph, double[] ranks, double[] shares,
+                double[] nextRanks, double baseRank, int first, int last) {
+            
+            reversed = reversedGraph;
+            rank = ranks;
+            share = shares;
+            next = nextRanks;
+            base = baseRank;
+            from = first;
+            to = last;
+        }
+        
+        @Override
+        protected Double compute() {
+            
+            if (to - from > NODES_PER_TASK) {
+                
+                int middle = (from + to) >>> 1;
+                Gather left = new Gather(reversed, rank, share, next, base,
+                        from, middle);
+                left.fork();
+                double right = new Gather(reversed, rank, share, next, base,
+                        middle, to).compute();
+                return left.join() + right;
+            }
+            
+            int[] offsets = reversed.getOffsets();
+            int[] sources = reversed.getTargets();
+            double change = 0;
+            
+            for (int node = from; node < to; ++node) {
+                
+                double sum = 0;
+                
+                for (int edge = offsets[node]; edge < offsets[node + 1];
+                        ++edge) {
+                    
+                    sum += share[sources[edge]];
+                }
+                
+                double value = base + DAMPING * sum;
+                change += Math.abs(value - rank[node]);
+                next[node] = value;
+            }
+            
+            return change;
+        }
+    }
+    
+    /**
+     * Лучшие вершины диапазона.
+     */
+    private static final class Top extends RecursiveTask<int[]> {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final IntToDoubleFunction value;
+        private final int limit;
+        private final int from;
+        private final int to;
+        
+        Top(IntToDoubleFunction values, int count, int first, int last) {
+            
+            value = values;
+            limit = count;
+            from = first;
+            to = last;
+        }
+        
+        @Override
+        protected int[] compute() {
+            
+            int[] heap = new int[limit];
+            int size = 0;
+            
+            if (to - from > NODES_PER_TASK) {
+                
+                int middle = (from + to) >>> 1;
+                Top left = new Top(value, limit, from, middle);
+                left.fork();
+                int[] right = new Top(value, limit, middle, to).compute();
+                
+                for (int node : right) {
+                    
+                    size = offer(heap, size, node, value);
+                }
+                
+                for (int node : left.join()) {
+                    
+                    size = offer(heap, size, node, value);
+                }
+            }
+            
+            else {
+                
+                for (int node = from; node < to; ++node) {
+                    
+                    size = offer(heap, size, node, value);
+                }
+            }
+            
+            return size == heap.length ? heap : Arrays.copyOf(heap, size);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Согласованное хеширование хостов по узлам распределённого обхода. Каждый
+ * узел занимает на кольце 64-битных хешей несколько виртуальных точек, а
+ * хост принадлежит узлу первой точки, не меньшей хеша хоста. Поэтому все
+ * URL одного хоста попадают на один узел (и вежливость к хосту
+ * соблюдается там же), а при изменении количества узлов переезжает только
+ * малая часть хостов.
+ *
+ * Точки хранятся отсортированным массивом long, поиск - двоичный.
+ * @author sergeychaika
+ */
+public class HashRing {
+    
+    /**
+     * Виртуальных точек на узел: чем больше, тем ровнее доли узлов.
+     */
+    private static final int POINTS_PER_NODE = 128;
+    
+    private final long[] points;
+    private final int[] owners;
+    private final int nodes;
+    
+    /**
+     * @param nodeCount количество узлов
+     */
+    public HashRing(int nodeCount) {
+        
+        if (nodeCount < 1) {
+            
+            throw new IllegalArgumentException("Количество узлов должно быть "
+                    + "больше нуля");
+        }
+        
+        nodes = nodeCount;
+        
+        long[] hashes = new long[nodeCount * POINTS_PER_NODE];
+        Integer[] order = new Integer[hashes.length];
+        
+        for (int index = 0; index < hashes.length; ++index) {
+            
+            hashes[index] = URLFingerprint.of("node-"
+                    + index / POINTS_PER_NODE + "#" + index % POINTS_PER_NODE);
+            order[index] = index;
+        }
+        
+        /**
+         * Сортировка устойчива, поэтому даже при совпадении хешей порядок
+         * точек одинаков на всех узлах.
+         */
+        Arrays.sort(order, Comparator.comparingLong(index -> hashes[index]));
+        
+        points = new long[hashes.length];
+        owners = new int[hashes.length];
+        
+        for (int index = 0; index < order.length; ++index) {
+            
+            points[index] = hashes[order[index]];
+            owners[index] = order[index] / POINTS_PER_NODE;
+        }
+    }
+    
+    /**
+     * @param host имя хоста
+     * @return номер узла, которому принадлежит хост
+     */
+    public int nodeOf(String host) {
+        
+        if (nodes == 1) {
+            
+            return 0;
+        }
+        
+        long hash = URLFingerprint.of(host == null ? "" : host);
+        int index = Arrays.binarySearch(points, hash);
+        
+        if (index < 0) {
+            
+            index = -index - 1;
+        }
+        
+        /**
+         * За последней точкой кольцо замыкается на первую.
+         */
+        return owners[index == points.length ? 0 : index];
+    }
+    
+    /**
+     * @return количество узлов
+     */
+    public int size() {
+        
+        return nodes;
+    }
+}
@@ -0,0 +1,194 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Множество просмотренных URL, в котором хранятся только 64-битные
+ * отпечатки URL, без самих строк. Отпечатки лежат в таблицах с открытой
+ * адресацией из примитивных long, по 8 байтов на ячейку, поэтому на URL
+ * приходится 11-21 байт вместо строки, ключа Long и узла хеш-таблицы.
+ *
+ * Таблица разбита на STRIPES частей по старшим битам отпечатка, у каждой
+ * своя блокировка, поэтому потоки, добавляющие разные URL, почти никогда
+ * не ждут друг друга.
+ *
+ * Два разных URL с одинаковым отпечатком считаются одним: вероятность
+ * этого для n URL около n / 2^64, что на практике равно нулю.
+ * @author sergeychaika
+ */
+public class HashVisitedSet implements VisitedSet {
+    
+    /**
+     * Количество частей таблицы, степень двойки.
+     */
+    private static final int STRIPES = 64;
+    private static final int STRIPE_SHIFT = Long.SIZE
+            - Integer.numberOfTrailingZeros(STRIPES);
+    
+    /**
+     * Часть таблицы отпечатков. Пустая ячейка - 0, поэтому нулевой
+     * отпечаток хранится отдельным флагом.
+     */
+    private static final class Stripe {
+        
+        long[] slots;
+        int size;
+        boolean hasZero;
+        
+        Stripe(int capacity) {
+            
+            slots = new long[capacity];
+        }
+        
+        synchronized boolean add(long fingerprint) {
+            
+            if (fingerprint == 0) {
+                
+                boolean added = !hasZero;
+                hasZero = true;
+                return added;
+            }
+            
+            if (!insert(slots, fingerprint)) {
+                
+                return false;
+            }
+            
+            /**
+             * Заполнение не больше 3/4, иначе цепочки проб растут.
+             */
+            if (++size > slots.length - (slots.length >>> 2)) {
+                
+                long[] grown = new long[slots.length << 1];
+                
+                for (long value : slots) {
+                    
+                    if (value != 0) {
+                        
+                        insert(grown, value);
+                    }
+                }
+                
+                slots = grown;
+            }
+            
+            return true;
+        }
+        
+        synchronized boolean contains(long fingerprint) {
+            
+            if (fingerprint == 0) {
+                
+                return hasZero;
+            }
+            
+            int mask = slots.length - 1;
+            
+            for (int index = (int) fingerprint & mask; ;
+                    index = (index + 1) & mask) {
+                
+                long value = slots[index];
+                
+                if (value == fingerprint) {
+                    
+                    return true;
+                }
+                
+                if (value == 0) {
+                    
+                    return false;
+                }
+            }
+        }
+        
+        /**
+         * Линейное пробирование от младших битов отпечатка.
+         * @return false, если отпечаток уже есть в таблице
+         */
+        private static boolean insert(long[] table, long fingerprint) {
+            
+            int mask = table.length - 1;
+            
+            for (int index = (int) fingerprint & mask; ;
+                    index = (index + 1) & mask) {
+                
+                long value = table[index];
+                
+                if (value == fingerprint) {
+                    
+                    return false;
+                }
+                
+                if (value == 0) {
+                    
+                    table[index] = fingerprint;
+                    return true;
+                }
+            }
+        }
+    }
+    
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final LongAdder count = new LongAdder();
+    
+    public HashVisitedSet() {
+        
+        this(STRIPES * 64);
+    }
+    
+    /**
+     * @param expectedURLs ожидаемое количество URL
+     */
+    public HashVisitedSet(int expectedURLs) {
+        
+        int perStripe = Math.max(16, expectedURLs / STRIPES);
+        int capacity = Integer.highestOneBit(perStripe + perStripe / 3) << 1;
+        
+        for (int stripe = 0; stripe < STRIPES; ++stripe) {
+            
+            stripes[stripe] = new Stripe(capacity);
+        }
+    }
+    
+    @Override
+    public boolean add(long fingerprint) {
+        
+        if (!stripeOf(fingerprint).add(fingerprint)) {
+            
+            return false;
+        }
+        
+        count.increment();
+        return true;
+    }
+    
+    @Override
+    public boolean contains(long fingerprint) {
+        
+        return stripeOf(fingerprint).contains(fingerprint);
+    }
+    
+    @Override
+    public long size() {
+        
+        return count.sum();
+    }
+    
+    /**
+     * Вероятность того, что новый URL совпадёт по отпечатку с одним из
+     * уже добавленных.
+     * @return оценка вероятности ложного срабатывания
+     */
+    @Override
+    public double falsePositiveRate() {
+        
+        return size() / 0x1p64;
+    }
+    
+    /**
+     * Часть выбирается по старшим битам, а ячейка внутри неё - по младшим,
+     * чтобы они не зависели друг от друга.
+     */
+    private Stripe stripeOf(long fingerprint) {
+        
+        return stripes[(int) (fingerprint >>> STRIPE_SHIFT)];
+    }
+}
@@ -0,0 +1,375 @@
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Очередь с учётом вежливости: у каждого хоста своя очередь, а хосты
+ * упорядочены в куче по времени, когда к ним снова можно обратиться. Между
+ * запросами к одному хосту выдерживается минимальная задержка, а количество
+ * одновременных запросов к нему ограничено. Поэтому poll всегда выдаёт URL
+ * готового хоста, и медленный хост не задерживает остальные.
+ *
+ * Если задан ConcurrencyLimiter, предел хоста берётся из него (но не больше
+ * hostConcurrency), а poll не выдаёт URL, пока общее количество запросов не
+ * опустится ниже общего предела.
+ *
+ * Если задан RobotsCache, задержка между запросами к хосту не меньше его
+ * Crawl-delay из robots.txt; Crawl-delay перечитывается после каждого
+ * запроса, поэтому обновлённые правила начинают действовать сразу.
+ *
+ * Хост без URL и без запросов хранится, только пока не прошла его
+ * задержка: дальше нового запроса можно не ждать, и poll удаляет хост.
+ * @author sergeychaika
+ */
+public class HostFrontier implements Frontier {
+    
+    /**
+     * Очередь одного хоста.
+     */
+    private static class HostQueue {
+        
+        final String host;
+        final ArrayDeque<URLDepthPair> pending = new ArrayDeque<>();
+        
+        /**
+         * Когда к хосту можно обратиться в следующий раз.
+         */
+        long nextReady;
+        
+        /**
+         * Сколько запросов к хосту выполняется сейчас.
+         */
+        int active;
+        
+        /**
+         * Хост лежит в куче готовности с ключом readyKey. Ключ не меняется,
+         * пока хост в куче: если nextReady вырос, хост перекладывается с
+         * новым ключом, когда дойдёт до вершины.
+         */
+        boolean scheduled;
+        long readyKey;
+        
+        /**
+         * Хост лежит в куче удаления с ключом idleKey.
+         */
+        boolean expiring;
+        long idleKey;
+        
+        /**
+         * Задержка между запросами к хосту: общая или Crawl-delay хоста,
+         * если он больше.
+         */
+        long delay;
+        
+        HostQueue(String name, long now, long hostDelay) {
+            
+            host = name;
+            nextReady = now;
+            delay = hostDelay;
+        }
+    }
+    
+    private final Map<String, HostQueue> hosts = new HashMap<>();
+    
+    /**
+     * Хосты, у которых есть URL и свободные места, по времени готовности.
+     */
+    private final PriorityQueue<HostQueue> ready = new PriorityQueue<>(
+            (first, second) -> Long.compare(first.readyKey,
+                    second.readyKey));
+    
+    /**
+     * Хосты без URL и без запросов по времени, когда их можно удалить.
+     */
+    private final PriorityQueue<HostQueue> idle = new PriorityQueue<>(
+            (first, second) -> Long.compare(first.idleKey, second.idleKey));
+    
+    private final long delayNanos;
+    private final int maxActive;
+    private final ConcurrencyLimiter limiter;
+    private final RobotsCache robots;
+    private long size;
+    
+    /**
+     * Сколько запросов ко всем хостам выполняется сейчас.
+     */
+    private int active;
+    
+    /**
+     * Настройки очереди. По умолчанию задержки нет, одновременные запросы
+     * к хосту не ограничены, а ограничителя и robots.txt нет.
+     */
+    public static class Builder {
+        
+        private long hostDelayMillis;
+        private int hostConcurrency = Integer.MAX_VALUE;
+        private ConcurrencyLimiter limiter;
+        private RobotsCache robots;
+        
+        /**
+         * @param millis минимальная задержка между запросами к хосту
+         * @return этот же объект
+         */
+        public Builder hostDelay(long millis) {
+            
+            hostDelayMillis = millis;
+            return this;
+        }
+        
+        /**
+         * @param concurrency максимум одновременных запросов к хосту
+         * @return этот же объект
+         */
+        public Builder hostConcurrency(int concurrency) {
+            
+            hostConcurrency = concurrency;
+            return this;
+        }
+        
+        /**
+         * @param concurrencyLimiter адаптивные пределы или null
+         * @return этот же объект
+         */
+        public Builder limiter(ConcurrencyLimiter concurrencyLimiter) {
+            
+            limiter = concurrencyLimiter;
+            return this;
+        }
+        
+        /**
+         * @param robotsCache источник Crawl-delay хостов или null
+         * @return этот же объект
+         */
+        public Builder robots(RobotsCache robotsCache) {
+            
+            robots = robotsCache;
+            return this;
+        }
+        
+        public HostFrontier build() {
+            
+            return new HostFrontier(this);
+        }
+    }
+    
+    private HostFrontier(Builder builder) {
+        
+        robots = builder.robots;
+        delayNanos = TimeUnit.MILLISECONDS.toNanos(builder.hostDelayMillis);
+        maxActive = Math.max(1, builder.hostConcurrency);
+        limiter = builder.limiter;
+    }
+    
+    @Override
+    public synchronized void add(URLDepthPair depthPair) {
+        
+        String host = hostOf(depthPair);
+        HostQueue queue = hosts.get(host);
+        
+        if (queue == null) {
+            
+            queue = new HostQueue(host, System.nanoTime(), delayOf(host));
+            hosts.put(host, queue);
+        }
+        
+        queue.pending.add(depthPair);
+        ++size;
+        schedule(queue);
+    }
+    
+    @Override
+    public synchronized URLDepthPair poll(long now) {
+        
+        evict(now);
+        HostQueue queue = first();
+        
+        if (queue == null || queue.nextReady - now > 0 || isSaturated()) {
+            
+            return null;
+        }
+        
+        ready.poll();
+        queue.scheduled = false;
+        
+        URLDepthPair depthPair = queue.pending.poll();
+        --size;
+        ++queue.active;
+        ++active;
+        
+        /**
+         * Следующий запрос к хосту не раньше, чем через задержку.
+         */
+        queue.nextReady = now + queue.delay;
+        schedule(queue);
+        
+        return depthPair;
+    }
+    
+    @Override
+    public synchronized long readyDelay(long now) {
+        
+        HostQueue queue = first();
+        
+        /**
+         * При исчерпанном общем пределе ждём завершения запроса.
+         */
+        if (queue == null || isSaturated()) {
+            
+            return -1;
+        }
+        
+        return Math.max(0, queue.nextReady - now);
+    }
+    
+    @Override
+    public synchronized boolean release(URLDepthPair depthPair, long now) {
+        
+        HostQueue queue = hosts.get(hostOf(depthPair));
+        
+        if (queue == null) {
+            
+            return false;
+        }
+        
+        --queue.active;
+        --active;
+        
+        /**
+         * Задержка отсчитывается и от конца запроса, чтобы медленный хост
+         * не получал запросы сразу один за другим. Если хост в куче, first
+         * переложит его с новым ключом.
+         */
+        queue.delay = delayOf(queue.host);
+        queue.nextReady = Math.max(queue.nextReady, now + queue.delay);
+        
+        if (queue.pending.isEmpty() && queue.active == 0) {
+            
+            if (queue.nextReady - now <= 0) {
+                
+                hosts.remove(queue.host, queue);
+            }
+            
+            else if (!queue.expiring) {
+                
+                queue.idleKey = queue.nextReady;
+                queue.expiring = true;
+                idle.add(queue);
+            }
+            
+            return false;
+        }
+        
+        schedule(queue);
+        return false;
+    }
+    
+    @Override
+    public synchronized long size() {
+        
+        return size;
+    }
+    
+    /**
+     * @return количество хостов, известных очереди
+     */
+    public synchronized int getHosts() {
+        
+        return hosts.size();
+    }
+    
+    /**
+     * Кладёт хост в кучу, если у него есть URL и свободное место. Выросший
+     * предел хоста начинает действовать со следующего release.
+     */
+    private void schedule(HostQueue queue) {
+        
+        if (!queue.scheduled && !queue.pending.isEmpty()
+                && queue.active < hostLimit(queue.host)) {
+            
+            queue.readyKey = queue.nextReady;
+            ready.add(queue);
+            queue.scheduled = true;
+        }
+    }
+    
+    /**
+     * @return ближайший готовый хост или null. Хосты, время готовности
+     * которых выросло, по пути перекладываются с новым ключом.
+     */
+    private HostQueue first() {
+        
+        HostQueue queue;
+        
+        while ((queue = ready.peek()) != null
+                && queue.readyKey != queue.nextReady) {
+            
+            ready.poll();
+            queue.readyKey = queue.nextReady;
+            ready.add(queue);
+        }
+        
+        return queue;
+    }
+    
+    /**
+     * Удаляет хосты без URL и запросов, задержка которых прошла. Хост,
+     * получивший с тех пор URL или новый срок, пропускается или
+     * перекладывается.
+     */
+    private void evict(long now) {
+        
+        HostQueue queue;
+        
+        while ((queue = idle.peek()) != null && queue.idleKey - now <= 0) {
+            
+            idle.poll();
+            queue.expiring = false;
+            
+            if (!queue.pending.isEmpty() || queue.active > 0) {
+                
+                continue;
+            }
+            
+            if (queue.nextReady - now <= 0) {
+                
+                hosts.remove(queue.host, queue);
+            }
+            
+            else {
+                
+                queue.idleKey = queue.nextReady;
+                queue.expiring = true;
+                idle.add(queue);
+            }
+        }
+    }
+    
+    /**
+     * Crawl-delay известен к тому времени, когда первый URL хоста попадает
+     * в очередь: пул проверяет URL по robots.txt раньше.
+     */
+    private long delayOf(String host) {
+        
+        return robots == null ? delayNanos
+                : Math.max(delayNanos, robots.getCrawlDelay(host));
+    }
+    
+    private int hostLimit(String host) {
+        
+        return limiter == null ? maxActive
+                : Math.min(maxActive, limiter.getHostLimit(host));
+    }
+    
+    private boolean isSaturated() {
+        
+        return limiter != null && active >= limiter.getLimit();
+    }
+    
+    private static String hostOf(URLDepthPair depthPair) {
+        
+        String host = depthPair.getWebHost();
+        return host == null ? "" : host;
+    }
+}
@@ -0,0 +1,118 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Открытое соединение с сервером, которое можно использовать для нескольких
+ * запросов подряд (HTTP/1.1 keep-alive).
+ * @author sergeychaika
+ */
+public class HttpConnection {
+    
+    private final Socket socket;
+    private final InputStream input;
+    private final OutputStream output;
+    
+    /**
+     * Ключ хоста в пуле соединений.
+     */
+    private final String hostKey;
+    
+    /**
+     * Время последнего возврата соединения в пул.
+     */
+    private volatile long lastUsed;
+    
+    /**
+     * Количество запросов, выполненных через это соединение.
+     */
+    private int requests;
+    
+    /**
+     * @param newSocket подключённый сокет
+     * @param key ключ хоста в пуле соединений
+     * @throws IOException ошибка при получении потоков сокета
+     */
+    public HttpConnection(Socket newSocket, String key) throws IOException {
+        
+        socket = newSocket;
+        hostKey = key;
+        input = new BufferedInputStream(socket.getInputStream());
+        output = new BufferedOutputStream(socket.getOutputStream());
+        lastUsed = System.nanoTime();
+    }
+    
+    public InputStream getInputStream() {
+        
+        return input;
+    }
+    
+    public OutputStream getOutputStream() {
+        
+        return output;
+    }
+    
+    public Socket getSocket() {
+        
+        return socket;
+    }
+    
+    public String getHostKey() {
+        
+        return hostKey;
+    }
+    
+    public long getLastUsed() {
+        
+        return lastUsed;
+    }
+    
+    void markUsed() {
+        
+        lastUsed = System.nanoTime();
+    }
+    
+    /**
+     * Отмечает начало очередного запроса.
+     * @return true, если соединение уже использовалось раньше
+     */
+    boolean beginRequest() {
+        
+        return requests++ > 0;
+    }
+    
+    public boolean isOpen() {
+        
+        /**
+         * У сокета TLS нет отдельного состояния входного потока.
+         */
+        if (socket instanceof SSLSocket) {
+            
+            return !socket.isClosed();
+        }
+        
+        return !socket.isClosed() && !socket.isInputShutdown();
+    }
+    
+    /**
+     * Закрывает соединение, игнорируя ошибки.
+     */
+    public void close() {
+        
+        try {
+            
+            socket.close();
+        }
+        
+        catch (IOException e) {
+            
+            /**
+             * Соединение всё равно больше не используется.
+             */
+        }
+    }
+}
@@ -0,0 +1,421 @@
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Ответ HTTP-сервера: строка статуса, заголовки и тело. Тело ограничено
+ * по Content-Length или декодируется из chunked, поэтому после его чтения
+ * соединение остаётся на границе следующего ответа. Тела, сжатые gzip или
+ * deflate, распаковываются на лету при чтении.
+ * @author sergeychaika
+ */
+public class HttpResponse {
+    
+    /**
+     * Максимальная длина строки заголовка.
+     */
+    private static final int MAX_LINE = 64 * 1024;
+    
+    private final String statusLine;
+    private final int statusCode;
+    
+    /**
+     * Заголовки с именами в нижнем регистре.
+     */
+    private final Map<String, String> headers;
+    
+    /**
+     * Тело в том виде, в каком оно пришло по сети (после снятия chunked),
+     * и распакованное тело.
+     */
+    private final CountingInputStream wireBody;
+    private CountingInputStream body;
+    
+    private final boolean keepAlive;
+    
+    /**
+     * Длина тела по Content-Length или -1, если она неизвестна.
+     */
+    private final long contentLength;
+    
+    /**
+     * Ответ прочитан не целиком: загрузчик прервал его раньше.
+     */
+    private boolean truncated;
+    
+    /**
+     * Остаток тела не нужен и не должен дочитываться: соединение
+     * закрывается.
+     */
+    private boolean abandoned;
+    
+    private HttpResponse(String line, int code, Map<String, String> fields,
+            InputStream content, boolean persistent, long length) {
+        
+        statusLine = line;
+        statusCode = code;
+        headers = fields;
+        wireBody = new CountingInputStream(content);
+        keepAlive = persistent;
+        contentLength = length;
+    }
+    
+    /**
+     * Читает строку статуса и заголовки ответа и готовит поток тела.
+     * @param in поток соединения
+     * @param headRequest true, если запрос был HEAD и тела не будет
+     * @return ответ сервера
+     * @throws IOException ошибка чтения или неверный формат ответа
+     */
+    public static HttpResponse read(InputStream in, boolean headRequest)
+            throws IOException {
+        
+        String line;
+        int code;
+        
+        /**
+         * Промежуточные ответы 1xx пропускаем.
+         */
+        do {
+            
+            line = readLine(in);
+            
+            if (line == null) {
+                
+                throw new EOFException("Сервер вернул пустой ответ");
+            }
+            
+            code = parseStatus(line);
+            
+            if (code < 200) {
+                
+                readHeaders(in);
+            }
+        } while (code < 200);
+        
+        Map<String, String> fields = readHeaders(in);
+        
+        boolean http11 = line.startsWith("HTTP/1.1");
+        String connection = fields.getOrDefault("connection", "")
+                .toLowerCase(Locale.ROOT);
+        boolean persistent = http11 ? !connection.contains("close")
+                : connection.contains("keep-alive");
+        
+        InputStream content;
+        String transfer = fields.getOrDefault("transfer-encoding", "")
+                .toLowerCase(Locale.ROOT);
+        String length = fields.get("content-length");
+        long bodyLength = -1;
+        
+        if (headRequest || code == 204 || code == 304) {
+            
+            content = new FixedLengthInputStream(in, 0);
+        }
+        
+        else if (transfer.contains("chunked")) {
+            
+            content = new ChunkedInputStream(in);
+        }
+        
+        else if (length != null) {
+            
+            try {
+                
+                bodyLength = Long.parseLong(length.trim());
+                content = new FixedLengthInputStream(in, bodyLength);
+            }
+            
+            catch (NumberFormatException e) {
+                
+                throw new IOException("Неверный Content-Length: " + length);
+            }
+        }
+        
+        else {
+            
+            /**
+             * Длина не указана: тело идёт до закрытия соединения.
+             */
+            content = in;
+            persistent = false;
+        }
+        
+        return new HttpResponse(line, code, fields, content, persistent,
+                bodyLength);
+    }
+    
+    /**
+     * Тело, распакованное согласно Content-Encoding. Распаковщик создаётся
+     * при первом обращении, потому что он сразу читает заголовок gzip.
+     * @return поток тела
+     * @throws IOException неверный заголовок сжатого тела
+     */
+    public InputStream getBody() throws IOException {
+        
+        if (body == null) {
+            
+            body = new CountingInputStream(decode(wireBody,
+                    headers.getOrDefault("content-encoding", "")));
+        }
+        
+        return body;
+    }
+    
+    /**
+     * Оборачивает поток в распаковщик.
+     */
+    private static InputStream decode(InputStream in, String encoding)
+            throws IOException {
+        
+        encoding = encoding.trim().toLowerCase(Locale.ROOT);
+        
+        if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+            
+            return new GZIPInputStream(in, 8192);
+        }
+        
+        if (encoding.equals("deflate")) {
+            
+            /**
+             * Серверы присылают deflate и в обёртке zlib, как требует
+             * стандарт, и без неё; различаем по первому байту.
+             */
+            PushbackInputStream peek = new PushbackInputStream(in, 2);
+            byte[] header = new byte[2];
+            int read = peek.readNBytes(header, 0, 2);
+            
+            peek.unread(header, 0, read);
+            boolean zlib = read == 2 && (header[0] & 0x0f) == 8
+                    && ((header[0] & 0xff) << 8 | (header[1] & 0xff)) % 31 == 0;
+            
+            return new InflaterInputStream(peek, new Inflater(!zlib), 8192);
+        }
+        
+        return in;
+    }
+    
+    /**
+     * @return сколько байтов тела получено по сети
+     */
+    public long getWireBytes() {
+        
+        return wireBody.getCount();
+    }
+    
+    /**
+     * @return сколько байтов тела получено после распаковки
+     */
+    public long getDecodedBytes() {
+        
+        return body == null ? 0 : body.getCount();
+    }
+    
+    /**
+     * Разбор кода из строки статуса вида "HTTP/1.1 200 OK".
+     */
+    private static int parseStatus(String line) throws IOException {
+        
+        String[] parts = line.split(" ", 3);
+        
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            
+            throw new IOException("Неверная строка статуса: " + line);
+        }
+        
+        try {
+            
+            return Integer.parseInt(parts[1]);
+        }
+        
+        catch (NumberFormatException e) {
+            
+            throw new IOException("Неверная строка статуса: " + line);
+        }
+    }
+    
+    /**
+     * Читает заголовки до пустой строки. Повторяющиеся заголовки
+     * объединяются через запятую.
+     */
+    private static Map<String, String> readHeaders(InputStream in)
+            throws IOException {
+        
+        Map<String, String> fields = new HashMap<>();
+        String line;
+        
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            
+            int colon = line.indexOf(':');
+            
+            if (colon <= 0) {
+                
+                continue;
+            }
+            
+            String name = line.substring(0, colon).trim()
+                    .toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim();
+            
+            fields.merge(name, value, (first, second) -> first + ", "
+                    + second);
+        }
+        
+        return fields;
+    }
+    
+    /**
+     * Читает строку, оканчивающуюся на CRLF или LF, прямо из потока байтов.
+     * @param in поток
+     * @return строка без перевода строки или null в конце потока
+     * @throws IOException ошибка чтения или слишком длинная строка
+     */
+    public static String readLine(InputStream in) throws IOException {
+        
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int next;
+        
+        while ((next = in.read()) >= 0) {
+            
+            if (next == '\n') {
+                
+                break;
+            }
+            
+            if (line.size() >= MAX_LINE) {
+                
+                throw new IOException("Слишком длинная строка заголовка");
+            }
+            
+            line.write(next);
+        }
+        
+        if (next < 0 && line.size() == 0) {
+            
+            return null;
+        }
+        
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length;
+        
+        if (length > 0 && bytes[length - 1] == '\r') {
+            
+            --length;
+        }
+        
+        return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+    }
+    
+    /**
+     * Дочитывает остаток тела, чтобы соединение можно было использовать
+     * снова. Читается сетевой поток, поэтому распаковка не нужна.
+     * @param limit сколько байтов можно дочитать
+     * @return true, если соединение можно вернуть в пул
+     */
+    public boolean finish(long limit) {
+        
+        if (!keepAlive || abandoned) {
+            
+            return false;
+        }
+        
+        /**
+         * Если длина известна и остаток больше лимита, закрываем сразу.
+         */
+        if (contentLength >= 0 && contentLength - wireBody.getCount()
+                > limit) {
+            
+            return false;
+        }
+        
+        byte[] buffer = new byte[8192];
+        long skipped = 0;
+        
+        try {
+            
+            int count;
+            
+            while (skipped <= limit
+                    && (count = wireBody.read(buffer, 0, buffer.length))
+                            >= 0) {
+                
+                skipped += count;
+            }
+            
+            return skipped <= limit;
+        }
+        
+        catch (IOException e) {
+            
+            return false;
+        }
+    }
+    
+    /**
+     * @return длина тела по Content-Length или -1
+     */
+    public long getContentLength() {
+        
+        return contentLength;
+    }
+    
+    /**
+     * Отмечает, что загрузчик прервал ответ раньше конца тела.
+     */
+    public void markTruncated() {
+        
+        truncated = true;
+    }
+    
+    /**
+     * Отмечает, что остаток тела читать нельзя: finish не дочитывает его, а
+     * закрывает соединение.
+     */
+    public void abandon() {
+        
+        abandoned = true;
+    }
+    
+    /**
+     * @return true, если ответ прочитан не целиком
+     */
+    public boolean isTruncated() {
+        
+        return truncated;
+    }
+    
+    public int getStatusCode() {
+        
+        return statusCode;
+    }
+    
+    public String getStatusLine() {
+        
+        return statusLine;
+    }
+    
+    /**
+     * @param name имя заголовка в любом регистре
+     * @return значение заголовка или null
+     */
+    public String getHeader(String name) {
+        
+        return headers.get(name.toLowerCase(Locale.ROOT));
+    }
+    
+    /**
+     * @return true, если сервер не собирается закрывать соединение
+     */
+    public boolean isKeepAlive() {
+        
+        return keepAlive;
+    }
+}
@@ -0,0 +1,160 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Спящие потоки очереди без общей блокировки. Поток без работы засыпает
+ * через LockSupport.park, а очередь будит один или все спящие потоки через
+ * unpark; пока спящих нет, пробуждение только читает счётчик.
+ *
+ * Перед сном поток отмечается спящим и ещё раз проверяет условие, поэтому
+ * пробуждение между проверкой и сном не теряется: unpark до park просто не
+ * даст заснуть.
+ * @author sergeychaika
+ */
+final class IdleWorkers {
+    
+    /**
+     * Состояние сна одного потока.
+     */
+    private static final class Waiter {
+        
+        final Thread thread;
+        
+        /**
+         * Поток спит или собирается заснуть. Сбрасывает флаг тот, кто
+         * будит, или сам поток после пробуждения - кто первый.
+         */
+        final AtomicBoolean parked = new AtomicBoolean();
+        
+        Waiter(Thread owner) {
+            
+            thread = owner;
+        }
+    }
+    
+    /**
+     * Все потоки, которые хоть раз засыпали. Массив заменяется целиком при
+     * появлении нового потока, это бывает по одному разу на поток.
+     */
+    private volatile Waiter[] waiters = new Waiter[0];
+    
+    private final ThreadLocal<Waiter> current = new ThreadLocal<>();
+    private final AtomicInteger idle = new AtomicInteger();
+    private final LongAdder parks = new LongAdder();
+    
+    /**
+     * Усыпляет текущий поток, пока его не разбудят или не пройдёт время.
+     * @param ready проверка, которую нужно повторить после отметки: есть
+     * ли работа или закончен ли обход
+     * @param nanos сколько спать не дольше или -1, чтобы спать до
+     * пробуждения
+     */
+    void park(BooleanSupplier ready, long nanos) {
+        
+        Waiter waiter = register();
+        waiter.parked.set(true);
+        idle.incrementAndGet();
+        
+        if (!ready.getAsBoolean()) {
+            
+            parks.increment();
+            
+            if (nanos < 0) {
+                
+                LockSupport.park(this);
+            }
+            
+            else {
+                
+                LockSupport.parkNanos(this, Math.max(nanos, 1));
+            }
+        }
+        
+        if (waiter.parked.compareAndSet(true, false)) {
+            
+            idle.decrementAndGet();
+        }
+    }
+    
+    /**
+     * Будит один спящий поток, если такой есть.
+     */
+    void wakeOne() {
+        
+        if (idle.get() == 0) {
+            
+            return;
+        }
+        
+        for (Waiter waiter : waiters) {
+            
+            if (wake(waiter)) {
+                
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Будит все спящие потоки.
+     */
+    void wakeAll() {
+        
+        for (Waiter waiter : waiters) {
+            
+            wake(waiter);
+        }
+    }
+    
+    /**
+     * @return количество спящих потоков
+     */
+    int getIdle() {
+        
+        return idle.get();
+    }
+    
+    /**
+     * @return сколько раз потоки засыпали
+     */
+    long getParks() {
+        
+        return parks.sum();
+    }
+    
+    private boolean wake(Waiter waiter) {
+        
+        if (waiter.parked.get() && waiter.parked.compareAndSet(true, false)) {
+            
+            idle.decrementAndGet();
+            LockSupport.unpark(waiter.thread);
+            return true;
+        }
+        
+        return false;
+    }
+    
+    private Waiter register() {
+        
+        Waiter waiter = current.get();
+        
+        if (waiter == null) {
+            
+            waiter = new Waiter(Thread.currentThread());
+            current.set(waiter);
+            
+            synchronized (this) {
+                
+                Waiter[] grown = Arrays.copyOf(waiters, waiters.length + 1);
+                grown[grown.length - 1] = waiter;
+                waiters = grown;
+            }
+        }
+        
+        return waiter;
+    }
+}
@@ -0,0 +1,157 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Гистограмма задержек без блокировок и без создания объектов при записи.
+ * Значения хранятся в микросекундах в логарифмических корзинах: каждая
+ * степень двойки делится на 8 равных частей, поэтому погрешность процентилей
+ * не больше 12.5%. Диапазон - от 1 мкс до нескольких часов.
+ * @author sergeychaika
+ */
+public class LatencyHistogram {
+    
+    /**
+     * Сколько младших битов значения определяют корзину внутри степени
+     * двойки.
+     */
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+    
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+    private final AtomicLong maxMicros = new AtomicLong();
+    
+    /**
+     * Записывает одно значение.
+     * @param nanos задержка в наносекундах
+     */
+    public void record(long nanos) {
+        
+        long micros = Math.max(0, nanos / 1000);
+        
+        buckets.incrementAndGet(indexOf(micros));
+        count.increment();
+        sumMicros.add(micros);
+        
+        long max;
+        
+        while (micros > (max = maxMicros.get())
+                && !maxMicros.compareAndSet(max, micros)) {
+            
+            /**
+             * Другой поток успел записать новый максимум - проверяем ещё раз.
+             */
+        }
+    }
+    
+    public long getCount() {
+        
+        return count.sum();
+    }
+    
+    /**
+     * @return среднее значение в миллисекундах
+     */
+    public double getMeanMillis() {
+        
+        long total = count.sum();
+        return total == 0 ? 0.0 : sumMicros.sum() / 1000.0 / total;
+    }
+    
+    /**
+     * @return максимальное значение в миллисекундах
+     */
+    public double getMaxMillis() {
+        
+        return maxMicros.get() / 1000.0;
+    }
+    
+    /**
+     * Процентиль по корзинам: верхняя граница корзины, в которую попадает
+     * заданная доля значений.
+     * @param fraction доля от 0 до 1, например 0.99
+     * @return значение в миллисекундах
+     */
+    public double getPercentileMillis(double fraction) {
+        
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        
+        for (int index = 0; index < BUCKETS; ++index) {
+            
+            snapshot[index] = buckets.get(index);
+            total += snapshot[index];
+        }
+        
+        if (total == 0) {
+            
+            return 0.0;
+        }
+        
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        
+        for (int index = 0; index < BUCKETS; ++index) {
+            
+            seen += snapshot[index];
+            
+            if (seen >= rank) {
+                
+                return Math.min(upperBound(index), maxMicros.get()) / 1000.0;
+            }
+        }
+        
+        return getMaxMillis();
+    }
+    
+    /**
+     * Строка вида "dns: 120, p50 1.2 мс, p90 3.5 мс, p99 8.0 мс,
+     * max 15.3 мс".
+     * @param name название стадии
+     * @return строка для вывода
+     */
+    public String summary(String name) {
+        
+        return String.format("%s: %d, p50 %.1f мс, p90 %.1f мс, p99 %.1f мс, "
+                + "max %.1f мс", name, getCount(), getPercentileMillis(0.5),
+                getPercentileMillis(0.9), getPercentileMillis(0.99),
+                getMaxMillis());
+    }
+    
+    /**
+     * Номер корзины: значения меньше 8 лежат каждое в своей корзине, дальше
+     * корзина определяется старшим битом и тремя следующими за ним.
+     */
+    static int indexOf(long micros) {
+        
+        if (micros < SUB_BUCKETS) {
+            
+            return (int) micros;
+        }
+        
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+    
+    /**
+     * Наибольшее значение, попадающее в корзину.
+     */
+    static long upperBound(int index) {
+        
+        if (index < SUB_BUCKETS) {
+            
+            return index;
+        }
+        
+        int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = index % SUB_BUCKETS;
+        long lower = (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+        
+        return lower + (1L << (exponent - SUB_BITS)) - 1;
+    }
+}
@@ -0,0 +1,161 @@
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Тело страницы с ограничением по размеру и по времени. Когда прочитано
+ * больше байтов, чем разрешено, или время вышло, поток сообщает о конце
+ * тела, и разбор заканчивается на уже прочитанной части. Остаток тела не
+ * читается: соединение либо дочитывается в пределах небольшого лимита,
+ * либо закрывается.
+ * @author sergeychaika
+ */
+public class LimitedInputStream extends FilterInputStream {
+    
+    private final long maxBytes;
+    private final long deadline;
+    
+    /**
+     * Тело уже обрезано загрузчиком, и неожиданный конец данных - это конец
+     * прочитанной части, а не ошибка.
+     */
+    private final boolean truncatedSource;
+    
+    private long count;
+    private boolean sizeExceeded;
+    private boolean timeExceeded;
+    
+    /**
+     * @param in тело страницы
+     * @param limit сколько байтов можно прочитать
+     * @param due до какого момента (System.nanoTime) можно читать
+     * @param truncated тело уже обрезано загрузчиком
+     */
+    public LimitedInputStream(InputStream in, long limit, long due,
+            boolean truncated) {
+        
+        super(in);
+        maxBytes = limit;
+        deadline = due;
+        truncatedSource = truncated;
+    }
+    
+    @Override
+    public int read() throws IOException {
+        
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+    
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        
+        if (isCut()) {
+            
+            return -1;
+        }
+        
+        /**
+         * Обрезанное загрузчиком тело уже в памяти, время его загрузки
+         * ограничил загрузчик.
+         */
+        if (!truncatedSource && System.nanoTime() - deadline > 0) {
+            
+            timeExceeded = true;
+            return -1;
+        }
+        
+        try {
+            
+            /**
+             * Тело длиной ровно в лимит не считается обрезанным.
+             */
+            if (count >= maxBytes) {
+                
+                sizeExceeded = in.read() >= 0;
+                return -1;
+            }
+            
+            int read = in.read(buffer, offset,
+                    (int) Math.min(length, maxBytes - count));
+            
+            if (read > 0) {
+                
+                count += read;
+            }
+            
+            return read;
+        }
+        
+        catch (EOFException e) {
+            
+            if (!truncatedSource) {
+                
+                throw e;
+            }
+            
+            /**
+             * Загрузчик обрезает тело по времени, только когда оно вышло.
+             */
+            if (System.nanoTime() - deadline > 0) {
+                
+                timeExceeded = true;
+            }
+            
+            else {
+                
+                sizeExceeded = true;
+            }
+            
+            return -1;
+        }
+    }
+    
+    /**
+     * Пропуск не поддерживается, чтобы ограничение нельзя было обойти.
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        
+        return 0;
+    }
+    
+    @Override
+    public boolean markSupported() {
+        
+        return false;
+    }
+    
+    /**
+     * @return true, если чтение остановлено по размеру или времени
+     */
+    public boolean isCut() {
+        
+        return sizeExceeded || timeExceeded;
+    }
+    
+    /**
+     * @return true, если чтение остановлено по размеру
+     */
+    public boolean isSizeExceeded() {
+        
+        return sizeExceeded;
+    }
+    
+    /**
+     * @return true, если чтение остановлено по времени
+     */
+    public boolean isTimeExceeded() {
+        
+        return timeExceeded;
+    }
+    
+    /**
+     * @return сколько байтов прочитано
+     */
+    public long getCount() {
+        
+        return count;
+    }
+}
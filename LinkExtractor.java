@@ -0,0 +1,956 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Потоковый поиск ссылок в HTML. Байты страницы разбираются конечным
+ * автоматом по мере поступления, буфер за буфером, без построчных строк.
+ * Находит атрибуты href и src в любых кавычках и без них, учитывает тег
+ * base и объявленную кодировку, относительные ссылки переводит в абсолютные.
+ * Попутно может считать SimHash видимого текста страницы для поиска почти
+ * одинаковых страниц.
+ * @author sergeychaika
+ */
+public class LinkExtractor {
+    
+    /**
+     * Состояния автомата.
+     */
+    private static final int TEXT = 0;
+    private static final int TAG_OPEN = 1;
+    private static final int TAG_NAME = 2;
+    private static final int IN_TAG = 3;
+    private static final int ATTR_NAME = 4;
+    private static final int AFTER_ATTR_NAME = 5;
+    private static final int BEFORE_VALUE = 6;
+    private static final int VALUE_DOUBLE = 7;
+    private static final int VALUE_SINGLE = 8;
+    private static final int VALUE_UNQUOTED = 9;
+    private static final int MARKUP = 10;
+    private static final int COMMENT = 11;
+    private static final int RAW_TEXT = 12;
+    private static final int END_TAG = 13;
+    
+    /**
+     * Интересные теги и атрибуты.
+     */
+    private static final int TAG_OTHER = 0;
+    private static final int TAG_LINK = 1;
+    private static final int TAG_BASE = 2;
+    private static final int TAG_META = 3;
+    private static final int TAG_SCRIPT = 4;
+    private static final int TAG_STYLE = 5;
+    
+    private static final int ATTR_OTHER = 0;
+    private static final int ATTR_HREF = 1;
+    private static final int ATTR_SRC = 2;
+    private static final int ATTR_CHARSET = 3;
+    private static final int ATTR_CONTENT = 4;
+    
+    /**
+     * Закрывающие теги, до которых пропускается содержимое script и style.
+     */
+    private static final byte[] SCRIPT_END = "/script".getBytes(
+            StandardCharsets.US_ASCII);
+    private static final byte[] STYLE_END = "/style".getBytes(
+            StandardCharsets.US_ASCII);
+    
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    
+    /**
+     * Максимальная длина имени тега или атрибута, которую стоит запоминать.
+     */
+    private static final int NAME_LIMIT = 16;
+    
+    /**
+     * Максимальная длина значения атрибута.
+     */
+    private static final int VALUE_LIMIT = 8 * 1024;
+    
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    
+    private final List<String> links = new ArrayList<>();
+    
+    /**
+     * Время чтения потока и разбора в extract.
+     */
+    private long readNanos;
+    private long parseNanos;
+    
+    private URL base;
+    private Charset charset;
+    
+    /**
+     * Кодировка указана в заголовке ответа и мета-теги её не меняют.
+     */
+    private final boolean charsetFixed;
+    
+    private int state = TEXT;
+    
+    private final byte[] name = new byte[NAME_LIMIT];
+    private int nameLength;
+    private int tag;
+    private int attribute;
+    
+    private byte[] value = new byte[256];
+    private int valueLength;
+    
+    /**
+     * Счётчики для поиска концов комментария и тегов script/style.
+     */
+    private int dashes;
+    private int rawTag;
+    private int rawMatched;
+    
+    /**
+     * SimHash текста: признаки - пары соседних слов, для каждого бита
+     * хранится сумма голосов признаков. Считается, только если включён.
+     */
+    private final int[] weights;
+    private long word = FNV_OFFSET;
+    private int wordLength;
+    private long previousWord;
+    private boolean hasPreviousWord;
+    private int features;
+    
+    /**
+     * @param pageURL адрес страницы, относительно которого разрешаются
+     * ссылки
+     * @param declared кодировка из заголовка Content-Type или null
+     */
+    public LinkExtractor(String pageURL, Charset declared) {
+        
+        this(pageURL, declared, false);
+    }
+    
+    /**
+     * @param pageURL адрес страницы, относительно которого разрешаются
+     * ссылки
+     * @param declared кодировка из заголовка Content-Type или null
+     * @param fingerprint считать ли SimHash текста страницы
+     */
+    public LinkExtractor(String pageURL, Charset declared,
+            boolean fingerprint) {
+        
+        weights = fingerprint ? new int[64] : null;
+        
+        try {
+            
+            base = new URL(pageURL);
+        }
+        
+        catch (MalformedURLException e) {
+            
+            base = null;
+        }
+        
+        charsetFixed = declared != null;
+        charset = declared != null ? declared : StandardCharsets.UTF_8;
+    }
+    
+    /**
+     * Читает поток до конца и разбирает его.
+     * @param in поток тела страницы
+     * @return найденные ссылки
+     * @throws IOException ошибка чтения
+     */
+    public List<String> extract(InputStream in) throws IOException {
+        
+        byte[] buffer = new byte[16 * 1024];
+        int count;
+        long start = System.nanoTime();
+        
+        while ((count = in.read(buffer, 0, buffer.length)) >= 0) {
+            
+            long read = System.nanoTime();
+            readNanos += read - start;
+            
+            feed(buffer, 0, count);
+            
+            start = System.nanoTime();
+            parseNanos += start - read;
+        }
+        
+        readNanos += System.nanoTime() - start;
+        
+        return links;
+    }
+    
+    /**
+     * @return сколько времени extract ждал данные из потока, в наносекундах
+     */
+    public long getReadNanos() {
+        
+        return readNanos;
+    }
+    
+    /**
+     * @return сколько времени extract искал ссылки, в наносекундах
+     */
+    public long getParseNanos() {
+        
+        return parseNanos;
+    }
+    
+    /**
+     * SimHash видимого текста: бит равен 1, если за него проголосовало
+     * больше признаков, чем против. У похожих страниц отпечатки отличаются
+     * в немногих битах.
+     * @return отпечаток или 0, если отпечаток не считался
+     */
+    public long getSimHash() {
+        
+        if (weights == null) {
+            
+            return 0;
+        }
+        
+        endWord();
+        
+        long simHash = 0;
+        
+        for (int bit = 0; bit < 64; ++bit) {
+            
+            if (weights[bit] > 0) {
+                
+                simHash |= 1L << bit;
+            }
+        }
+        
+        return simHash;
+    }
+    
+    /**
+     * @return из скольких пар слов составлен SimHash
+     */
+    public int getFeatureCount() {
+        
+        return features;
+    }
+    
+    /**
+     * @return ссылки, найденные к этому моменту
+     */
+    public List<String> getLinks() {
+        
+        return links;
+    }
+    
+    /**
+     * Разбирает очередную порцию байтов страницы.
+     * @param buffer буфер
+     * @param offset начало данных
+     * @param length длина данных
+     */
+    public void feed(byte[] buffer, int offset, int length) {
+        
+        int end = offset + length;
+        
+        for (int index = offset; index < end; ++index) {
+            
+            int b = buffer[index] & 0xff;
+            
+            switch (state) {
+                
+                case TEXT:
+                    
+                    if (b == '<') {
+                        
+                        state = TAG_OPEN;
+                        
+                        if (weights != null) {
+                            
+                            endWord();
+                        }
+                    }
+                    
+                    else if (weights != null) {
+                        
+                        textByte(b);
+                    }
+                    
+                    break;
+                
+                case TAG_OPEN:
+                    
+                    if (b == '!') {
+                        
+                        state = MARKUP;
+                        dashes = 0;
+                    }
+                    
+                    else if (isLetter(b)) {
+                        
+                        nameLength = 0;
+                        appendName(b);
+                        state = TAG_NAME;
+                    }
+                    
+                    else {
+                        
+                        state = b == '<' ? TAG_OPEN : TEXT;
+                    }
+                    
+                    break;
+                
+                case TAG_NAME:
+                    
+                    if (isSpace(b) || b == '/') {
+                        
+                        tag = tagOf();
+                        state = IN_TAG;
+                    }
+                    
+                    else if (b == '>') {
+                        
+                        tag = tagOf();
+                        closeTag();
+                    }
+                    
+                    else {
+                        
+                        appendName(b);
+                    }
+                    
+                    break;
+                
+                case IN_TAG:
+                    
+                    if (b == '>') {
+                        
+                        closeTag();
+                    }
+                    
+                    else if (!isSpace(b) && b != '/') {
+                        
+                        nameLength = 0;
+                        appendName(b);
+                        state = ATTR_NAME;
+                    }
+                    
+                    break;
+                
+                case ATTR_NAME:
+                    
+                    if (b == '=') {
+                        
+                        attribute = attributeOf();
+                        state = BEFORE_VALUE;
+                    }
+                    
+                    else if (isSpace(b)) {
+                        
+                        state = AFTER_ATTR_NAME;
+                    }
+                    
+                    else if (b == '>') {
+                        
+                        closeTag();
+                    }
+                    
+                    else {
+                        
+                        appendName(b);
+                    }
+                    
+                    break;
+                
+                case AFTER_ATTR_NAME:
+                    
+                    if (b == '=') {
+                        
+                        attribute = attributeOf();
+                        state = BEFORE_VALUE;
+                    }
+                    
+                    else if (b == '>') {
+                        
+                        closeTag();
+                    }
+                    
+                    else if (!isSpace(b)) {
+                        
+                        /**
+                         * Атрибут без значения, начинается следующий.
+                         */
+                        nameLength = 0;
+                        appendName(b);
+                        state = ATTR_NAME;
+                    }
+                    
+                    break;
+                
+                case BEFORE_VALUE:
+                    
+                    valueLength = 0;
+                    
+                    if (b == '"') {
+                        
+                        state = VALUE_DOUBLE;
+                    }
+                    
+                    else if (b == '\'') {
+                        
+                        state = VALUE_SINGLE;
+                    }
+                    
+                    else if (b == '>') {
+                        
+                        closeTag();
+                    }
+                    
+                    else if (!isSpace(b)) {
+                        
+                        appendValue(b);
+                        state = VALUE_UNQUOTED;
+                    }
+                    
+                    break;
+                
+                case VALUE_DOUBLE:
+                case VALUE_SINGLE:
+                    
+                    if (b == (state == VALUE_DOUBLE ? '"' : '\'')) {
+                        
+                        attributeValue();
+                        state = IN_TAG;
+                    }
+                    
+                    else {
+                        
+                        appendValue(b);
+                    }
+                    
+                    break;
+                
+                case VALUE_UNQUOTED:
+                    
+                    if (isSpace(b)) {
+                        
+                        attributeValue();
+                        state = IN_TAG;
+                    }
+                    
+                    else if (b == '>') {
+                        
+                        attributeValue();
+                        closeTag();
+                    }
+                    
+                    else {
+                        
+                        appendValue(b);
+                    }
+                    
+                    break;
+                
+                case MARKUP:
+                    
+                    /**
+                     * <!-- начинает комментарий, остальное (<!DOCTYPE>)
+                     * пропускается до '>'.
+                     */
+                    if (b == '-') {
+                        
+                        if (++dashes == 2) {
+                            
+                            dashes = 0;
+                            state = COMMENT;
+                        }
+                    }
+                    
+                    else if (b == '>') {
+                        
+                        state = TEXT;
+                    }
+                    
+                    else {
+                        
+                        dashes = 0;
+                    }
+                    
+                    break;
+                
+                case COMMENT:
+                    
+                    if (b == '-') {
+                        
+                        ++dashes;
+                    }
+                    
+                    else if (b == '>' && dashes >= 2) {
+                        
+                        state = TEXT;
+                    }
+                    
+                    else {
+                        
+                        dashes = 0;
+                    }
+                    
+                    break;
+                
+                case RAW_TEXT:
+                    
+                    /**
+                     * Внутри script и style ищем только закрывающий тег.
+                     */
+                    if (b == '<') {
+                        
+                        rawMatched = 0;
+                        state = END_TAG;
+                    }
+                    
+                    break;
+                
+                case END_TAG:
+                    
+                    byte[] closing = rawTag == TAG_SCRIPT ? SCRIPT_END
+                            : STYLE_END;
+                    
+                    if (rawMatched < closing.length
+                            && lower(b) == closing[rawMatched]) {
+                        
+                        ++rawMatched;
+                    }
+                    
+                    else if (rawMatched == closing.length
+                            && (b == '>' || isSpace(b))) {
+                        
+                        state = b == '>' ? TEXT : IN_TAG;
+                        tag = TAG_OTHER;
+                    }
+                    
+                    else {
+                        
+                        state = b == '<' ? END_TAG : RAW_TEXT;
+                        rawMatched = 0;
+                    }
+                    
+                    break;
+                
+                default:
+                    
+                    state = TEXT;
+            }
+        }
+    }
+    
+    /**
+     * Конец открывающего тега.
+     */
+    private void closeTag() {
+        
+        if (tag == TAG_SCRIPT || tag == TAG_STYLE) {
+            
+            rawTag = tag;
+            state = RAW_TEXT;
+        }
+        
+        else {
+            
+            state = TEXT;
+        }
+    }
+    
+    /**
+     * Обработка значения атрибута интересного тега.
+     */
+    private void attributeValue() {
+        
+        if (attribute == ATTR_OTHER || valueLength == 0
+                || valueLength > VALUE_LIMIT) {
+            
+            return;
+        }
+        
+        if (tag == TAG_META) {
+            
+            if (attribute == ATTR_CHARSET) {
+                
+                switchCharset(decode());
+            }
+            
+            else if (attribute == ATTR_CONTENT) {
+                
+                String content = decode();
+                int position = content.toLowerCase(Locale.ROOT)
+                        .indexOf("charset=");
+                
+                if (position >= 0) {
+                    
+                    switchCharset(content.substring(position + 8));
+                }
+            }
+            
+            return;
+        }
+        
+        if (attribute != ATTR_HREF && attribute != ATTR_SRC) {
+            
+            return;
+        }
+        
+        if (tag == TAG_BASE) {
+            
+            if (attribute == ATTR_HREF) {
+                
+                URL resolved = resolve(decode());
+                
+                if (resolved != null) {
+                    
+                    base = resolved;
+                }
+            }
+            
+            return;
+        }
+        
+        if (tag == TAG_LINK || tag == TAG_SCRIPT) {
+            
+            URL resolved = resolve(decode());
+            
+            if (resolved != null) {
+                
+                String protocol = resolved.getProtocol();
+                
+                if (protocol.equals("http") || protocol.equals("https")) {
+                    
+                    String link = resolved.toString();
+                    int fragment = link.indexOf('#');
+                    
+                    links.add(escape(fragment < 0 ? link
+                            : link.substring(0, fragment)));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Разрешает ссылку относительно текущей базы.
+     */
+    private URL resolve(String link) {
+        
+        link = link.trim();
+        
+        if (link.isEmpty() || link.charAt(0) == '#') {
+            
+            return null;
+        }
+        
+        if (link.indexOf('&') >= 0) {
+            
+            link = link.replace("&amp;", "&");
+        }
+        
+        try {
+            
+            return base == null ? new URL(link) : new URL(base, link);
+        }
+        
+        catch (MalformedURLException e) {
+            
+            return null;
+        }
+    }
+    
+    /**
+     * Кодирует пробелы и не-ASCII символы (%XX в UTF-8), чтобы ссылку можно
+     * было подставить в строку запроса.
+     */
+    private static String escape(String link) {
+        
+        int index = 0;
+        
+        while (index < link.length() && link.charAt(index) > ' '
+                && link.charAt(index) < 0x7f) {
+            
+            ++index;
+        }
+        
+        if (index == link.length()) {
+            
+            return link;
+        }
+        
+        StringBuilder escaped = new StringBuilder(link.length() + 16);
+        escaped.append(link, 0, index);
+        
+        for (byte b : link.substring(index).getBytes(StandardCharsets.UTF_8)) {
+            
+            int c = b & 0xff;
+            
+            if (c > ' ' && c < 0x7f) {
+                
+                escaped.append((char) c);
+            }
+            
+            else {
+                
+                escaped.append('%').append(HEX[c >> 4]).append(HEX[c & 0xf]);
+            }
+        }
+        
+        return escaped.toString();
+    }
+    
+    /**
+     * Переключение на кодировку из мета-тега, если она совместима с ASCII
+     * (иначе разметка уже разбирается неверно и переключаться поздно).
+     */
+    private void switchCharset(String name) {
+        
+        if (charsetFixed) {
+            
+            return;
+        }
+        
+        Charset declared = charsetOf(name.trim(), null);
+        
+        if (declared != null && declared.newEncoder().canEncode('<')
+                && "<".getBytes(declared).length == 1) {
+            
+            charset = declared;
+        }
+    }
+    
+    /**
+     * Кодировка из значения заголовка Content-Type.
+     * @param contentType значение вида "text/html; charset=windows-1251" или
+     * просто имя кодировки
+     * @param fallback кодировка по умолчанию
+     * @return найденная кодировка или fallback
+     */
+    public static Charset charsetOf(String contentType, Charset fallback) {
+        
+        if (contentType == null) {
+            
+            return fallback;
+        }
+        
+        String name = contentType;
+        int position = contentType.toLowerCase(Locale.ROOT)
+                .indexOf("charset=");
+        
+        if (position >= 0) {
+            
+            name = contentType.substring(position + 8);
+        }
+        
+        else if (contentType.indexOf('/') >= 0) {
+            
+            return fallback;
+        }
+        
+        int end = 0;
+        
+        while (end < name.length() && name.charAt(end) != ';'
+                && !Character.isWhitespace(name.charAt(end))) {
+            
+            ++end;
+        }
+        
+        name = name.substring(0, end).replace("\"", "").replace("'", "");
+        
+        try {
+            
+            return Charset.forName(name);
+        }
+        
+        catch (IllegalArgumentException e) {
+            
+            return fallback;
+        }
+    }
+    
+    private String decode() {
+        
+        return new String(value, 0, Math.min(valueLength, VALUE_LIMIT),
+                charset);
+    }
+    
+    private void appendName(int b) {
+        
+        if (nameLength < NAME_LIMIT) {
+            
+            name[nameLength] = (byte) lower(b);
+        }
+        
+        ++nameLength;
+    }
+    
+    private void appendValue(int b) {
+        
+        if (attribute == ATTR_OTHER) {
+            
+            return;
+        }
+        
+        if (valueLength == value.length && valueLength < VALUE_LIMIT) {
+            
+            byte[] larger = new byte[Math.min(value.length * 2, VALUE_LIMIT)];
+            System.arraycopy(value, 0, larger, 0, valueLength);
+            value = larger;
+        }
+        
+        if (valueLength < value.length) {
+            
+            value[valueLength] = (byte) b;
+        }
+        
+        ++valueLength;
+    }
+    
+    /**
+     * Определяет тег по имени, не создавая строк.
+     */
+    private int tagOf() {
+        
+        if (nameEquals("a") || nameEquals("area") || nameEquals("link")
+                || nameEquals("img") || nameEquals("iframe")
+                || nameEquals("frame") || nameEquals("source")
+                || nameEquals("embed")) {
+            
+            return TAG_LINK;
+        }
+        
+        if (nameEquals("script")) {
+            
+            return TAG_SCRIPT;
+        }
+        
+        if (nameEquals("style")) {
+            
+            return TAG_STYLE;
+        }
+        
+        if (nameEquals("base")) {
+            
+            return TAG_BASE;
+        }
+        
+        if (nameEquals("meta")) {
+            
+            return TAG_META;
+        }
+        
+        return TAG_OTHER;
+    }
+    
+    private int attributeOf() {
+        
+        if (tag == TAG_OTHER || tag == TAG_STYLE) {
+            
+            return ATTR_OTHER;
+        }
+        
+        if (nameEquals("href")) {
+            
+            return ATTR_HREF;
+        }
+        
+        if (nameEquals("src")) {
+            
+            return ATTR_SRC;
+        }
+        
+        if (tag == TAG_META && nameEquals("charset")) {
+            
+            return ATTR_CHARSET;
+        }
+        
+        if (tag == TAG_META && nameEquals("content")) {
+            
+            return ATTR_CONTENT;
+        }
+        
+        return ATTR_OTHER;
+    }
+    
+    private boolean nameEquals(String expected) {
+        
+        if (nameLength != expected.length()) {
+            
+            return false;
+        }
+        
+        for (int index = 0; index < nameLength; ++index) {
+            
+            if (name[index] != expected.charAt(index)) {
+                
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    private static int lower(int b) {
+        
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+    }
+    
+    /**
+     * Очередной байт текста: буквы и цифры (и все байты многобайтовых
+     * символов UTF-8) составляют слово, остальное его заканчивает.
+     */
+    private void textByte(int b) {
+        
+        if (b >= 0x80 || isLetter(b) || (b >= '0' && b <= '9')) {
+            
+            word = (word ^ lower(b)) * FNV_PRIME;
+            ++wordLength;
+        }
+        
+        else {
+            
+            endWord();
+        }
+    }
+    
+    /**
+     * Заканчивает слово и добавляет признак - пару из него и предыдущего
+     * слова.
+     */
+    private void endWord() {
+        
+        if (wordLength == 0) {
+            
+            return;
+        }
+        
+        if (hasPreviousWord) {
+            
+            long feature = URLFingerprint.mix(previousWord * 31 + word);
+            
+            for (int bit = 0; bit < 64; ++bit) {
+                
+                weights[bit] += (int) (feature >>> bit & 1) * 2 - 1;
+            }
+            
+            ++features;
+        }
+        
+        previousWord = word;
+        hasPreviousWord = true;
+        word = FNV_OFFSET;
+        wordLength = 0;
+    }
+    
+    private static boolean isLetter(int b) {
+        
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+    }
+    
+    private static boolean isSpace(int b) {
+        
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+    }
+}
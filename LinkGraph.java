@@ -0,0 +1,232 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Граф ссылок, найденных при обходе: какая страница на какую ссылается.
+ * Каждый URL получает номер при первой встрече: номер ищется по 64-битному
+ * отпечатку URL в открытой хеш-таблице из массивов long и int, а сам URL
+ * сразу дописывается строкой в файл номеров (номер - это номер строки,
+ * считая с нуля) и в памяти не хранится. Рёбра копятся парами номеров в
+ * одном растущем массиве int, поэтому на ребро приходится 8 байтов и ни
+ * одного объекта.
+ *
+ * В конце обхода рёбра превращаются в CsrGraph и записываются в файл
+ * графа; номера URL лежат рядом в файле с суффиксом ".urls".
+ * @author sergeychaika
+ */
+public class LinkGraph implements Closeable {
+    
+    /**
+     * Наибольшая длина массива рёбер (чётная): больше рёбер не
+     * записывается.
+     */
+    private static final int MAX_EDGE_INTS = Integer.MAX_VALUE - 9;
+    
+    private final Path file;
+    private final Path urlsFile;
+    private final BufferedWriter urls;
+    
+    /**
+     * Отпечатки URL (0 - свободная ячейка) и их номера.
+     */
+    private long[] keys = new long[1 << 16];
+    private int[] ids = new int[1 << 16];
+    private int nodes;
+    
+    /**
+     * Рёбра парами (начало, конец).
+     */
+    private int[] edges = new int[1 << 16];
+    private int edgeInts;
+    private long dropped;
+    
+    /**
+     * @param graphFile файл, в который будет записан граф
+     * @throws IOException не удалось создать файл номеров URL
+     */
+    public LinkGraph(Path graphFile) throws IOException {
+        
+        file = graphFile;
+        urlsFile = urlsOf(graphFile);
+        urls = Files.newBufferedWriter(urlsFile, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * @param graphFile файл графа
+     * @return файл номеров URL для графа
+     */
+    public static Path urlsOf(Path graphFile) {
+        
+        return Paths.get(graphFile.toString() + ".urls");
+    }
+    
+    /**
+     * Записывает ссылки страницы.
+     * @param from URL страницы
+     * @param links абсолютные URL ссылок
+     */
+    public synchronized void record(String from, Collection<String> links) {
+        
+        if (links.isEmpty()) {
+            
+            return;
+        }
+        
+        try {
+            
+            int source = idOf(from);
+            
+            for (String link : links) {
+                
+                if (edgeInts == edges.length && !grow()) {
+                    
+                    ++dropped;
+                    continue;
+                }
+                
+                edges[edgeInts++] = source;
+                edges[edgeInts++] = idOf(link);
+            }
+        }
+        
+        catch (IOException e) {
+            
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    /**
+     * Строит граф, записывает его в файл и закрывает файл номеров URL.
+     * @return построенный граф
+     * @throws IOException ошибка записи
+     */
+    public synchronized CsrGraph save() throws IOException {
+        
+        urls.close();
+        CsrGraph graph = CsrGraph.fromEdges(nodes, edges, edgeInts / 2,
+                ForkJoinPool.commonPool());
+        graph.write(file);
+        return graph;
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        
+        urls.close();
+    }
+    
+    /**
+     * @return файл графа
+     */
+    public Path getFile() {
+        
+        return file;
+    }
+    
+    /**
+     * @return файл номеров URL
+     */
+    public Path getURLsFile() {
+        
+        return urlsFile;
+    }
+    
+    @Override
+    public synchronized String toString() {
+        
+        return String.format("Граф ссылок: URL %d, ссылок %d, не записано "
+                + "%d, файл %s", nodes, edgeInts / 2, dropped, file);
+    }
+    
+    /**
+     * Номер URL; новый URL получает следующий номер.
+     */
+    private int idOf(String URL) throws IOException {
+        
+        long key = URLFingerprint.of(URL);
+        
+        if (key == 0) {
+            
+            key = 1;
+        }
+        
+        int mask = keys.length - 1;
+        int slot = (int) key & mask;
+        
+        while (keys[slot] != 0) {
+            
+            if (keys[slot] == key) {
+                
+                return ids[slot];
+            }
+            
+            slot = (slot + 1) & mask;
+        }
+        
+        keys[slot] = key;
+        ids[slot] = nodes;
+        urls.write(URL);
+        urls.write('\n');
+        
+        /**
+         * Таблица заполнена не больше чем наполовину.
+         */
+        if (++nodes > keys.length / 2) {
+            
+            rehash();
+        }
+        
+        return nodes - 1;
+    }
+    
+    private void rehash() {
+        
+        long[] oldKeys = keys;
+        int[] oldIds = ids;
+        keys = new long[oldKeys.length * 2];
+        ids = new int[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        
+        for (int index = 0; index < oldKeys.length; ++index) {
+            
+            if (oldKeys[index] != 0) {
+                
+                int slot = (int) oldKeys[index] & mask;
+                
+                while (keys[slot] != 0) {
+                    
+                    slot = (slot + 1) & mask;
+                }
+                
+                keys[slot] = oldKeys[index];
+                ids[slot] = oldIds[index];
+            }
+        }
+    }
+    
+    /**
+     * Увеличивает массив рёбер в полтора раза.
+     * @return false, если массив уже наибольшей длины
+     */
+    private boolean grow() {
+        
+        if (edges.length >= MAX_EDGE_INTS) {
+            
+            return false;
+        }
+        
+        long length = Math.min(MAX_EDGE_INTS, edges.length
+                + (long) edges.length / 2);
+        edges = Arrays.copyOf(edges, (int) length & ~1);
+        return true;
+    }
+}
@@ -0,0 +1,64 @@
+import java.io.OutputStream;
+
+/**
+ * Вывод результатов в формате NDJSON: по одному объекту JSON на строку с
+ * глубиной, URL, кодом ответа, размером тела и временем загрузки, например
+ * {"depth":1,"url":"http://site/","status":200,"bytes":5120,
+ * "latency_ms":12.5}. Код 0 означает, что страница не загружалась (пара на
+ * максимальной глубине), -1 - что загрузка не удалась.
+ * @author sergeychaika
+ */
+public class NdjsonResultSink extends StreamResultSink {
+    
+    /**
+     * @param stream поток для записи
+     * @param close закрывать ли поток вместе с получателем
+     */
+    public NdjsonResultSink(OutputStream stream, boolean close) {
+        
+        super(stream, close);
+    }
+    
+    @Override
+    protected void format(FetchResult result, StringBuilder to) {
+        
+        to.append("{\"depth\":").append(result.getDepthPair().getDepth())
+                .append(",\"url\":");
+        appendString(result.getDepthPair().getURL(), to);
+        to.append(",\"status\":").append(result.getStatusCode())
+                .append(",\"bytes\":").append(result.getBytes())
+                .append(",\"latency_ms\":")
+                .append(Math.round(result.getLatencyMillis() * 1000) / 1000.0)
+                .append('}');
+    }
+    
+    /**
+     * Строка JSON в кавычках с экранированием.
+     */
+    private static void appendString(String value, StringBuilder to) {
+        
+        to.append('"');
+        
+        for (int i = 0; i < value.length(); ++i) {
+            
+            char c = value.charAt(i);
+            
+            if (c == '"' || c == '\\') {
+                
+                to.append('\\').append(c);
+            }
+            
+            else if (c < 0x20) {
+                
+                to.append(String.format("\\u%04x", (int) c));
+            }
+            
+            else {
+                
+                to.append(c);
+            }
+        }
+        
+        to.append('"');
+    }
+}
@@ -0,0 +1,211 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Индекс отпечатков SimHash для поиска почти одинаковых страниц: зеркал,
+ * вариантов с идентификатором сессии, версий для печати. Страница считается
+ * почти копией, если её отпечаток отличается от уже известного не больше чем
+ * в distance битах; ссылки такой страницы не добавляются в очередь.
+ *
+ * 64 бита отпечатка делятся на distance + 1 полос. Если два отпечатка
+ * отличаются не больше чем в distance битах, хотя бы одна полоса у них
+ * совпадает целиком, поэтому достаточно сравнить отпечаток только с теми,
+ * что лежат в тех же корзинах по значениям его полос. Корзины - массивы
+ * long без объектов-обёрток, на отпечаток приходится по 8 байт в каждой
+ * полосе.
+ * @author sergeychaika
+ */
+public class NearDuplicateIndex {
+    
+    /**
+     * Количество корзин в каждой полосе.
+     */
+    private static final int BUCKET_BITS = 16;
+    private static final int BUCKETS = 1 << BUCKET_BITS;
+    
+    /**
+     * Страницы, в тексте которых меньше пар слов, не сравниваются: у
+     * коротких страниц отпечатки случайно совпадают слишком часто.
+     */
+    private static final int MIN_FEATURES = 16;
+    
+    private final int distance;
+    private final int[] bandShift;
+    private final long[] bandMask;
+    
+    /**
+     * Корзины полос и количество отпечатков в каждой.
+     */
+    private final long[][][] buckets;
+    private final int[][] sizes;
+    private long count;
+    
+    /**
+     * Множество просмотренных URL: по нему считается, сколько ссылок
+     * почти копий так и не пришлось загружать.
+     */
+    private final VisitedSet visited;
+    
+    /**
+     * Статистика.
+     */
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder skippedLinks = new LongAdder();
+    private final LongAdder savedFetches = new LongAdder();
+    
+    /**
+     * @param maxDistance наибольшее расстояние Хэмминга между отпечатками
+     * почти одинаковых страниц, от 0 до 7
+     * @param visitedSet множество просмотренных URL
+     */
+    public NearDuplicateIndex(int maxDistance, VisitedSet visitedSet) {
+        
+        if (maxDistance < 0 || maxDistance > 7) {
+            
+            throw new IllegalArgumentException("Расстояние для поиска почти "
+                    + "одинаковых страниц должно быть от 0 до 7");
+        }
+        
+        distance = maxDistance;
+        visited = visitedSet;
+        
+        int bands = maxDistance + 1;
+        
+        bandShift = new int[bands];
+        bandMask = new long[bands];
+        buckets = new long[bands][BUCKETS][];
+        sizes = new int[bands][BUCKETS];
+        
+        /**
+         * Полосы почти равной ширины, первые на бит шире.
+         */
+        for (int band = 0, shift = 0; band < bands; ++band) {
+            
+            int width = 64 / bands + (band < 64 % bands ? 1 : 0);
+            
+            bandShift[band] = shift;
+            bandMask[band] = width == 64 ? -1L : (1L << width) - 1;
+            shift += width;
+        }
+    }
+    
+    /**
+     * Проверяет загруженную страницу. Отпечаток новой страницы добавляется
+     * в индекс; у почти копии учитываются ссылки, которые не попадут в
+     * очередь.
+     * @param simHash отпечаток текста страницы
+     * @param featureCount из скольких признаков составлен отпечаток
+     * @param links ссылки страницы
+     * @return true, если страница почти копия уже известной и её ссылки
+     * добавлять не нужно
+     */
+    public boolean isDuplicate(long simHash, int featureCount,
+            List<String> links) {
+        
+        if (featureCount < MIN_FEATURES) {
+            
+            return false;
+        }
+        
+        checked.increment();
+        
+        if (addIfNew(simHash)) {
+            
+            return false;
+        }
+        
+        duplicates.increment();
+        skippedLinks.add(links.size());
+        
+        for (String link : links) {
+            
+            if (!visited.contains(link)) {
+                
+                savedFetches.increment();
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * @return количество отпечатков в индексе
+     */
+    public synchronized long size() {
+        
+        return count;
+    }
+    
+    @Override
+    public synchronized String toString() {
+        
+        return String.format("Почти одинаковые страницы: проверено %d, "
+                + "копий %d, ссылок не добавлено %d, из них ещё не "
+                + "просмотренных (сэкономлено загрузок) %d; отпечатков в "
+                + "индексе %d", checked.sum(), duplicates.sum(),
+                skippedLinks.sum(), savedFetches.sum(), count);
+    }
+    
+    /**
+     * Ищет отпечаток на расстоянии не больше distance и, если такого нет,
+     * добавляет новый.
+     * @return true, если отпечаток добавлен
+     */
+    private synchronized boolean addIfNew(long simHash) {
+        
+        int bands = bandShift.length;
+        int[] slots = new int[bands];
+        
+        for (int band = 0; band < bands; ++band) {
+            
+            slots[band] = slotOf(simHash, band);
+            
+            long[] bucket = buckets[band][slots[band]];
+            int size = sizes[band][slots[band]];
+            
+            for (int index = 0; index < size; ++index) {
+                
+                if (Long.bitCount(bucket[index] ^ simHash) <= distance) {
+                    
+                    return false;
+                }
+            }
+        }
+        
+        for (int band = 0; band < bands; ++band) {
+            
+            int slot = slots[band];
+            long[] bucket = buckets[band][slot];
+            int size = sizes[band][slot];
+            
+            if (bucket == null) {
+                
+                bucket = new long[4];
+            }
+            
+            else if (size == bucket.length) {
+                
+                bucket = Arrays.copyOf(bucket, size * 2);
+            }
+            
+            bucket[size] = simHash;
+            buckets[band][slot] = bucket;
+            sizes[band][slot] = size + 1;
+        }
+        
+        ++count;
+        return true;
+    }
+    
+    /**
+     * Корзина по значению полосы. Значение перемешивается, потому что
+     * полосы бывают шире номера корзины.
+     */
+    private int slotOf(long simHash, int band) {
+        
+        long value = simHash >>> bandShift[band] & bandMask[band];
+        return (int) (URLFingerprint.mix(value) >>> (64 - BUCKET_BITS));
+    }
+}
@@ -0,0 +1,247 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Обход в неблокирующем режиме. Главный поток берёт пары из URLPool и
+ * отправляет их в NioFetchEngine, ограничивая количество одновременных
+ * запросов. Полученные ответы разбирают рабочие потоки: ищут ссылки и
+ * добавляют их в пул. Страницы https загружаются обычным PageFetcher в тех
+ * же рабочих потоках.
+ * @author sergeychaika
+ */
+public class NioCrawler {
+    
+    private final URLPool pool;
+    private final NioFetchEngine engine;
+    private final PageFetcher fetcher;
+    private final ExecutorService parsers;
+    
+    /**
+     * Разрешения на одновременные запросы.
+     */
+    private final Semaphore inFlight;
+    
+    /**
+     * @param newPool пул URL
+     * @param newEngine неблокирующий загрузчик
+     * @param newFetcher блокирующий загрузчик для https
+     * @param parseThreads количество потоков разбора
+     * @param maxInFlight максимум одновременных запросов
+     */
+    public NioCrawler(URLPool newPool, NioFetchEngine newEngine,
+            PageFetcher newFetcher, int parseThreads, int maxInFlight) {
+        
+        pool = newPool;
+        engine = newEngine;
+        fetcher = newFetcher;
+        parsers = Executors.newFixedThreadPool(parseThreads);
+        inFlight = new Semaphore(maxInFlight);
+    }
+    
+    /**
+     * Раздаёт пары из пула загрузчику, пока обход не закончится.
+     * @throws InterruptedException ожидание прервано
+     */
+    public void run() throws InterruptedException {
+        
+        while (true) {
+            
+            inFlight.acquire();
+            
+            URLDepthPair depthPair = pool.get();
+            
+            if (depthPair == null) {
+                
+                inFlight.release();
+                break;
+            }
+            
+            /**
+             * Пара на максимальной глубине проверяется запросом HEAD в
+             * рабочем потоке.
+             */
+            if (pool.isLeaf(depthPair)) {
+                
+                parsers.execute(() -> check(depthPair));
+                continue;
+            }
+            
+            List<String> chain = new ArrayList<>();
+            
+            submit(depthPair, fetcher.firstTarget(depthPair, chain),
+                    System.nanoTime(), chain);
+        }
+        
+        parsers.shutdown();
+        parsers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+    
+    /**
+     * Отправляет запрос; ответ передаётся на разбор в рабочие потоки.
+     * @param original пара, полученная из пула
+     * @param target пара, которую нужно загрузить (отличается от original
+     * после перенаправления)
+     * @param start время отправки первого запроса для original
+     * @param chain URL, уже запрошенные для original
+     */
+    private void submit(URLDepthPair original, URLDepthPair target,
+            long start, List<String> chain) {
+        
+        if ("https".equals(target.getScheme())) {
+            
+            parsers.execute(() -> fetchBlocking(original, target, start));
+            return;
+        }
+        
+        engine.submit(target, fetcher.conditionalHeaders(target),
+                fetcher.getPolicy().deadline(start),
+                result -> parsers.execute(() -> parse(original, result,
+                        start, chain)));
+    }
+    
+    /**
+     * Проверка пары на максимальной глубине в рабочем потоке.
+     */
+    private void check(URLDepthPair depthPair) {
+        
+        FetchResult result = null;
+        
+        try {
+            
+            result = fetcher.check(depthPair);
+        }
+        
+        finally {
+            
+            pool.done(result != null ? result : new FetchResult(depthPair,
+                    FetchResult.FAILED, 0, 0, Collections.emptyList()));
+            inFlight.release();
+        }
+    }
+    
+    /**
+     * Загрузка страницы https в рабочем потоке через PageFetcher.
+     */
+    private void fetchBlocking(URLDepthPair original, URLDepthPair target,
+            long start) {
+        
+        int code = FetchResult.FAILED;
+        long bytes = 0;
+        
+        try {
+            
+            FetchResult result = fetcher.fetch(target);
+            code = result.getStatusCode();
+            bytes = result.getBytes();
+            
+            pool.putLinks(original, result.getLinks());
+        }
+        
+        catch (IOException e) {
+            
+            System.err.println("IOException: " + e.getMessage());
+        }
+        
+        finally {
+            
+            pool.done(new FetchResult(original, code, bytes,
+                    System.nanoTime() - start, Collections.emptyList()));
+            inFlight.release();
+        }
+    }
+    
+    /**
+     * Разбор ответа в рабочем потоке.
+     */
+    private void parse(URLDepthPair original, NioFetchEngine.Result result,
+            long start, List<String> chain) {
+        
+        boolean finished = true;
+        int code = FetchResult.FAILED;
+        long bytes = 0;
+        
+        try {
+            
+            HttpResponse response = result.getResponse();
+            code = response.getStatusCode();
+            int serverCode = response.getStatusCode() / 100;
+            List<String> URLs = new ArrayList<>();
+            
+            /**
+             * Страница не изменилась с прошлого обхода: ссылки берём из
+             * кэша.
+             */
+            if (fetcher.reuseLinks(result.getDepthPair(), response, URLs)) {
+                
+                pool.putLinks(original, URLs);
+            }
+            
+            /**
+             * Обработка для кодов html, равных 2xx.
+             */
+            else if (serverCode == 2) {
+                
+                fetcher.readLinks(result.getDepthPair(), response,
+                        URLs, fetcher.getPolicy().deadline(start));
+                
+                bytes = response.getWireBytes();
+                
+                pool.putLinks(original, URLs);
+            }
+            
+            /**
+             * Обработка для кодов html, равных 3xx: загружаем новый URL, не
+             * возвращая разрешение на запрос.
+             */
+            else if (serverCode == 3) {
+                
+                URLDepthPair target = fetcher.nextTarget(
+                        result.getDepthPair(), response, chain);
+                
+                if (target != null) {
+                    
+                    finished = false;
+                    submit(original, target, start, chain);
+                }
+            }
+            
+            else {
+                
+                PageFetcher.reportError(result.getDepthPair(), response);
+            }
+        }
+        
+        catch (IOException e) {
+            
+            System.err.println("IOException: " + e.getMessage());
+        }
+        
+        finally {
+            
+            String webHost = result.getDepthPair().getWebHost();
+            
+            if (code == FetchResult.FAILED) {
+                
+                fetcher.getMetrics().recordError(webHost);
+            }
+            
+            else {
+                
+                fetcher.getMetrics().recordResponse(webHost, code, bytes);
+            }
+            
+            if (finished) {
+                
+                pool.done(new FetchResult(original, code, bytes,
+                        System.nanoTime() - start, Collections.emptyList()));
+                inFlight.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,739 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Неблокирующий загрузчик страниц на java.nio.channels. Несколько потоков
+ * событийного цикла, у каждого свой Selector, ведут тысячи запросов
+ * одновременно. Готовые ответы целиком передаются обработчику, который
+ * должен отдать их на разбор другим потокам, не задерживая цикл.
+ * @author sergeychaika
+ */
+public class NioFetchEngine {
+    
+    /**
+     * Максимальный размер ответа; более длинные ответы обрезаются.
+     */
+    private static final int MAX_RESPONSE = 16 * 1024 * 1024;
+    
+    /**
+     * Сколько байтов сверх лимита страницы можно прочитать: разметка блоков
+     * chunked занимает место.
+     */
+    private static final int BODY_SLACK = 64 * 1024;
+    
+    /**
+     * Результат загрузки: сырые байты ответа или ошибка.
+     */
+    public static class Result {
+        
+        private final URLDepthPair depthPair;
+        private final byte[] data;
+        private final int length;
+        private final IOException error;
+        private final boolean truncated;
+        
+        Result(URLDepthPair pair, byte[] bytes, int size, IOException e,
+                boolean cut) {
+            
+            depthPair = pair;
+            data = bytes;
+            length = size;
+            error = e;
+            truncated = cut;
+        }
+        
+        public URLDepthPair getDepthPair() {
+            
+            return depthPair;
+        }
+        
+        /**
+         * @return ошибка загрузки или null
+         */
+        public IOException getError() {
+            
+            return error;
+        }
+        
+        /**
+         * Разбирает сохранённый ответ.
+         * @return ответ сервера
+         * @throws IOException загрузка не удалась или ответ неверный
+         */
+        public HttpResponse getResponse() throws IOException {
+            
+            if (error != null) {
+                
+                throw error;
+            }
+            
+            HttpResponse response = HttpResponse.read(
+                    new ByteArrayInputStream(data, 0, length), false);
+            
+            if (truncated) {
+                
+                response.markTruncated();
+            }
+            
+            return response;
+        }
+    }
+    
+    /**
+     * Состояние одного запроса.
+     */
+    private static class Exchange {
+        
+        final URLDepthPair depthPair;
+        final ByteBuffer request;
+        final Consumer<Result> callback;
+        final long deadline;
+        
+        /**
+         * Адрес сервера или ошибка разрешения имени - одно из двух, когда
+         * запрос попадает в цикл.
+         */
+        InetSocketAddress address;
+        IOException failure;
+        
+        /**
+         * Ключ канала в Selector цикла; недействителен, когда запрос
+         * завершён.
+         */
+        SelectionKey key;
+        
+        byte[] data = new byte[16 * 1024];
+        int length;
+        
+        /**
+         * Начало тела (-1, пока заголовки не получены), до какого момента
+         * читать тело и было ли чтение остановлено досрочно.
+         */
+        int bodyStart = -1;
+        long bodyDeadline;
+        boolean truncated;
+        
+        /**
+         * Обработчик уже вызван: второй раз запрос не завершается, даже если
+         * ошибка случилась в самом обработчике.
+         */
+        boolean completed;
+        
+        /**
+         * Начало подключения, отправка запроса и первый байт ответа для
+         * метрик.
+         */
+        long connectStarted;
+        long sent;
+        long firstByte;
+        
+        Exchange(URLDepthPair pair, ByteBuffer bytes, Consumer<Result> handler,
+                long due) {
+            
+            depthPair = pair;
+            request = bytes;
+            callback = handler;
+            deadline = due;
+        }
+    }
+    
+    /**
+     * Момент, когда запрос нужно проверить на таймаут.
+     */
+    private static final class Deadline {
+        
+        final long at;
+        final Exchange exchange;
+        
+        Deadline(long time, Exchange target) {
+            
+            at = time;
+            exchange = target;
+        }
+    }
+    
+    /**
+     * Один поток событийного цикла со своим Selector.
+     */
+    private class Loop implements Runnable {
+        
+        final Selector selector;
+        final Queue<Exchange> incoming = new ConcurrentLinkedQueue<>();
+        final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+        
+        /**
+         * Сроки запросов цикла по возрастанию. Запись завершённого запроса
+         * не вынимается сразу, а пропускается, когда наступит её срок,
+         * поэтому каждый запрос оставляет не больше двух записей и только
+         * до своего таймаута.
+         */
+        final PriorityQueue<Deadline> deadlines = new PriorityQueue<>(
+                Comparator.comparingLong(deadline -> deadline.at));
+        
+        Loop() throws IOException {
+            
+            selector = Selector.open();
+        }
+        
+        @Override
+        public void run() {
+            
+            while (true) {
+                
+                try {
+                    
+                    selector.select(100);
+                }
+                
+                catch (IOException e) {
+                    
+                    System.err.println("IOException: " + e.getMessage());
+                    continue;
+                }
+                
+                register();
+                
+                Iterator<SelectionKey> keys = selector.selectedKeys()
+                        .iterator();
+                
+                while (keys.hasNext()) {
+                    
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+                
+                expire();
+            }
+        }
+        
+        /**
+         * Открывает каналы для новых запросов.
+         */
+        private void register() {
+            
+            Exchange exchange;
+            
+            while ((exchange = incoming.poll()) != null) {
+                
+                if (exchange.failure != null) {
+                    
+                    complete(exchange, exchange.failure);
+                    continue;
+                }
+                
+                SocketChannel channel = null;
+                
+                try {
+                    
+                    channel = SocketChannel.open();
+                    channel.configureBlocking(false);
+                    exchange.connectStarted = System.nanoTime();
+                    
+                    if (channel.connect(exchange.address)) {
+                        
+                        metrics.getConnect().record(System.nanoTime()
+                                - exchange.connectStarted);
+                        exchange.key = channel.register(selector,
+                                SelectionKey.OP_WRITE, exchange);
+                    }
+                    
+                    else {
+                        
+                        exchange.key = channel.register(selector,
+                                SelectionKey.OP_CONNECT, exchange);
+                    }
+                    
+                    deadlines.add(new Deadline(exchange.deadline, exchange));
+                }
+                
+                catch (IOException e) {
+                    
+                    close(channel);
+                    complete(exchange, e);
+                }
+                
+                catch (RuntimeException e) {
+                    
+                    close(channel);
+                    complete(exchange, failure(exchange, e));
+                }
+            }
+        }
+        
+        /**
+         * Обработка готового к работе канала.
+         */
+        private void handle(SelectionKey key) {
+            
+            SocketChannel channel = (SocketChannel) key.channel();
+            Exchange exchange = (Exchange) key.attachment();
+            
+            try {
+                
+                if (key.isConnectable()) {
+                    
+                    channel.finishConnect();
+                    metrics.getConnect().record(System.nanoTime()
+                            - exchange.connectStarted);
+                    key.interestOps(SelectionKey.OP_WRITE);
+                }
+                
+                else if (key.isWritable()) {
+                    
+                    channel.write(exchange.request);
+                    
+                    if (!exchange.request.hasRemaining()) {
+                        
+                        exchange.sent = System.nanoTime();
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                }
+                
+                else if (key.isReadable()) {
+                    
+                    readBuffer.clear();
+                    int count = channel.read(readBuffer);
+                    
+                    if (count < 0) {
+                        
+                        /**
+                         * Сервер закрыл соединение - ответ получен целиком.
+                         */
+                        if (exchange.firstByte != 0) {
+                            
+                            metrics.getDownload().record(System.nanoTime()
+                                    - exchange.firstByte);
+                        }
+                        
+                        key.cancel();
+                        close(channel);
+                        complete(exchange, null);
+                        return;
+                    }
+                    
+                    if (count > 0 && exchange.firstByte == 0) {
+                        
+                        exchange.firstByte = System.nanoTime();
+                        metrics.getTtfb().record(exchange.firstByte
+                                - exchange.sent);
+                    }
+                    
+                    readBuffer.flip();
+                    append(exchange, readBuffer);
+                    boolean headers = exchange.bodyStart >= 0;
+                    
+                    if (!wanted(exchange)) {
+                        
+                        exchange.truncated = true;
+                        key.cancel();
+                        close(channel);
+                        complete(exchange, null);
+                    }
+                    
+                    /**
+                     * С заголовками начинает действовать срок чтения тела.
+                     */
+                    else if (!headers && exchange.bodyStart >= 0
+                            && exchange.bodyDeadline - exchange.deadline < 0) {
+                        
+                        deadlines.add(new Deadline(exchange.bodyDeadline,
+                                exchange));
+                    }
+                }
+            }
+            
+            catch (IOException e) {
+                
+                key.cancel();
+                close(channel);
+                complete(exchange, e);
+            }
+            
+            /**
+             * Ошибка в разборе ответа завершает только этот запрос, а цикл
+             * продолжает обслуживать остальные.
+             */
+            catch (RuntimeException e) {
+                
+                key.cancel();
+                close(channel);
+                complete(exchange, failure(exchange, e));
+            }
+        }
+        
+        /**
+         * Завершает запросы, не уложившиеся в таймаут. Просматриваются
+         * только записи, срок которых уже наступил.
+         */
+        private void expire() {
+            
+            long now = System.nanoTime();
+            Deadline first;
+            
+            while ((first = deadlines.peek()) != null && now - first.at > 0) {
+                
+                deadlines.poll();
+                Exchange exchange = first.exchange;
+                SelectionKey key = exchange.key;
+                
+                if (!key.isValid()) {
+                    
+                    continue;
+                }
+                
+                /**
+                 * Время на страницу вышло, но заголовки уже получены - ссылки
+                 * ищутся в прочитанной части тела.
+                 */
+                if (exchange.bodyStart >= 0
+                        && now - exchange.bodyDeadline > 0) {
+                    
+                    exchange.truncated = true;
+                    key.cancel();
+                    close((SocketChannel) key.channel());
+                    complete(exchange, null);
+                }
+                
+                else if (now - exchange.deadline > 0) {
+                    
+                    key.cancel();
+                    close((SocketChannel) key.channel());
+                    complete(exchange, new SocketTimeoutException(
+                            "Read timed out"));
+                }
+            }
+        }
+    }
+    
+    private final Loop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+    private final long timeoutNanos;
+    private final CrawlMetrics metrics;
+    private final DnsCache dns;
+    private final DownloadPolicy policy;
+    
+    /**
+     * Настройки движка. По умолчанию 2 потока событийного цикла, таймаут 3
+     * секунды, новые метрики, новый кэш DNS и DownloadPolicy по умолчанию.
+     */
+    public static class Builder {
+        
+        private int threads = 2;
+        private int timeoutMillis = 3000;
+        private CrawlMetrics metrics;
+        private DnsCache dns;
+        private DownloadPolicy policy;
+        
+        /**
+         * @param count количество потоков событийного цикла
+         * @return этот же объект
+         */
+        public Builder threads(int count) {
+            
+            threads = count;
+            return this;
+        }
+        
+        /**
+         * @param millis таймаут на весь запрос
+         * @return этот же объект
+         */
+        public Builder timeout(int millis) {
+            
+            timeoutMillis = millis;
+            return this;
+        }
+        
+        /**
+         * @param crawlMetrics метрики обхода
+         * @return этот же объект
+         */
+        public Builder metrics(CrawlMetrics crawlMetrics) {
+            
+            metrics = crawlMetrics;
+            return this;
+        }
+        
+        /**
+         * @param dnsCache кэш адресов хостов
+         * @return этот же объект
+         */
+        public Builder dns(DnsCache dnsCache) {
+            
+            dns = dnsCache;
+            return this;
+        }
+        
+        /**
+         * @param downloadPolicy какие тела и сколько загружать
+         * @return этот же объект
+         */
+        public Builder policy(DownloadPolicy downloadPolicy) {
+            
+            policy = downloadPolicy;
+            return this;
+        }
+        
+        /**
+         * @return движок с запущенными потоками событийного цикла
+         * @throws IOException не удалось открыть Selector
+         */
+        public NioFetchEngine build() throws IOException {
+            
+            return new NioFetchEngine(this);
+        }
+    }
+    
+    private NioFetchEngine(Builder builder) throws IOException {
+        
+        int threads = builder.threads;
+        
+        metrics = builder.metrics != null ? builder.metrics
+                : new CrawlMetrics();
+        dns = builder.dns != null ? builder.dns : new DnsCache();
+        policy = builder.policy != null ? builder.policy
+                : new DownloadPolicy();
+        loops = new Loop[threads];
+        timeoutNanos = builder.timeoutMillis * 1_000_000L;
+        
+        for (int counter = 0; counter < threads; ++counter) {
+            
+            loops[counter] = new Loop();
+            
+            Thread thread = new Thread(loops[counter], "nio-fetch-" + counter);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+    
+    /**
+     * Ставит страницу в очередь на загрузку. Поддерживается только http.
+     * @param depthPair пара <URL, глубина>
+     * @param callback вызывается в потоке цикла, когда ответ получен
+     */
+    public void submit(URLDepthPair depthPair, Consumer<Result> callback) {
+        
+        submit(depthPair, "", callback);
+    }
+    
+    /**
+     * Ставит страницу в очередь на загрузку с дополнительными заголовками.
+     * @param depthPair пара <URL, глубина>
+     * @param headers строки заголовков с \r\n в конце или пустая строка
+     * @param callback вызывается в потоке цикла, когда ответ получен
+     */
+    public void submit(URLDepthPair depthPair, String headers,
+            Consumer<Result> callback) {
+        
+        submit(depthPair, headers, policy.deadline(System.nanoTime()),
+                callback);
+    }
+    
+    /**
+     * Ставит страницу в очередь на загрузку с дополнительными заголовками.
+     * @param depthPair пара <URL, глубина>
+     * @param headers строки заголовков с \r\n в конце или пустая строка
+     * @param bodyDeadline до какого момента (System.nanoTime) читать тело
+     * @param callback вызывается в потоке цикла, когда ответ получен
+     */
+    public void submit(URLDepthPair depthPair, String headers,
+            long bodyDeadline, Consumer<Result> callback) {
+        
+        String webHost = depthPair.getWebHost();
+        
+        /**
+         * Соединение закрывается после ответа, поэтому конец ответа - это
+         * конец потока.
+         */
+        String request = "GET " + depthPair.getPathWithQuery() + " HTTP/1.1\r\n"
+                + "Host: " + depthPair.getHostHeader() + "\r\n"
+                + "Accept-Encoding: " + PageFetcher.ACCEPT_ENCODING + "\r\n"
+                + headers
+                + "Connection: close\r\n"
+                + "\r\n";
+        
+        long start = System.nanoTime();
+        Exchange exchange = new Exchange(depthPair,
+                ByteBuffer.wrap(request.getBytes(StandardCharsets.ISO_8859_1)),
+                callback, start + timeoutNanos);
+        exchange.bodyDeadline = bodyDeadline;
+        Loop loop = loops[Math.floorMod(next.getAndIncrement(), loops.length)];
+        
+        /**
+         * Имя разрешается в фоне, и вызывающий поток не ждёт DNS: запрос
+         * попадает в цикл, когда адрес известен. Если адрес уже в кэше,
+         * запрос ставится сразу в этом же потоке.
+         */
+        dns.resolveAsync(webHost).whenComplete((resolved, error) -> {
+            
+            metrics.getDns().record(System.nanoTime() - start);
+            
+            if (resolved != null) {
+                
+                exchange.address = new InetSocketAddress(resolved,
+                        depthPair.getPort());
+            }
+            
+            else {
+                
+                Throwable cause = error instanceof CompletionException
+                        ? error.getCause() : error;
+                exchange.failure = cause instanceof UnknownHostException
+                        ? new IOException("UnknownHostException: " + webHost)
+                        : new IOException(cause);
+            }
+            
+            loop.incoming.add(exchange);
+            loop.selector.wakeup();
+        });
+    }
+    
+    private static void append(Exchange exchange, ByteBuffer buffer)
+            throws IOException {
+        
+        int count = buffer.remaining();
+        
+        if (exchange.length + count > MAX_RESPONSE) {
+            
+            throw new IOException("Ответ длиннее " + MAX_RESPONSE + " байт");
+        }
+        
+        if (exchange.length + count > exchange.data.length) {
+            
+            exchange.data = Arrays.copyOf(exchange.data, Math.max(
+                    exchange.data.length * 2, exchange.length + count));
+        }
+        
+        buffer.get(exchange.data, exchange.length, count);
+        exchange.length += count;
+    }
+    
+    /**
+     * Нужно ли читать ответ дальше. Как только пришли заголовки, тело
+     * ответа 2xx неразрешённого типа и тело других ответов не читаются; тело
+     * разрешённого типа читается, пока его байтов не больше лимита страницы
+     * (с запасом на разбивку на блоки). Распакованное тело ограничивается
+     * при разборе.
+     */
+    private boolean wanted(Exchange exchange) throws IOException {
+        
+        if (exchange.bodyStart < 0) {
+            
+            int end = headersEnd(exchange.data, exchange.length);
+            
+            /**
+             * Промежуточные ответы 1xx редки, такой ответ читается целиком.
+             */
+            if (end < 0 || exchange.data[9] == '1') {
+                
+                return true;
+            }
+            
+            exchange.bodyStart = end;
+            
+            HttpResponse response = HttpResponse.read(
+                    new ByteArrayInputStream(exchange.data, 0, end), false);
+            int code = response.getStatusCode();
+            
+            if (code >= 300 || !policy.accepts(response.getHeader(
+                    "Content-Type"))) {
+                
+                return false;
+            }
+        }
+        
+        return exchange.length - exchange.bodyStart
+                <= policy.getMaxBytes() + BODY_SLACK;
+    }
+    
+    /**
+     * @return позиция после пустой строки, завершающей заголовки, или -1
+     */
+    private static int headersEnd(byte[] data, int length) {
+        
+        for (int index = 12; index < length; ++index) {
+            
+            if (data[index] == '\n' && data[index - 1] == '\r'
+                    && data[index - 2] == '\n' && data[index - 3] == '\r') {
+                
+                return index + 1;
+            }
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Вызывает обработчик запроса один раз. Ошибка обработчика не выходит
+     * в событийный цикл: иначе поток цикла остановился бы, и запросы на
+     * нём никогда не завершились бы.
+     */
+    private static void complete(Exchange exchange, IOException error) {
+        
+        if (exchange.completed) {
+            
+            return;
+        }
+        
+        exchange.completed = true;
+        
+        try {
+            
+            exchange.callback.accept(new Result(exchange.depthPair,
+                    error == null ? exchange.data : null, exchange.length,
+                    error, exchange.truncated));
+        }
+        
+        catch (RuntimeException e) {
+            
+            System.err.println(exchange.depthPair.getURL() + ": " + e);
+        }
+    }
+    
+    /**
+     * Непредвиденная ошибка цикла как ошибка загрузки страницы.
+     */
+    private static IOException failure(Exchange exchange, RuntimeException e) {
+        
+        System.err.println(exchange.depthPair.getURL() + ": " + e);
+        return new IOException(e.toString(), e);
+    }
+    
+    private static void close(SocketChannel channel) {
+        
+        if (channel == null) {
+            
+            return;
+        }
+        
+        try {
+            
+            channel.close();
+        }
+        
+        catch (IOException e) {
+            
+            /**
+             * Канал всё равно больше не используется.
+             */
+        }
+    }
+}
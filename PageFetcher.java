@@ -0,0 +1,810 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Загрузка страниц по HTTP и HTTPS через пул постоянных соединений и поиск
+ * ссылок на них с помощью LinkExtractor. Соединения с одним хостом
+ * используются повторно (HTTP/1.1 keep-alive), пока сервер их не закроет.
+ * @author sergeychaika
+ */
+public class PageFetcher {
+    
+    /**
+     * Сколько байтов непрочитанного тела можно дочитать, чтобы сохранить
+     * соединение, вместо того чтобы его закрыть.
+     */
+    private static final long DRAIN_LIMIT = 64 * 1024;
+    
+    /**
+     * Поддерживаемые способы сжатия тела ответа.
+     */
+    static final String ACCEPT_ENCODING = "gzip, deflate";
+    
+    /**
+     * Сколько перенаправлений подряд можно пройти для одной страницы.
+     */
+    static final int MAX_REDIRECTS = 10;
+    
+    private final ConnectionPool connections;
+    
+    /**
+     * Задержки, коды ответов и ошибки по хостам.
+     */
+    private final CrawlMetrics metrics;
+    
+    /**
+     * Валидаторы и ссылки страниц прошлых обходов или null.
+     */
+    private final ValidatorCache validators;
+    
+    /**
+     * Отпечатки текста загруженных страниц или null.
+     */
+    private final NearDuplicateIndex duplicates;
+    
+    /**
+     * Постоянные перенаправления, общие для всех потоков.
+     */
+    private final RedirectCache redirects;
+    
+    /**
+     * Какие тела читать и сколько.
+     */
+    private final DownloadPolicy policy;
+    
+    /**
+     * Множество просмотренных URL пула и правила robots.txt или null. Цель
+     * перенаправления проверяется так же, как новая ссылка.
+     */
+    private final VisitedSet visited;
+    private final RobotsCache robots;
+    
+    /**
+     * Сколько байтов тел страниц пришло по сети и сколько получилось после
+     * распаковки.
+     */
+    private final LongAdder wireBytes = new LongAdder();
+    private final LongAdder decodedBytes = new LongAdder();
+    
+    /**
+     * Настройки загрузчика. Обязателен только пул соединений; по умолчанию
+     * новые метрики, кэш на 10000 перенаправлений и DownloadPolicy по
+     * умолчанию, а кэша валидаторов, индекса дубликатов, множества
+     * просмотренных URL и robots.txt нет.
+     */
+    public static class Builder {
+        
+        private final ConnectionPool connections;
+        private CrawlMetrics metrics;
+        private ValidatorCache validators;
+        private NearDuplicateIndex duplicates;
+        private RedirectCache redirects;
+        private DownloadPolicy policy;
+        private VisitedSet visited;
+        private RobotsCache robots;
+        
+        /**
+         * @param pool пул соединений
+         */
+        public Builder(ConnectionPool pool) {
+            
+            connections = pool;
+        }
+        
+        /**
+         * @param crawlMetrics метрики обхода
+         * @return этот же объект
+         */
+        public Builder metrics(CrawlMetrics crawlMetrics) {
+            
+            metrics = crawlMetrics;
+            return this;
+        }
+        
+        /**
+         * @param validatorCache кэш валидаторов для условных запросов или
+         * null
+         * @return этот же объект
+         */
+        public Builder validators(ValidatorCache validatorCache) {
+            
+            validators = validatorCache;
+            return this;
+        }
+        
+        /**
+         * @param duplicateIndex индекс для поиска почти одинаковых страниц
+         * или null
+         * @return этот же объект
+         */
+        public Builder duplicates(NearDuplicateIndex duplicateIndex) {
+            
+            duplicates = duplicateIndex;
+            return this;
+        }
+        
+        /**
+         * @param redirectCache кэш постоянных перенаправлений
+         * @return этот же объект
+         */
+        public Builder redirects(RedirectCache redirectCache) {
+            
+            redirects = redirectCache;
+            return this;
+        }
+        
+        /**
+         * @param downloadPolicy разрешённые типы, размер и время страницы
+         * @return этот же объект
+         */
+        public Builder policy(DownloadPolicy downloadPolicy) {
+            
+            policy = downloadPolicy;
+            return this;
+        }
+        
+        /**
+         * @param visitedSet множество просмотренных URL пула или null
+         * @return этот же объект
+         */
+        public Builder visited(VisitedSet visitedSet) {
+            
+            visited = visitedSet;
+            return this;
+        }
+        
+        /**
+         * @param robotsCache правила robots.txt или null
+         * @return этот же объект
+         */
+        public Builder robots(RobotsCache robotsCache) {
+            
+            robots = robotsCache;
+            return this;
+        }
+        
+        public PageFetcher build() {
+            
+            return new PageFetcher(this);
+        }
+    }
+    
+    private PageFetcher(Builder builder) {
+        
+        connections = builder.connections;
+        metrics = builder.metrics != null ? builder.metrics
+                : new CrawlMetrics();
+        validators = builder.validators;
+        duplicates = builder.duplicates;
+        redirects = builder.redirects != null ? builder.redirects
+                : new RedirectCache(10000);
+        policy = builder.policy != null ? builder.policy
+                : new DownloadPolicy();
+        visited = builder.visited;
+        robots = builder.robots;
+    }
+    
+    /**
+     * Метод для доступа к метрикам обхода.
+     * @return метрики обхода
+     */
+    public CrawlMetrics getMetrics() {
+        
+        return metrics;
+    }
+    
+    /**
+     * Метод для доступа к кэшу перенаправлений.
+     * @return кэш перенаправлений
+     */
+    public RedirectCache getRedirects() {
+        
+        return redirects;
+    }
+    
+    /**
+     * Метод для доступа к ограничениям загрузки.
+     * @return ограничения загрузки
+     */
+    public DownloadPolicy getPolicy() {
+        
+        return policy;
+    }
+    
+    /**
+     * Метод для доступа к пулу соединений.
+     * @return пул соединений
+     */
+    public ConnectionPool getConnectionPool() {
+        
+        return connections;
+    }
+    
+    /**
+     * Поиск всех ссылок на рассматриваемом сайте и сохранение их в
+     * список LinkedList<String>.
+     * @param myDepthPair пара <URL, глубина>
+     * @return список найденных ссылок
+     * @throws IOException ошибка при закрытии соединения
+     */
+    public LinkedList<String> getSites(URLDepthPair myDepthPair)
+            throws IOException {
+        
+        /**
+         * Создание списка LinkedList<String>, списка всех ссылок на
+         * рассматриваемом сайте.
+         */
+        LinkedList<String> URLs = new LinkedList<>();
+        load(myDepthPair, URLs);
+        return URLs;
+    }
+    
+    /**
+     * Загрузка страницы с поиском ссылок и замером кода ответа, размера тела
+     * и времени загрузки.
+     * @param myDepthPair пара <URL, глубина>
+     * @return результат загрузки
+     * @throws IOException ошибка при закрытии соединения
+     */
+    public FetchResult fetch(URLDepthPair myDepthPair) throws IOException {
+        
+        long start = System.nanoTime();
+        LinkedList<String> URLs = new LinkedList<>();
+        HttpResponse response = load(myDepthPair, URLs);
+        
+        if (response == null) {
+            
+            return new FetchResult(myDepthPair, FetchResult.FAILED, 0,
+                    System.nanoTime() - start, URLs);
+        }
+        
+        return new FetchResult(myDepthPair, response.getStatusCode(),
+                response.getWireBytes(), System.nanoTime() - start, URLs);
+    }
+    
+    /**
+     * Проверка страницы на максимальной глубине: запрос HEAD без тела и без
+     * перехода по перенаправлениям, только код ответа и время.
+     * @param myDepthPair пара <URL, глубина>
+     * @return результат проверки без ссылок
+     */
+    public FetchResult check(URLDepthPair myDepthPair) {
+        
+        long start = System.nanoTime();
+        URLDepthPair target = firstTarget(myDepthPair, new ArrayList<>());
+        String webHost = target.getWebHost();
+        HttpConnection connection = null;
+        HttpResponse response = null;
+        
+        for (int attempt = 0; response == null; ++attempt) {
+            
+            try {
+                
+                connection = connections.acquire(target.getScheme(),
+                        webHost, target.getPort());
+            }
+            
+            catch (IOException e) {
+                
+                System.err.println(e.getClass().getSimpleName() + ": "
+                        + e.getMessage());
+                metrics.recordError(webHost);
+                return new FetchResult(myDepthPair, FetchResult.FAILED, 0,
+                        System.nanoTime() - start, Collections.emptyList());
+            }
+            
+            boolean reused = connection.beginRequest();
+            
+            try {
+                
+                long sent = System.nanoTime();
+                sendRequest(connection, target, "HEAD", "");
+                response = HttpResponse.read(connection.getInputStream(),
+                        true);
+                metrics.getTtfb().record(System.nanoTime() - sent);
+            }
+            
+            catch (IOException e) {
+                
+                connections.release(connection, false);
+                
+                if (!reused || attempt > 0) {
+                    
+                    System.err.println("IOException: " + e.getMessage());
+                    metrics.recordError(webHost);
+                    return new FetchResult(myDepthPair, FetchResult.FAILED,
+                            0, System.nanoTime() - start,
+                            Collections.emptyList());
+                }
+            }
+        }
+        
+        connections.release(connection, response.finish(0));
+        metrics.recordResponse(webHost, response.getStatusCode(), 0);
+        return new FetchResult(myDepthPair, response.getStatusCode(), 0,
+                System.nanoTime() - start, Collections.emptyList());
+    }
+    
+    /**
+     * Загрузка страницы, на которую ссылается пара, с переходом по
+     * перенаправлениям. Известные постоянные перенаправления проходятся
+     * сразу по кэшу, остальные - в цикле, не больше MAX_REDIRECTS раз и без
+     * повторного захода на уже пройденный URL. Найденные ссылки добавляются
+     * в список.
+     * @return последний ответ сервера или null, если страницу загрузить не
+     * удалось
+     */
+    private HttpResponse load(URLDepthPair myDepthPair,
+            LinkedList<String> URLs) throws IOException {
+        
+        List<String> chain = new ArrayList<>();
+        URLDepthPair target = firstTarget(myDepthPair, chain);
+        long deadline = policy.deadline(System.nanoTime());
+        
+        while (true) {
+            
+            HttpResponse response = loadOnce(target, URLs, deadline);
+            
+            if (response == null || response.getStatusCode() / 100 != 3) {
+                
+                return response;
+            }
+            
+            target = nextTarget(target, response, chain);
+            
+            if (target == null) {
+                
+                return response;
+            }
+        }
+    }
+    
+    /**
+     * Один запрос без перехода по перенаправлению. Тело ответа 3xx не
+     * читается, а только дочитывается для сохранения соединения.
+     * @param deadline до какого момента можно читать тело страницы
+     * @return ответ сервера или null, если страницу загрузить не удалось
+     */
+    private HttpResponse loadOnce(URLDepthPair myDepthPair,
+            LinkedList<String> URLs, long deadline) throws IOException {
+        
+        String webHost = myDepthPair.getWebHost();
+        String scheme = myDepthPair.getScheme();
+        String conditional = conditionalHeaders(myDepthPair);
+        
+        /**
+         * Отправляем запрос. Если соединение, взятое из пула, уже закрыто
+         * сервером, повторяем запрос один раз через новое соединение.
+         */
+        HttpConnection connection = null;
+        HttpResponse response = null;
+        
+        for (int attempt = 0; response == null; ++attempt) {
+            
+            try {
+                
+                connection = connections.acquire(scheme, webHost,
+                        myDepthPair.getPort());
+            }
+            
+            catch (UnknownHostException e) {
+                
+                System.err.println("UnknownHostException: " + e.getMessage());
+                metrics.recordError(webHost);
+                return null;
+            }
+            
+            catch (IOException ex) {
+                
+                System.err.println("IOException: " + ex.getMessage());
+                metrics.recordError(webHost);
+                return null;
+            }
+            
+            boolean reused = connection.beginRequest();
+            
+            try {
+                
+                long sent = System.nanoTime();
+                sendRequest(connection, myDepthPair, "GET", conditional);
+                response = HttpResponse.read(connection.getInputStream(),
+                        false);
+                metrics.getTtfb().record(System.nanoTime() - sent);
+            }
+            
+            catch (IOException exce) {
+                
+                connections.release(connection, false);
+                
+                if (!reused || attempt > 0) {
+                    
+                    System.err.println("IOException: " + exce.getMessage());
+                    metrics.recordError(webHost);
+                    return null;
+                }
+            }
+        }
+        
+        int serverCode = response.getStatusCode() / 100;
+        
+        /**
+         * Страница не изменилась с прошлого обхода: ссылки берём из кэша.
+         */
+        if (reuseLinks(myDepthPair, response, URLs)) {
+            
+            connections.release(connection, response.finish(DRAIN_LIMIT));
+            metrics.recordResponse(webHost, response.getStatusCode(),
+                    response.getWireBytes());
+            return response;
+        }
+        
+        /**
+         * Обработка для кодов html, равных 2xx.
+         */
+        if (serverCode == 2) {
+            
+            try {
+                
+                metrics.getDownload().record(readLinks(myDepthPair, response,
+                        URLs, deadline));
+            }
+            
+            catch (IOException except) {
+                
+                System.err.println("IOException: " + except.getMessage());
+                metrics.recordError(webHost);
+                connections.release(connection, false);
+                return null;
+            }
+            
+            connections.release(connection, response.finish(DRAIN_LIMIT));
+            metrics.recordResponse(webHost, response.getStatusCode(),
+                    response.getWireBytes());
+            return response;
+        }
+        
+        /**
+         * Тело остальных ответов не нужно: дочитываем его и возвращаем
+         * соединение в пул.
+         */
+        connections.release(connection, response.finish(DRAIN_LIMIT));
+        metrics.recordResponse(webHost, response.getStatusCode(),
+                response.getWireBytes());
+        
+        /**
+         * Перенаправление обрабатывает load.
+         */
+        if (serverCode == 3) {
+            
+            return response;
+        }
+        
+        /**
+         * Обработка для кодов html, равных 4xx.
+         */
+        reportError(myDepthPair, response);
+        return response;
+    }
+    
+    /**
+     * Определяет, куда перенаправляет ответ 3xx.
+     * @param myDepthPair запрошенная пара
+     * @param response ответ сервера
+     * @return абсолютный URL перенаправления или null, если следовать по
+     * нему нельзя
+     */
+    static String redirectTarget(URLDepthPair myDepthPair,
+            HttpResponse response) {
+        
+        String newURL = response.getHeader("Location");
+        
+        if (newURL == null) {
+            
+            System.out.println("Ошибка: сайт \"" + myDepthPair.getURL()
+                    + "\" перенаправляет без заголовка Location");
+            return null;
+        }
+        
+        /**
+         * Location может быть относительным.
+         */
+        try {
+            
+            newURL = new URL(new URL(myDepthPair.getURL()), newURL)
+                    .toString();
+        }
+        
+        catch (MalformedURLException e) {
+            
+            System.err.println("MalformedURLException: " + e.getMessage());
+            return null;
+        }
+        
+        if (newURL.equals(myDepthPair.getURL())) {
+            
+            System.out.println("Ошибка: сайт \"" + myDepthPair.getURL() +
+                        "\" перенаправляет на самого себя"
+                            + " (код ответа HTML 3xx)");
+            return null;
+        }
+        
+        return newURL;
+    }
+    
+    /**
+     * Начинает цепочку перенаправлений: если для URL известно постоянное
+     * перенаправление, запрос сразу отправляется по конечному адресу.
+     * @param myDepthPair пара из пула
+     * @param chain пустой список, в который записываются запрошенные URL
+     * @return пара для первого запроса
+     */
+    URLDepthPair firstTarget(URLDepthPair myDepthPair, List<String> chain) {
+        
+        String URL = myDepthPair.getURL();
+        String resolved = redirects.resolve(URL);
+        
+        chain.add(URL);
+        
+        if (resolved.equals(URL)) {
+            
+            return myDepthPair;
+        }
+        
+        try {
+            
+            URLDepthPair target = new URLDepthPair(resolved,
+                    myDepthPair.getDepth());
+            chain.add(resolved);
+            return target;
+        }
+        
+        catch (MalformedURLException e) {
+            
+            return myDepthPair;
+        }
+    }
+    
+    /**
+     * Следующий шаг цепочки перенаправлений. Постоянное перенаправление
+     * запоминается в кэше.
+     * @param myDepthPair пара, на которую пришёл ответ 3xx
+     * @param response ответ сервера
+     * @param chain URL, уже запрошенные в этой цепочке
+     * @return пара для следующего запроса или null, если идти дальше нельзя:
+     * нет Location, цепочка зациклилась или слишком длинная, цель запрещена
+     * robots.txt или уже просмотрена
+     */
+    URLDepthPair nextTarget(URLDepthPair myDepthPair, HttpResponse response,
+            List<String> chain) {
+        
+        /**
+         * 304 без записи в кэше валидаторов - не перенаправление.
+         */
+        if (response.getStatusCode() == 304) {
+            
+            return null;
+        }
+        
+        String newURL = redirectTarget(myDepthPair, response);
+        
+        if (newURL == null) {
+            
+            return null;
+        }
+        
+        if (chain.contains(newURL)) {
+            
+            System.out.println("Ошибка: сайт \"" + chain.get(0)
+                    + "\" перенаправляет по кругу через \"" + newURL + "\"");
+            return null;
+        }
+        
+        redirects.record(myDepthPair, response.getStatusCode(), newURL);
+        
+        /**
+         * Цель сама может быть известным перенаправлением.
+         */
+        String resolved = redirects.resolve(newURL);
+        
+        if (chain.size() > MAX_REDIRECTS || chain.contains(resolved)) {
+            
+            System.out.println("Ошибка: сайт \"" + chain.get(0)
+                    + "\" перенаправляет больше " + MAX_REDIRECTS
+                    + " раз или по кругу");
+            return null;
+        }
+        
+        URLDepthPair target;
+        
+        try {
+            
+            target = new URLDepthPair(resolved, myDepthPair.getDepth());
+        }
+        
+        catch (MalformedURLException e) {
+            
+            System.err.println("MalformedURLException: " + e.getMessage());
+            return null;
+        }
+        
+        if (robots != null && !robots.allows(target)) {
+            
+            System.out.println("Ошибка: сайт \"" + chain.get(0)
+                    + "\" перенаправляет на запрещённый robots.txt \""
+                    + resolved + "\"");
+            return null;
+        }
+        
+        /**
+         * Цель уже загружена или стоит в очереди: перенаправление записано
+         * в кэш выше, а страница второй раз не загружается.
+         */
+        if (visited != null && !visited.add(target.fingerprint())) {
+            
+            return null;
+        }
+        
+        chain.add(resolved);
+        return target;
+    }
+    
+    /**
+     * Сообщение о странице, вернувшей код ошибки.
+     */
+    static void reportError(URLDepthPair myDepthPair, HttpResponse response) {
+        
+        System.out.println("Ошибка: сайт \"" + myDepthPair.getURL() +
+                        "\" недоступен (код ответа HTML "
+                            + response.getStatusCode() + ")");
+    }
+    
+    /**
+     * Заголовки условного запроса, если страница есть в кэше валидаторов.
+     * @param myDepthPair загружаемая страница
+     * @return строки заголовков или пустая строка
+     */
+    String conditionalHeaders(URLDepthPair myDepthPair) {
+        
+        return validators == null ? ""
+                : validators.requestHeaders(myDepthPair.getURL());
+    }
+    
+    /**
+     * Если сервер ответил 304 на условный запрос, добавляет в список ссылки
+     * страницы из кэша валидаторов.
+     * @param myDepthPair загруженная страница
+     * @param response ответ сервера
+     * @param URLs список, в который добавляются ссылки
+     * @return true, если ссылки взяты из кэша
+     */
+    boolean reuseLinks(URLDepthPair myDepthPair, HttpResponse response,
+            List<String> URLs) {
+        
+        if (validators == null || response.getStatusCode() != 304) {
+            
+            return false;
+        }
+        
+        List<String> cached = validators.notModified(myDepthPair.getURL());
+        
+        if (cached == null) {
+            
+            return false;
+        }
+        
+        URLs.addAll(cached);
+        return true;
+    }
+    
+    /**
+     * Составление запроса на сервер сайта. Соединение не закрывается, чтобы
+     * использовать его для следующих страниц этого хоста.
+     */
+    private void sendRequest(HttpConnection connection,
+            URLDepthPair myDepthPair, String method, String conditional)
+            throws IOException {
+        
+        /**
+         * Параметры - часть адреса страницы, без них сервер вернул бы
+         * другую страницу.
+         */
+        String request = method + " " + myDepthPair.getPathWithQuery()
+                + " HTTP/1.1\r\n"
+                + "Host: " + myDepthPair.getHostHeader() + "\r\n"
+                + "Accept-Encoding: " + ACCEPT_ENCODING + "\r\n"
+                + conditional
+                + "Connection: keep-alive\r\n"
+                + "\r\n";
+        
+        OutputStream outStream = connection.getOutputStream();
+        outStream.write(request.getBytes(StandardCharsets.ISO_8859_1));
+        outStream.flush();
+    }
+    
+    /**
+     * Читаем тело ответа порциями и ищем в нём ссылки. Сжатое тело
+     * распаковывается на лету и целиком в памяти не хранится. Тело
+     * неразрешённого типа не читается, а разрешённого - не дальше лимита
+     * размера и времени.
+     * @param myDepthPair загруженная страница
+     * @param response ответ сервера
+     * @param URLs список, в который добавляются найденные ссылки
+     * @param deadline до какого момента можно читать тело
+     * @return сколько времени заняло чтение тела, в наносекундах (время
+     * поиска ссылок записывается в метрики)
+     * @throws IOException ошибка чтения
+     */
+    long readLinks(URLDepthPair myDepthPair, HttpResponse response,
+            List<String> URLs, long deadline) throws IOException {
+        
+        if (!policy.admit(response)) {
+            
+            return 0;
+        }
+        
+        LinkExtractor extractor = new LinkExtractor(myDepthPair.getURL(),
+                LinkExtractor.charsetOf(response.getHeader("Content-Type"),
+                        null), duplicates != null);
+        LimitedInputStream body = policy.limit(response.getBody(), deadline,
+                response.isTruncated());
+        
+        try {
+            
+            List<String> links = extractor.extract(body);
+            
+            /**
+             * Ссылки почти копии уже загруженной страницы ведут в те же
+             * страницы, что и у оригинала, поэтому в очередь не идут.
+             */
+            if (duplicates != null && duplicates.isDuplicate(
+                    extractor.getSimHash(), extractor.getFeatureCount(),
+                    links)) {
+                
+                links = Collections.emptyList();
+            }
+            
+            URLs.addAll(links);
+            
+            /**
+             * Ссылки обрезанной страницы неполны, в кэш они не идут.
+             */
+            if (validators != null && !body.isCut()) {
+                
+                validators.downloaded(myDepthPair.getURL(), response, links);
+            }
+        }
+        
+        finally {
+            
+            policy.finished(response, body);
+            wireBytes.add(response.getWireBytes());
+            decodedBytes.add(response.getDecodedBytes());
+            metrics.getParse().record(extractor.getParseNanos());
+        }
+        
+        return extractor.getReadNanos();
+    }
+    
+    /**
+     * Статистика сжатия тел страниц.
+     * @return строка для вывода
+     */
+    public String getTransferStats() {
+        
+        long wire = wireBytes.sum();
+        long decoded = decodedBytes.sum();
+        
+        return String.format("Тела страниц: получено %d байт, после "
+                + "распаковки %d байт (экономия %.1f%%)", wire, decoded,
+                decoded == 0 ? 0.0 : 100.0 * (decoded - wire) / decoded);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,626 @@
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Очередь с учётом вежливости, как HostFrontier, но выдающая URL не в
+ * порядке поступления, а по приоритету. Два режима:
+ * - LEVELS - строгий обход в ширину: пока не загружены все страницы
+ * глубины N (в том числе те, что загружаются прямо сейчас), URL глубины
+ * N + 1 не выдаются;
+ * - BEST - сначала самые полезные URL по оценке URLScorer (по умолчанию
+ * количество найденных на них ссылок), поэтому обход, остановленный
+ * досрочно, успевает загрузить самые ценные страницы.
+ *
+ * У каждого хоста своё упорядоченное множество URL по приоритету под
+ * блокировкой хоста, поэтому потоки, работающие с разными хостами, друг
+ * друга не ждут. Хосты, к которым можно обратиться сейчас, лежат в
+ * ConcurrentSkipListMap по лучшему URL хоста, а ожидающие задержки - в
+ * ConcurrentSkipListMap по времени готовности; счётчики уровней, размера и
+ * занятых мест тоже неблокирующие. Задержка между запросами, ограничение
+ * одновременных запросов к хосту, ConcurrencyLimiter и Crawl-delay
+ * работают так же, как в HostFrontier; так же удаляются хосты без URL и
+ * запросов, задержка которых прошла.
+ *
+ * Блокировка пула для этой очереди не нужна: потоки без готовых URL
+ * засыпают в IdleWorkers, а add и release будят один из них.
+ * @author sergeychaika
+ */
+public class PriorityFrontier implements ConcurrentFrontier {
+    
+    /**
+     * Порядок выдачи URL.
+     */
+    public enum Mode {
+        
+        LEVELS, BEST
+    }
+    
+    /**
+     * URL в очереди с приоритетом. Оценка не меняется, пока запись в
+     * множестве хоста: при новой ссылке старая запись вынимается, а
+     * вместо неё кладётся новая.
+     */
+    private static final class Ranked {
+        
+        final URLDepthPair depthPair;
+        final long fingerprint;
+        final double score;
+        final int inLinks;
+        
+        /**
+         * Порядок поступления: при равном приоритете раньше выдаётся
+         * поступивший раньше.
+         */
+        final long order;
+        
+        Ranked(URLDepthPair pair, long hash, double value, int links,
+                long sequence) {
+            
+            depthPair = pair;
+            fingerprint = hash;
+            score = value;
+            inLinks = links;
+            order = sequence;
+        }
+    }
+    
+    /**
+     * Очередь одного хоста. Поля меняются только под блокировкой хоста.
+     */
+    private static final class HostQueue {
+        
+        final String host;
+        final TreeSet<Ranked> pending;
+        long delay;
+        long nextReady;
+        int active;
+        
+        /**
+         * Запись хоста в готовых, ожидающих или удаляемых, или null.
+         */
+        Slot slot;
+        
+        /**
+         * Хост удалён из hosts: add должен взять новую очередь.
+         */
+        boolean removed;
+        
+        HostQueue(String name, Comparator<Ranked> rank, long now,
+                long hostDelay) {
+            
+            host = name;
+            pending = new TreeSet<>(rank);
+            nextReady = now;
+            delay = hostDelay;
+        }
+    }
+    
+    /**
+     * Запись хоста в готовых, ожидающих или удаляемых. Ключ не меняется:
+     * при изменении хоста старая запись вынимается, а кладётся новая.
+     */
+    private static final class Slot {
+        
+        final HostQueue queue;
+        
+        /**
+         * Лучший URL хоста в момент постановки или null у удаляемого.
+         */
+        final Ranked best;
+        
+        final long readyAt;
+        final long id;
+        
+        /**
+         * Таблица, в которой лежит запись.
+         */
+        final Map<Slot, HostQueue> owner;
+        
+        Slot(HostQueue hostQueue, Ranked first, long time, long number,
+                Map<Slot, HostQueue> table) {
+            
+            queue = hostQueue;
+            best = first;
+            readyAt = time;
+            id = number;
+            owner = table;
+        }
+    }
+    
+    private static final Comparator<Slot> BY_TIME = Comparator
+            .<Slot>comparingLong(slot -> slot.readyAt)
+            .thenComparingLong(slot -> slot.id);
+    
+    private final Mode mode;
+    private final URLScorer scorer;
+    private final Comparator<Ranked> rank;
+    
+    private final Map<String, HostQueue> hosts = new ConcurrentHashMap<>();
+    
+    /**
+     * Готовые хосты по лучшему URL. Порядок поступления у всех URL разный,
+     * поэтому разные хосты не считаются одинаковыми.
+     */
+    private final ConcurrentSkipListMap<Slot, HostQueue> ready;
+    
+    /**
+     * Хосты с URL и свободными местами, ожидающие задержки, по времени
+     * готовности.
+     */
+    private final ConcurrentSkipListMap<Slot, HostQueue> waiting =
+            new ConcurrentSkipListMap<>(BY_TIME);
+    
+    /**
+     * Хосты без URL и без запросов по времени, когда их можно удалить.
+     */
+    private final ConcurrentSkipListMap<Slot, HostQueue> expiring =
+            new ConcurrentSkipListMap<>(BY_TIME);
+    
+    /**
+     * Ожидающие URL по отпечатку - для учёта новых ссылок в режиме BEST.
+     */
+    private final Map<Long, Ranked> queued = new ConcurrentHashMap<>();
+    
+    /**
+     * Сколько URL каждой глубины ждёт или загружается - для барьера в
+     * режиме LEVELS. Пустые уровни удаляются.
+     */
+    private final ConcurrentSkipListMap<Integer, Integer> levels =
+            new ConcurrentSkipListMap<>();
+    
+    private final IdleWorkers idle = new IdleWorkers();
+    private final long delayNanos;
+    private final int maxActive;
+    private final ConcurrencyLimiter limiter;
+    private final RobotsCache robots;
+    private final LongAdder size = new LongAdder();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();
+    
+    /**
+     * @param orderMode порядок выдачи URL
+     * @param urlScorer оценка URL для режима BEST или null
+     * @param hostDelayMillis минимальная задержка между запросами к хосту
+     * @param hostConcurrency максимум одновременных запросов к хосту
+     * @param concurrencyLimiter адаптивные пределы или null
+     * @param robotsCache источник Crawl-delay хостов или null
+     */
+    public PriorityFrontier(Mode orderMode, URLScorer urlScorer,
+            long hostDelayMillis, int hostConcurrency,
+            ConcurrencyLimiter concurrencyLimiter, RobotsCache robotsCache) {
+        
+        mode = orderMode;
+        scorer = urlScorer == null ? URLScorer.IN_LINKS : urlScorer;
+        delayNanos = TimeUnit.MILLISECONDS.toNanos(hostDelayMillis);
+        maxActive = Math.max(1, hostConcurrency);
+        limiter = concurrencyLimiter;
+        robots = robotsCache;
+        
+        Comparator<Ranked> byDepth = Comparator.comparingInt(
+                ranked -> ranked.depthPair.getDepth());
+        Comparator<Ranked> byOrder = Comparator.comparingLong(
+                ranked -> ranked.order);
+        
+        rank = mode == Mode.LEVELS ? byDepth.thenComparing(byOrder)
+                : Comparator.<Ranked>comparingDouble(ranked -> -ranked.score)
+                        .thenComparing(byDepth).thenComparing(byOrder);
+        
+        ready = new ConcurrentSkipListMap<>((first, second) -> rank.compare(
+                first.best, second.best));
+    }
+    
+    @Override
+    public void add(URLDepthPair depthPair) {
+        
+        String host = hostOf(depthPair);
+        Ranked ranked;
+        
+        if (mode == Mode.BEST) {
+            
+            long fingerprint = depthPair.fingerprint();
+            ranked = new Ranked(depthPair, fingerprint, scorer.score(
+                    depthPair, 1), 1, sequence.getAndIncrement());
+        }
+        
+        else {
+            
+            ranked = new Ranked(depthPair, 0, 0, 0,
+                    sequence.getAndIncrement());
+        }
+        
+        /**
+         * Уровень учитывается раньше, чем URL можно забрать: иначе его
+         * release мог бы открыть следующий уровень раньше времени.
+         */
+        levels.merge(depthPair.getDepth(), 1, Integer::sum);
+        size.increment();
+        
+        while (true) {
+            
+            long now = System.nanoTime();
+            HostQueue queue = hosts.computeIfAbsent(host,
+                    name -> new HostQueue(name, rank, now, delayOf(name)));
+            
+            synchronized (queue) {
+                
+                if (queue.removed) {
+                    
+                    continue;
+                }
+                
+                unschedule(queue);
+                queue.pending.add(ranked);
+                
+                /**
+                 * URL виден relink только вместе с записью в множестве
+                 * хоста, иначе новая оценка добавила бы его второй раз.
+                 */
+                if (mode == Mode.BEST) {
+                    
+                    queued.put(ranked.fingerprint, ranked);
+                }
+                
+                schedule(queue, now);
+                break;
+            }
+        }
+        
+        /**
+         * Будим поток, даже если хост ещё ждёт задержки: спящий без срока
+         * поток должен узнать, когда хост будет готов.
+         */
+        idle.wakeOne();
+    }
+    
+    /**
+     * В режиме BEST пересчитывает оценку ожидающего URL с учётом новой
+     * ссылки.
+     */
+    @Override
+    public void relink(URLDepthPair depthPair) {
+        
+        if (mode != Mode.BEST) {
+            
+            return;
+        }
+        
+        Ranked old = queued.get(depthPair.fingerprint());
+        HostQueue queue = old == null ? null
+                : hosts.get(hostOf(old.depthPair));
+        
+        if (queue == null) {
+            
+            return;
+        }
+        
+        synchronized (queue) {
+            
+            /**
+             * URL уже выдан или его оценку успел обновить другой поток.
+             */
+            if (queued.get(old.fingerprint) != old) {
+                
+                return;
+            }
+            
+            Ranked fresh = new Ranked(old.depthPair, old.fingerprint,
+                    scorer.score(old.depthPair, old.inLinks + 1),
+                    old.inLinks + 1, old.order);
+            
+            unschedule(queue);
+            queue.pending.remove(old);
+            queue.pending.add(fresh);
+            queued.put(fresh.fingerprint, fresh);
+            schedule(queue, System.nanoTime());
+        }
+    }
+    
+    @Override
+    public URLDepthPair poll(long now) {
+        
+        settle(expiring, now);
+        settle(waiting, now);
+        
+        for (Slot slot : ready.keySet()) {
+            
+            /**
+             * Хосты упорядочены по глубине лучшего URL: если этот ещё
+             * закрыт, закрыты и все следующие.
+             */
+            if (!isOpen(slot.best) || !reserve()) {
+                
+                return null;
+            }
+            
+            HostQueue queue = slot.queue;
+            
+            synchronized (queue) {
+                
+                /**
+                 * Запись могла устареть, пока поток до неё дошёл.
+                 */
+                if (queue.slot == slot) {
+                    
+                    unschedule(queue);
+                    Ranked ranked = queue.pending.pollFirst();
+                    
+                    if (mode == Mode.BEST) {
+                        
+                        queued.remove(ranked.fingerprint);
+                    }
+                    
+                    size.decrement();
+                    ++queue.active;
+                    
+                    /**
+                     * Следующий запрос к хосту не раньше, чем через
+                     * задержку.
+                     */
+                    queue.nextReady = now + queue.delay;
+                    schedule(queue, now);
+                    return ranked.depthPair;
+                }
+            }
+            
+            active.decrementAndGet();
+        }
+        
+        return null;
+    }
+    
+    @Override
+    public long readyDelay(long now) {
+        
+        if (isSaturated()) {
+            
+            return -1;
+        }
+        
+        settle(waiting, now);
+        Map.Entry<Slot, HostQueue> first = ready.firstEntry();
+        
+        if (first != null && isOpen(first.getKey().best)) {
+            
+            return 0;
+        }
+        
+        /**
+         * Ожидающий хост может держать URL текущего уровня; если нет, после
+         * его готовности задержка станет -1.
+         */
+        first = waiting.firstEntry();
+        return first == null ? -1
+                : Math.max(0, first.getKey().readyAt - now);
+    }
+    
+    @Override
+    public boolean release(URLDepthPair depthPair, long now) {
+        
+        HostQueue queue = hosts.get(hostOf(depthPair));
+        
+        if (queue != null) {
+            
+            synchronized (queue) {
+                
+                unschedule(queue);
+                --queue.active;
+                queue.delay = delayOf(queue.host);
+                queue.nextReady = Math.max(queue.nextReady,
+                        now + queue.delay);
+                schedule(queue, now);
+            }
+        }
+        
+        active.decrementAndGet();
+        
+        /**
+         * Последняя страница уровня загружена - открывается следующий.
+         * Тогда будит всех пул, иначе хватит одного потока: хост пары мог
+         * освободиться.
+         */
+        int depth = depthPair.getDepth();
+        
+        if (levels.merge(depth, -1, (count, change) -> count + change == 0
+                ? null : count + change) == null && mode == Mode.LEVELS) {
+            
+            Map.Entry<Integer, Integer> next = levels.firstEntry();
+            
+            if (next != null && next.getKey() > depth) {
+                
+                return true;
+            }
+        }
+        
+        idle.wakeOne();
+        return false;
+    }
+    
+    @Override
+    public long size() {
+        
+        return size.sum();
+    }
+    
+    @Override
+    public void park(BooleanSupplier ready, long nanos) {
+        
+        idle.park(ready, nanos);
+    }
+    
+    @Override
+    public void wakeAll() {
+        
+        idle.wakeAll();
+    }
+    
+    @Override
+    public int getIdle() {
+        
+        return idle.getIdle();
+    }
+    
+    /**
+     * @return самая малая глубина, страницы которой ещё не загружены, или
+     * -1, если очередь пуста
+     */
+    public int getLevel() {
+        
+        Map.Entry<Integer, Integer> first = levels.firstEntry();
+        return first == null ? -1 : first.getKey();
+    }
+    
+    /**
+     * В режиме LEVELS URL можно выдать, только если он с текущего уровня.
+     */
+    private boolean isOpen(Ranked ranked) {
+        
+        if (mode != Mode.LEVELS) {
+            
+            return true;
+        }
+        
+        Map.Entry<Integer, Integer> first = levels.firstEntry();
+        return first == null
+                || ranked.depthPair.getDepth() <= first.getKey();
+    }
+    
+    /**
+     * Заново ставит хосты, срок которых в таблице прошёл: ожидающие
+     * переходят в готовые, удаляемые удаляются.
+     */
+    private void settle(ConcurrentSkipListMap<Slot, HostQueue> table,
+            long now) {
+        
+        Map.Entry<Slot, HostQueue> first;
+        
+        while ((first = table.firstEntry()) != null
+                && first.getKey().readyAt - now <= 0) {
+            
+            HostQueue queue = first.getValue();
+            
+            synchronized (queue) {
+                
+                if (queue.slot == first.getKey()) {
+                    
+                    unschedule(queue);
+                    schedule(queue, now);
+                }
+                
+                else {
+                    
+                    table.remove(first.getKey(), queue);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Кладёт хост в готовые или в ожидающие, если у него есть URL и
+     * свободное место. Хост без URL и запросов удаляется, если его задержка
+     * прошла, иначе ждёт этого в удаляемых. Вызывается под блокировкой
+     * хоста.
+     */
+    private void schedule(HostQueue queue, long now) {
+        
+        boolean delayed = queue.nextReady - now > 0;
+        
+        if (queue.pending.isEmpty()) {
+            
+            if (queue.active > 0) {
+                
+                return;
+            }
+            
+            if (!delayed) {
+                
+                queue.removed = true;
+                hosts.remove(queue.host, queue);
+                return;
+            }
+            
+            queue.slot = new Slot(queue, null, queue.nextReady,
+                    sequence.getAndIncrement(), expiring);
+        }
+        
+        else if (queue.active >= hostLimit(queue.host)) {
+            
+            return;
+        }
+        
+        else {
+            
+            queue.slot = new Slot(queue, queue.pending.first(),
+                    queue.nextReady, sequence.getAndIncrement(),
+                    delayed ? waiting : ready);
+        }
+        
+        queue.slot.owner.put(queue.slot, queue);
+    }
+    
+    /**
+     * Вынимает запись хоста перед его изменением. Вызывается под
+     * блокировкой хоста.
+     */
+    private void unschedule(HostQueue queue) {
+        
+        if (queue.slot != null) {
+            
+            queue.slot.owner.remove(queue.slot, queue);
+            queue.slot = null;
+        }
+    }
+    
+    /**
+     * Занимает место в общем пределе ConcurrencyLimiter, если оно есть.
+     */
+    private boolean reserve() {
+        
+        int limit = limiter == null ? Integer.MAX_VALUE : limiter.getLimit();
+        
+        while (true) {
+            
+            int current = active.get();
+            
+            if (current >= limit) {
+                
+                return false;
+            }
+            
+            if (active.compareAndSet(current, current + 1)) {
+                
+                return true;
+            }
+        }
+    }
+    
+    private long delayOf(String host) {
+        
+        return robots == null ? delayNanos
+                : Math.max(delayNanos, robots.getCrawlDelay(host));
+    }
+    
+    private int hostLimit(String host) {
+        
+        return limiter == null ? maxActive
+                : Math.min(maxActive, limiter.getHostLimit(host));
+    }
+    
+    private boolean isSaturated() {
+        
+        return limiter != null && active.get() >= limiter.getLimit();
+    }
+    
+    private static String hostOf(URLDepthPair depthPair) {
+        
+        String host = depthPair.getWebHost();
+        return host == null ? "" : host;
+    }
+}
@@ -0,0 +1,217 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Общий кэш постоянных перенаправлений (301 и 308). Запоминаются два вида
+ * правил:
+ * - точное: URL -> URL, например добавление косой черты в конце пути;
+ * - правило начала: если перенаправление меняет только схему, хост или
+ * порт, а путь оставляет тем же (http -> https, example.com ->
+ * www.example.com), оно применяется ко всем URL этого начала.
+ * Перед запросом URL пропускается через кэш, и страница сразу загружается
+ * по конечному адресу без промежуточных ответов 3xx.
+ *
+ * Временные перенаправления (302, 303, 307) не запоминаются: их цель может
+ * меняться. Точные правила хранятся не больше заданного количества,
+ * вытесняются давно не использованные.
+ * @author sergeychaika
+ */
+public class RedirectCache {
+    
+    /**
+     * Сколько правил подряд можно применить к одному URL; больше бывает
+     * только при зацикленных правилах.
+     */
+    private static final int MAX_STEPS = 8;
+    
+    private final int maxEntries;
+    
+    /**
+     * Точные правила по отпечатку URL в порядке последнего использования.
+     */
+    private final LinkedHashMap<Long, String> exact;
+    
+    /**
+     * Правила начала: "http://host" -> "https://host".
+     */
+    private final ConcurrentHashMap<String, String> origins =
+            new ConcurrentHashMap<>();
+    
+    /**
+     * Статистика.
+     */
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder learned = new LongAdder();
+    
+    /**
+     * @param maxExactEntries наибольшее количество точных правил
+     */
+    public RedirectCache(int maxExactEntries) {
+        
+        maxEntries = maxExactEntries;
+        exact = new LinkedHashMap<Long, String>(1024, 0.75f, true) {
+            
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Long, String> eldest) {
+                
+                return size() > maxEntries;
+            }
+        };
+    }
+    
+    /**
+     * Конечный адрес URL по известным правилам.
+     * @param URL исходный URL
+     * @return URL после всех известных перенаправлений или исходный URL
+     */
+    public String resolve(String URL) {
+        
+        String target = follow(URL);
+        
+        if (target == null) {
+            
+            return URL;
+        }
+        
+        if (!target.equals(URL)) {
+            
+            hits.increment();
+        }
+        
+        return target;
+    }
+    
+    /**
+     * Запоминает перенаправление, если оно постоянное.
+     * @param from запрошенная пара
+     * @param code код ответа
+     * @param target абсолютный URL перенаправления
+     */
+    public void record(URLDepthPair from, int code, String target) {
+        
+        if (code != 301 && code != 308) {
+            
+            return;
+        }
+        
+        String source = from.getURL();
+        
+        /**
+         * Правило, замыкающее круг, не запоминается: по кругу сервер
+         * перенаправляет сам, и это обнаружит загрузчик.
+         */
+        String end = follow(target);
+        
+        if (end == null || end.equals(source)) {
+            
+            return;
+        }
+        
+        String prefix = from.getOriginPrefix();
+        String path = source.substring(prefix.length());
+        
+        /**
+         * Путь не изменился, изменилось только начало - правило для всего
+         * начала.
+         */
+        if (target.length() > path.length() && target.endsWith(path)) {
+            
+            String targetPrefix = target.substring(0, target.length()
+                    - path.length());
+            
+            if (targetPrefix.indexOf('/', targetPrefix.indexOf("://") + 3)
+                    < 0 && !targetPrefix.equals(prefix)) {
+                
+                if (origins.put(prefix, targetPrefix) == null) {
+                    
+                    learned.increment();
+                }
+                
+                return;
+            }
+        }
+        
+        synchronized (this) {
+            
+            if (exact.put(URLFingerprint.of(source), target) == null) {
+                
+                learned.increment();
+            }
+        }
+    }
+    
+    @Override
+    public synchronized String toString() {
+        
+        return String.format("Кэш перенаправлений: правил для URL %d, для "
+                + "хостов %d, выучено %d, запросов сразу по конечному адресу "
+                + "%d", exact.size(), origins.size(), learned.sum(),
+                hits.sum());
+    }
+    
+    /**
+     * Проходит по правилам от URL.
+     * @return конечный URL или null, если правила зациклены
+     */
+    private String follow(String URL) {
+        
+        String current = URL;
+        
+        for (int step = 0; step < MAX_STEPS; ++step) {
+            
+            String next = lookup(current);
+            
+            if (next == null || next.equals(current)) {
+                
+                return current;
+            }
+            
+            if (next.equals(URL)) {
+                
+                return null;
+            }
+            
+            current = next;
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Один шаг: сначала точное правило, потом правило начала.
+     */
+    private String lookup(String URL) {
+        
+        String target;
+        
+        synchronized (this) {
+            
+            target = exact.get(URLFingerprint.of(URL));
+        }
+        
+        if (target != null) {
+            
+            return target;
+        }
+        
+        int end = URL.indexOf("://");
+        
+        if (end < 0) {
+            
+            return null;
+        }
+        
+        end += 3;
+        
+        while (end < URL.length() && "/?#".indexOf(URL.charAt(end)) < 0) {
+            
+            ++end;
+        }
+        
+        String prefix = origins.get(URL.substring(0, end));
+        return prefix == null ? null : prefix + URL.substring(end);
+    }
+}
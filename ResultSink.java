@@ -0,0 +1,24 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Получатель результатов обхода. Пул URL передаёт сюда каждую пару, как
+ * только она обработана, поэтому результаты видны во время обхода и не
+ * накапливаются в памяти. Реализации должны быть потокобезопасными.
+ * @author sergeychaika
+ */
+public interface ResultSink extends Closeable {
+    
+    /**
+     * Записывает результат обработки одной пары.
+     * @param result результат
+     * @throws IOException ошибка записи
+     */
+    void write(FetchResult result) throws IOException;
+    
+    /**
+     * Сбрасывает накопленные записи.
+     * @throws IOException ошибка записи
+     */
+    void flush() throws IOException;
+}
@@ -0,0 +1,400 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Общий кэш правил robots.txt по началам URL (схема, хост и порт).
+ * robots.txt загружается один раз при первой ссылке на хост, компилируется
+ * в RobotsRules и хранится заданное время; хостов в кэше не больше
+ * заданного количества, вытесняются давно не использованные. Пока файл
+ * загружается, остальные потоки ждут этот же ответ, как в DnsCache.
+ *
+ * Пул URL проверяет каждую новую ссылку до постановки в очередь, поэтому
+ * запрещённый URL не занимает места в очереди и не загружается. Crawl-delay
+ * хостов доступен очереди через getCrawlDelay.
+ *
+ * По RFC 9309 ответ 4xx означает, что ограничений нет, а ошибка сети или
+ * ответ 5xx - что запрещено всё; такой результат хранится меньшее время.
+ * @author sergeychaika
+ */
+public class RobotsCache {
+    
+    /**
+     * Сколько байтов robots.txt разбирать (RFC 9309 требует не меньше
+     * 500 КиБ).
+     */
+    private static final int MAX_BYTES = 512 * 1024;
+    
+    /**
+     * Сколько перенаправлений проходить при загрузке robots.txt.
+     */
+    private static final int MAX_REDIRECTS = 5;
+    
+    /**
+     * Наибольший Crawl-delay, который соблюдается: больший означает, что
+     * хост фактически обходить нельзя, и ограничивается.
+     */
+    private static final long MAX_CRAWL_DELAY = TimeUnit.SECONDS.toNanos(60);
+    
+    /**
+     * Запись кэша. Срок годности выставляется до завершения future.
+     */
+    private static final class Cached {
+        
+        final CompletableFuture<RobotsRules> rules =
+                new CompletableFuture<>();
+        volatile long expires;
+        
+        boolean isFresh(long now) {
+            
+            return !rules.isDone() || now - expires < 0;
+        }
+    }
+    
+    private final ConnectionPool connections;
+    private final String agent;
+    private final int maxHosts;
+    private final long ttlNanos;
+    private final long errorTtlNanos;
+    
+    /**
+     * Записи по началу URL в порядке последнего использования.
+     */
+    private final LinkedHashMap<String, Cached> entries;
+    
+    /**
+     * Crawl-delay по имени хоста и началу URL. Каждая загрузка robots.txt
+     * заменяет значение своего начала URL, поэтому после обновления
+     * правил действует новый Crawl-delay, а не наибольший из прежних.
+     * Вложенные таблицы не изменяются, а заменяются целиком.
+     */
+    private final ConcurrentHashMap<String, Map<String, Long>> crawlDelays =
+            new ConcurrentHashMap<>();
+    
+    /**
+     * Статистика.
+     */
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder loaded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder disallowed = new LongAdder();
+    
+    /**
+     * @param pool пул соединений для загрузки robots.txt
+     * @param userAgent имя нашего агента в robots.txt
+     * @param maxEntries сколько хостов хранить
+     * @param ttlMillis сколько хранить правила хоста
+     */
+    public RobotsCache(ConnectionPool pool, String userAgent, int maxEntries,
+            long ttlMillis) {
+        
+        if (maxEntries < 1 || ttlMillis < 1) {
+            
+            throw new IllegalArgumentException("Размер и время хранения кэша "
+                    + "robots.txt должны быть больше нуля");
+        }
+        
+        connections = pool;
+        agent = userAgent;
+        maxHosts = maxEntries;
+        ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        errorTtlNanos = Math.min(ttlNanos, TimeUnit.MINUTES.toNanos(5));
+        entries = new LinkedHashMap<String, Cached>(1024, 0.75f, true) {
+            
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, Cached> eldest) {
+                
+                return size() > maxHosts;
+            }
+        };
+    }
+    
+    /**
+     * Проверяет URL по правилам его хоста. Если правил в кэше нет,
+     * robots.txt загружается в текущем потоке.
+     * @param depthPair пара <URL, глубина>
+     * @return true, если URL можно загружать
+     */
+    public boolean allows(URLDepthPair depthPair) {
+        
+        boolean result = rulesFor(depthPair).allows(
+                depthPair.getPathWithQuery());
+        
+        (result ? allowed : disallowed).increment();
+        return result;
+    }
+    
+    /**
+     * @param host имя хоста
+     * @return Crawl-delay хоста в наносекундах (наибольший из его начал
+     * URL) или 0, если он неизвестен
+     */
+    public long getCrawlDelay(String host) {
+        
+        Map<String, Long> delays = crawlDelays.get(host);
+        long delay = 0;
+        
+        if (delays != null) {
+            
+            for (long value : delays.values()) {
+                
+                delay = Math.max(delay, value);
+            }
+        }
+        
+        return delay;
+    }
+    
+    @Override
+    public String toString() {
+        
+        int size;
+        
+        synchronized (entries) {
+            
+            size = entries.size();
+        }
+        
+        return String.format("robots.txt: хостов в кэше %d, загружено %d, "
+                + "недоступно %d, из кэша %d, URL разрешено %d, запрещено %d, "
+                + "хостов с Crawl-delay %d", size, loaded.sum(), failed.sum(),
+                hits.sum(), allowed.sum(), disallowed.sum(),
+                crawlDelays.size());
+    }
+    
+    /**
+     * Правила хоста из кэша или только что загруженные.
+     */
+    private RobotsRules rulesFor(URLDepthPair depthPair) {
+        
+        String origin = depthPair.getOriginPrefix();
+        Cached entry;
+        boolean started = false;
+        
+        synchronized (entries) {
+            
+            entry = entries.get(origin);
+            
+            if (entry == null || !entry.isFresh(System.nanoTime())) {
+                
+                entry = new Cached();
+                entries.put(origin, entry);
+                started = true;
+            }
+        }
+        
+        if (started) {
+            
+            load(depthPair, entry);
+        }
+        
+        else {
+            
+            hits.increment();
+        }
+        
+        return entry.rules.join();
+    }
+    
+    /**
+     * Загружает и компилирует robots.txt. Запись всегда завершается
+     * правилами, даже при ошибке.
+     */
+    private void load(URLDepthPair depthPair, Cached entry) {
+        
+        RobotsRules rules;
+        long ttl = ttlNanos;
+        
+        try {
+            
+            String text = download(depthPair);
+            rules = text == null ? RobotsRules.ALLOW_ALL
+                    : RobotsRules.parse(text, agent);
+            loaded.increment();
+        }
+        
+        catch (IOException | RuntimeException e) {
+            
+            System.err.println("robots.txt " + depthPair.getOriginPrefix()
+                    + ": " + e.getMessage());
+            failed.increment();
+            rules = RobotsRules.DISALLOW_ALL;
+            ttl = errorTtlNanos;
+        }
+        
+        String origin = depthPair.getOriginPrefix();
+        long delay = Math.min(rules.getCrawlDelay(), MAX_CRAWL_DELAY);
+        
+        crawlDelays.compute(depthPair.getWebHost(), (host, delays) -> {
+            
+            Map<String, Long> updated = delays == null ? new HashMap<>()
+                    : new HashMap<>(delays);
+            
+            if (delay > 0) {
+                
+                updated.put(origin, delay);
+            }
+            
+            else {
+                
+                updated.remove(origin);
+            }
+            
+            return updated.isEmpty() ? null : updated;
+        });
+        
+        entry.expires = System.nanoTime() + ttl;
+        entry.rules.complete(rules);
+    }
+    
+    /**
+     * Загружает robots.txt, проходя перенаправления.
+     * @return текст файла или null, если его нет
+     * @throws IOException ошибка сети или ответ 5xx
+     */
+    private String download(URLDepthPair depthPair) throws IOException {
+        
+        URLDepthPair target = robotsOf(depthPair.getOriginPrefix());
+        
+        for (int hop = 0; hop <= MAX_REDIRECTS; ++hop) {
+            
+            /**
+             * Соединение из пула могло быть закрыто сервером: тогда запрос
+             * повторяется один раз через новое соединение.
+             */
+            HttpConnection connection = null;
+            HttpResponse response = null;
+            
+            for (int attempt = 0; response == null; ++attempt) {
+                
+                connection = connections.acquire(target.getScheme(),
+                        target.getWebHost(), target.getPort());
+                boolean reused = connection.beginRequest();
+                
+                try {
+                    
+                    response = request(connection, target);
+                }
+                
+                catch (IOException e) {
+                    
+                    connections.release(connection, false);
+                    
+                    if (!reused || attempt > 0) {
+                        
+                        throw e;
+                    }
+                }
+            }
+            
+            boolean reusable = false;
+            
+            try {
+                
+                int code = response.getStatusCode();
+                
+                if (code / 100 == 2) {
+                    
+                    String text = readText(response.getBody());
+                    reusable = response.finish(0);
+                    return text;
+                }
+                
+                reusable = response.finish(MAX_BYTES);
+                
+                if (code / 100 == 3 && code != 304) {
+                    
+                    String next = PageFetcher.redirectTarget(target,
+                            response);
+                    
+                    if (next == null) {
+                        
+                        return null;
+                    }
+                    
+                    target = new URLDepthPair(next, 0);
+                    continue;
+                }
+                
+                if (code >= 500) {
+                    
+                    throw new IOException("код ответа " + code);
+                }
+                
+                return null;
+            }
+            
+            finally {
+                
+                connections.release(connection, reusable);
+            }
+        }
+        
+        /**
+         * Слишком длинная цепочка перенаправлений - как отсутствие файла.
+         */
+        return null;
+    }
+    
+    /**
+     * Отправляет запрос и читает заголовки ответа.
+     */
+    private static HttpResponse request(HttpConnection connection,
+            URLDepthPair target) throws IOException {
+        
+        String request = "GET " + target.getPathWithQuery() + " HTTP/1.1\r\n"
+                + "Host: " + target.getHostHeader() + "\r\n"
+                + "Accept-Encoding: " + PageFetcher.ACCEPT_ENCODING + "\r\n"
+                + "Connection: keep-alive\r\n"
+                + "\r\n";
+        
+        OutputStream outStream = connection.getOutputStream();
+        outStream.write(request.getBytes(StandardCharsets.ISO_8859_1));
+        outStream.flush();
+        
+        return HttpResponse.read(connection.getInputStream(), false);
+    }
+    
+    /**
+     * Читает не больше MAX_BYTES байтов тела.
+     */
+    private static String readText(InputStream body) throws IOException {
+        
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        
+        while (text.size() < MAX_BYTES && (count = body.read(buffer, 0,
+                Math.min(buffer.length, MAX_BYTES - text.size()))) >= 0) {
+            
+            text.write(buffer, 0, count);
+        }
+        
+        return new String(text.toByteArray(), StandardCharsets.UTF_8);
+    }
+    
+    private static URLDepthPair robotsOf(String origin) throws IOException {
+        
+        try {
+            
+            return new URLDepthPair(origin + "/robots.txt", 0);
+        }
+        
+        catch (MalformedURLException e) {
+            
+            throw new IOException(e.getMessage());
+        }
+    }
+}
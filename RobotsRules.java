@@ -0,0 +1,320 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Правила robots.txt одного хоста, скомпилированные для быстрой проверки.
+ * Из файла берутся только группы для нашего агента (или группы "*", если
+ * для нашего агента групп нет), а их правила Allow и Disallow сортируются
+ * по убыванию длины шаблона. Тогда первое совпавшее правило - самое
+ * длинное, как требует RFC 9309, а при равной длине Allow стоит раньше
+ * Disallow. Шаблоны без * и $ проверяются простым startsWith, остальные -
+ * сопоставлением с подстановкой без регулярных выражений.
+ * @author sergeychaika
+ */
+public class RobotsRules {
+    
+    /**
+     * Правила, разрешающие всё: robots.txt нет (ответ 4xx).
+     */
+    public static final RobotsRules ALLOW_ALL = new RobotsRules(
+            new ArrayList<>(), 0);
+    
+    /**
+     * Правила, запрещающие всё: robots.txt недоступен (ошибка сети или
+     * ответ 5xx).
+     */
+    public static final RobotsRules DISALLOW_ALL;
+    
+    static {
+        
+        List<Rule> all = new ArrayList<>();
+        all.add(new Rule("/", false));
+        DISALLOW_ALL = new RobotsRules(all, 0);
+    }
+    
+    /**
+     * Одно правило Allow или Disallow.
+     */
+    private static final class Rule {
+        
+        final String pattern;
+        final boolean allow;
+        
+        Rule(String path, boolean allowed) {
+            
+            pattern = path;
+            allow = allowed;
+        }
+    }
+    
+    private final String[] patterns;
+    private final boolean[] allows;
+    
+    /**
+     * Шаблон без * и $ - проверка по началу пути.
+     */
+    private final boolean[] literal;
+    
+    private final long crawlDelayNanos;
+    
+    private RobotsRules(List<Rule> rules, long delayNanos) {
+        
+        /**
+         * Сначала длинные шаблоны, при равной длине сначала Allow.
+         */
+        Rule[] sorted = rules.toArray(new Rule[0]);
+        Arrays.sort(sorted, (first, second) -> first.pattern.length()
+                != second.pattern.length()
+                ? second.pattern.length() - first.pattern.length()
+                : Boolean.compare(second.allow, first.allow));
+        
+        patterns = new String[sorted.length];
+        allows = new boolean[sorted.length];
+        literal = new boolean[sorted.length];
+        
+        for (int index = 0; index < sorted.length; ++index) {
+            
+            patterns[index] = sorted[index].pattern;
+            allows[index] = sorted[index].allow;
+            literal[index] = patterns[index].indexOf('*') < 0
+                    && !patterns[index].endsWith("$");
+        }
+        
+        crawlDelayNanos = delayNanos;
+    }
+    
+    /**
+     * Разбирает robots.txt.
+     * @param text содержимое файла
+     * @param agent имя нашего агента без версии, например "crawler"
+     * @return правила для агента
+     */
+    public static RobotsRules parse(String text, String agent) {
+        
+        String token = agent.toLowerCase(Locale.ROOT);
+        
+        List<Rule> own = new ArrayList<>();
+        List<Rule> common = new ArrayList<>();
+        double ownDelay = -1;
+        double commonDelay = -1;
+        boolean ownFound = false;
+        
+        /**
+         * Агенты текущей группы. Строки User-agent подряд относятся к одной
+         * группе, а User-agent после правил начинает новую.
+         */
+        boolean forOwn = false;
+        boolean forCommon = false;
+        boolean inRules = false;
+        
+        for (String line : text.split("\r\n|\r|\n")) {
+            
+            int comment = line.indexOf('#');
+            
+            if (comment >= 0) {
+                
+                line = line.substring(0, comment);
+            }
+            
+            int colon = line.indexOf(':');
+            
+            if (colon < 0) {
+                
+                continue;
+            }
+            
+            String key = line.substring(0, colon).trim()
+                    .toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim();
+            
+            if (key.equals("user-agent")) {
+                
+                if (inRules) {
+                    
+                    forOwn = false;
+                    forCommon = false;
+                    inRules = false;
+                }
+                
+                String name = value.toLowerCase(Locale.ROOT);
+                
+                if (name.equals("*")) {
+                    
+                    forCommon = true;
+                }
+                
+                else if (name.equals(token)) {
+                    
+                    forOwn = true;
+                    ownFound = true;
+                }
+                
+                continue;
+            }
+            
+            if (key.equals("allow") || key.equals("disallow")) {
+                
+                inRules = true;
+                
+                /**
+                 * Пустой Disallow ничего не запрещает.
+                 */
+                if (value.isEmpty()) {
+                    
+                    continue;
+                }
+                
+                Rule rule = new Rule(value, key.equals("allow"));
+                
+                if (forOwn) {
+                    
+                    own.add(rule);
+                }
+                
+                if (forCommon) {
+                    
+                    common.add(rule);
+                }
+            }
+            
+            else if (key.equals("crawl-delay")) {
+                
+                inRules = true;
+                
+                try {
+                    
+                    double delay = Double.parseDouble(value);
+                    
+                    if (forOwn) {
+                        
+                        ownDelay = delay;
+                    }
+                    
+                    if (forCommon) {
+                        
+                        commonDelay = delay;
+                    }
+                }
+                
+                catch (NumberFormatException e) {
+                    
+                    /**
+                     * Неверное значение пропускаем.
+                     */
+                }
+            }
+        }
+        
+        double delay = ownFound ? ownDelay : commonDelay;
+        long delayNanos = delay > 0 && !Double.isInfinite(delay)
+                ? (long) (delay * TimeUnit.SECONDS.toNanos(1)) : 0;
+        
+        return new RobotsRules(ownFound ? own : common, delayNanos);
+    }
+    
+    /**
+     * @param path путь с параметрами, например "/search?q=1"
+     * @return true, если загружать путь можно
+     */
+    public boolean allows(String path) {
+        
+        /**
+         * Сам robots.txt всегда разрешён.
+         */
+        if (path.equals("/robots.txt")) {
+            
+            return true;
+        }
+        
+        for (int index = 0; index < patterns.length; ++index) {
+            
+            if (literal[index] ? path.startsWith(patterns[index])
+                    : matches(patterns[index], path)) {
+                
+                return allows[index];
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * @return Crawl-delay в наносекундах или 0
+     */
+    public long getCrawlDelay() {
+        
+        return crawlDelayNanos;
+    }
+    
+    /**
+     * @return количество правил
+     */
+    public int size() {
+        
+        return patterns.length;
+    }
+    
+    /**
+     * Сопоставление с шаблоном, где * - любая последовательность символов,
+     * а $ в конце - конец пути. Без $ шаблону достаточно совпасть с началом
+     * пути. При несовпадении возвращаемся к последней звёздочке, поэтому
+     * время линейно по длине пути для шаблона с одной звёздочкой.
+     */
+    static boolean matches(String pattern, String path) {
+        
+        int end = pattern.length();
+        boolean anchored = pattern.endsWith("$");
+        
+        if (anchored) {
+            
+            --end;
+        }
+        
+        int position = 0;
+        int offset = 0;
+        int star = -1;
+        int mark = 0;
+        
+        while (offset < path.length()) {
+            
+            if (position < end && pattern.charAt(position) == '*') {
+                
+                star = position++;
+                mark = offset;
+            }
+            
+            else if (position < end
+                    && pattern.charAt(position) == path.charAt(offset)) {
+                
+                ++position;
+                ++offset;
+            }
+            
+            else if (position == end && !anchored) {
+                
+                return true;
+            }
+            
+            else if (star >= 0) {
+                
+                position = star + 1;
+                offset = ++mark;
+            }
+            
+            else {
+                
+                return false;
+            }
+        }
+        
+        while (position < end && pattern.charAt(position) == '*') {
+            
+            ++position;
+        }
+        
+        return position == end;
+    }
+}
@@ -0,0 +1,373 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+
+/**
+ * Очередь, которая держит в памяти не больше заданного числа пар, а
+ * остальные сбрасывает на диск. Пары хранятся в другой очереди (окне),
+ * пока оно не заполнится. Дальше новые пары дописываются в конец файлов-
+ * сегментов, а когда в окне остаётся меньше половины, оно пополняется из
+ * самого старого сегмента. Пока на диске что-то есть, новые пары тоже идут
+ * на диск, поэтому порядок поступления в окно остаётся порядком добавления,
+ * и обход по-прежнему идёт в ширину. Прочитанные сегменты удаляются.
+ *
+ * Если в окне нет ни одной готовой пары (например, все его хосты ждут
+ * задержки), окно пополняется и без порога, пока не появится готовая пара,
+ * но не больше чем до удвоенного предела. Иначе хосты, пары которых лежат
+ * на диске, ждали бы, пока окно не освободится от медленных хостов.
+ * @author sergeychaika
+ */
+public class SpillingFrontier implements Frontier {
+    
+    /**
+     * Размер сегмента, после которого запись переходит в новый файл.
+     */
+    private static final long SEGMENT_BYTES = 64L * 1024 * 1024;
+    
+    private static final int BUFFER_BYTES = 64 * 1024;
+    
+    /**
+     * Заголовок записи: глубина и длина URL в байтах.
+     */
+    private static final int HEADER_BYTES = 8;
+    
+    private final Frontier window;
+    private final long windowLimit;
+    private final Path directory;
+    
+    /**
+     * Закрытые сегменты в порядке записи.
+     */
+    private final ArrayDeque<Path> segments = new ArrayDeque<>();
+    
+    private FileChannel writer;
+    private Path writing;
+    private long writtenBytes;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(
+            BUFFER_BYTES);
+    
+    private FileChannel reader;
+    private Path reading;
+    private ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    
+    private long segmentCounter;
+    private long onDisk;
+    private long spilled;
+    
+    /**
+     * @param memoryFrontier очередь для пар в памяти
+     * @param memoryLimit сколько пар держать в памяти
+     * @param spillDirectory каталог для временных сегментов
+     * @throws IOException не удалось создать каталог
+     */
+    public SpillingFrontier(Frontier memoryFrontier, long memoryLimit,
+            Path spillDirectory) throws IOException {
+        
+        window = memoryFrontier;
+        windowLimit = Math.max(1, memoryLimit);
+        Files.createDirectories(spillDirectory);
+        directory = Files.createTempDirectory(spillDirectory, "frontier");
+        readBuffer.flip();
+    }
+    
+    @Override
+    public synchronized void add(URLDepthPair depthPair) {
+        
+        if (onDisk == 0 && window.size() < windowLimit) {
+            
+            window.add(depthPair);
+            return;
+        }
+        
+        try {
+            
+            spill(depthPair);
+        }
+        
+        catch (IOException e) {
+            
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    @Override
+    public synchronized URLDepthPair poll(long now) {
+        
+        refill(now);
+        return window.poll(now);
+    }
+    
+    @Override
+    public synchronized long readyDelay(long now) {
+        
+        refill(now);
+        return window.readyDelay(now);
+    }
+    
+    @Override
+    public synchronized boolean release(URLDepthPair depthPair, long now) {
+        
+        return window.release(depthPair, now);
+    }
+    
+    @Override
+    public synchronized long size() {
+        
+        return window.size() + onDisk;
+    }
+    
+    /**
+     * @return сколько пар лежит в памяти
+     */
+    public synchronized long getMemorySize() {
+        
+        return window.size();
+    }
+    
+    /**
+     * @return сколько пар лежит на диске
+     */
+    public synchronized long getDiskSize() {
+        
+        return onDisk;
+    }
+    
+    /**
+     * Удаляет оставшиеся сегменты и каталог.
+     * @throws IOException ошибка удаления
+     */
+    public synchronized void close() throws IOException {
+        
+        if (writer != null) {
+            
+            writer.close();
+            Files.deleteIfExists(writing);
+            writer = null;
+        }
+        
+        if (reader != null) {
+            
+            reader.close();
+            Files.deleteIfExists(reading);
+            reader = null;
+        }
+        
+        for (Path segment : segments) {
+            
+            Files.deleteIfExists(segment);
+        }
+        
+        segments.clear();
+        Files.deleteIfExists(directory);
+    }
+    
+    @Override
+    public synchronized String toString() {
+        
+        return String.format("Очередь: в памяти %d, на диске %d, всего "
+                + "сброшено на диск %d", window.size(), onDisk, spilled);
+    }
+    
+    /**
+     * Дописывает пару в конец текущего сегмента.
+     */
+    private void spill(URLDepthPair depthPair) throws IOException {
+        
+        byte[] url = depthPair.getURL().getBytes(StandardCharsets.UTF_8);
+        
+        if (writer == null || writtenBytes >= SEGMENT_BYTES) {
+            
+            rotate();
+        }
+        
+        if (writeBuffer.remaining() < HEADER_BYTES + url.length) {
+            
+            flushWriter();
+        }
+        
+        if (writeBuffer.remaining() < HEADER_BYTES + url.length) {
+            
+            /**
+             * Запись длиннее буфера пишем напрямую.
+             */
+            ByteBuffer large = ByteBuffer.allocate(HEADER_BYTES + url.length);
+            large.putInt(depthPair.getDepth()).putInt(url.length).put(url);
+            large.flip();
+            
+            while (large.hasRemaining()) {
+                
+                writer.write(large);
+            }
+        }
+        
+        else {
+            
+            writeBuffer.putInt(depthPair.getDepth()).putInt(url.length)
+                    .put(url);
+        }
+        
+        writtenBytes += HEADER_BYTES + url.length;
+        ++onDisk;
+        ++spilled;
+    }
+    
+    /**
+     * Закрывает текущий сегмент и начинает новый.
+     */
+    private void rotate() throws IOException {
+        
+        closeWriter();
+        
+        writing = directory.resolve(String.format("segment-%08d",
+                segmentCounter++));
+        writer = FileChannel.open(writing, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE);
+        writtenBytes = 0;
+    }
+    
+    private void closeWriter() throws IOException {
+        
+        if (writer == null) {
+            
+            return;
+        }
+        
+        flushWriter();
+        writer.close();
+        segments.add(writing);
+        writer = null;
+        writing = null;
+    }
+    
+    private void flushWriter() throws IOException {
+        
+        writeBuffer.flip();
+        
+        while (writeBuffer.hasRemaining()) {
+            
+            writer.write(writeBuffer);
+        }
+        
+        writeBuffer.clear();
+    }
+    
+    /**
+     * Пополняет окно с диска, когда в нём остаётся не больше половины или
+     * когда в нём нет готовых пар.
+     */
+    private void refill(long now) {
+        
+        if (onDisk == 0) {
+            
+            return;
+        }
+        
+        try {
+            
+            if (window.size() <= windowLimit / 2) {
+                
+                while (onDisk > 0 && window.size() < windowLimit) {
+                    
+                    window.add(readNext());
+                    --onDisk;
+                }
+            }
+            
+            while (onDisk > 0 && window.size() < 2 * windowLimit
+                    && window.readyDelay(now) != 0) {
+                
+                window.add(readNext());
+                --onDisk;
+            }
+        }
+        
+        catch (IOException e) {
+            
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    /**
+     * Читает следующую пару из самого старого сегмента. Если все закрытые
+     * сегменты прочитаны, закрывает текущий сегмент записи и читает его.
+     */
+    private URLDepthPair readNext() throws IOException {
+        
+        while (!fill(HEADER_BYTES)) {
+            
+            if (reader != null) {
+                
+                reader.close();
+                Files.delete(reading);
+                reader = null;
+            }
+            
+            if (segments.isEmpty()) {
+                
+                closeWriter();
+            }
+            
+            reading = segments.poll();
+            reader = FileChannel.open(reading, StandardOpenOption.READ);
+            readBuffer.clear().flip();
+        }
+        
+        int depth = readBuffer.getInt();
+        int length = readBuffer.getInt();
+        
+        if (length > readBuffer.capacity()) {
+            
+            ByteBuffer larger = ByteBuffer.allocateDirect(length);
+            larger.put(readBuffer);
+            larger.flip();
+            readBuffer = larger;
+        }
+        
+        if (!fill(length)) {
+            
+            throw new IOException("Сегмент очереди повреждён: " + reading);
+        }
+        
+        byte[] url = new byte[length];
+        readBuffer.get(url);
+        
+        return new URLDepthPair(new String(url, StandardCharsets.UTF_8),
+                depth);
+    }
+    
+    /**
+     * Дочитывает сегмент в буфер, пока в нём не будет нужного числа байтов.
+     * @return false, если сегмент кончился раньше
+     */
+    private boolean fill(int bytes) throws IOException {
+        
+        if (readBuffer.remaining() >= bytes) {
+            
+            return true;
+        }
+        
+        if (reader == null) {
+            
+            return false;
+        }
+        
+        readBuffer.compact();
+        
+        while (readBuffer.position() < bytes) {
+            
+            if (reader.read(readBuffer) < 0) {
+                
+                break;
+            }
+        }
+        
+        readBuffer.flip();
+        return readBuffer.remaining() >= bytes;
+    }
+}
@@ -0,0 +1,74 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Небольшой HTTP-сервер со статистикой обхода. Слушает только локальный
+ * адрес; по GET /stats отдаёт все метрики в JSON.
+ * @author sergeychaika
+ */
+public class StatsServer {
+    
+    private final HttpServer server;
+    
+    /**
+     * Запускает сервер в отдельном потоке.
+     * @param port порт (0 - любой свободный)
+     * @param metrics метрики обхода
+     * @throws IOException порт занят
+     */
+    public StatsServer(int port, CrawlMetrics metrics) throws IOException {
+        
+        server = HttpServer.create(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/stats", exchange -> respond(exchange,
+                metrics));
+        server.start();
+    }
+    
+    /**
+     * @return порт, на котором слушает сервер
+     */
+    public int getPort() {
+        
+        return server.getAddress().getPort();
+    }
+    
+    public void stop() {
+        
+        server.stop(0);
+    }
+    
+    private static void respond(HttpExchange exchange, CrawlMetrics metrics)
+            throws IOException {
+        
+        try {
+            
+            if (!exchange.getRequestMethod().equals("GET")) {
+                
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            
+            byte[] body = metrics.toJson().getBytes(StandardCharsets.UTF_8);
+            
+            exchange.getResponseHeaders().set("Content-Type",
+                    "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            
+            try (OutputStream out = exchange.getResponseBody()) {
+                
+                out.write(body);
+            }
+        }
+        
+        finally {
+            
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Построчная запись результатов в поток через буфер. Буфер сбрасывается,
+ * когда заполнится, и не реже раза в секунду, поэтому вывод появляется во
+ * время обхода, а запись не превращается в системный вызов на каждую строку.
+ * Формат строки задают наследники.
+ * @author sergeychaika
+ */
+public abstract class StreamResultSink implements ResultSink {
+    
+    private static final long FLUSH_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    
+    private final Writer out;
+    private final boolean closeStream;
+    private final StringBuilder line = new StringBuilder(256);
+    private long lastFlush = System.nanoTime();
+    
+    /**
+     * @param stream поток для записи
+     * @param close закрывать ли поток вместе с получателем (стандартный
+     * вывод закрывать не нужно)
+     */
+    protected StreamResultSink(OutputStream stream, boolean close) {
+        
+        out = new BufferedWriter(new OutputStreamWriter(stream,
+                StandardCharsets.UTF_8), 64 * 1024);
+        closeStream = close;
+    }
+    
+    /**
+     * Добавляет к строке запись об одном результате без перевода строки.
+     * @param result результат
+     * @param to строка
+     */
+    protected abstract void format(FetchResult result, StringBuilder to);
+    
+    @Override
+    public synchronized void write(FetchResult result) throws IOException {
+        
+        line.setLength(0);
+        format(result, line);
+        line.append('\n');
+        out.append(line);
+        
+        long now = System.nanoTime();
+        
+        if (now - lastFlush >= FLUSH_INTERVAL) {
+            
+            out.flush();
+            lastFlush = now;
+        }
+    }
+    
+    @Override
+    public synchronized void flush() throws IOException {
+        
+        out.flush();
+        lastFlush = System.nanoTime();
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        
+        if (closeStream) {
+            
+            out.close();
+        }
+        
+        else {
+            
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+import java.io.OutputStream;
+
+/**
+ * Вывод результатов строками вида <глубина, URL>, как раньше печатал
+ * Crawler.
+ * @author sergeychaika
+ */
+public class TextResultSink extends StreamResultSink {
+    
+    /**
+     * @param stream поток для записи
+     * @param close закрывать ли поток вместе с получателем
+     */
+    public TextResultSink(OutputStream stream, boolean close) {
+        
+        super(stream, close);
+    }
+    
+    @Override
+    protected void format(FetchResult result, StringBuilder to) {
+        
+        to.append(result.getDepthPair().getDepth()).append('\t')
+                .append(result.getDepthPair().getURL());
+    }
+}
@@ -0,0 +1,186 @@
+import java.io.IOException;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Открывает TLS поверх уже подключённых сокетов. Контекст TLS создаётся один
+ * раз на весь обход, а его кэш клиентских сессий хранит сессии по хосту и
+ * порту, поэтому повторные соединения с хостом возобновляют сессию вместо
+ * полного рукопожатия. Контекст свой, а не общий контекст JVM, поэтому
+ * размер и время жизни кэша не меняются для остального кода. Считает полные
+ * и возобновлённые рукопожатия и время, потраченное на них.
+ * @author sergeychaika
+ */
+public class TlsConnector {
+    
+    private final SSLSocketFactory factory;
+    private final int maxSessions;
+    
+    /**
+     * Идентификатор последней сессии по хосту и порту: в TLS 1.2
+     * рукопожатие возобновило сессию, если идентификатор тот же. Когда в
+     * таблице набирается maxSessions хостов, она очищается.
+     */
+    private final ConcurrentHashMap<String, byte[]> sessionIds =
+            new ConcurrentHashMap<>();
+    
+    private final LongAdder fullHandshakes = new LongAdder();
+    private final LongAdder resumedHandshakes = new LongAdder();
+    
+    /**
+     * Рукопожатия TLS 1.3: в них сессия получает новый идентификатор и
+     * время создания и при возобновлении, поэтому снаружи SSLSocket
+     * возобновление не видно.
+     */
+    private final LongAdder unknownHandshakes = new LongAdder();
+    private final LongAdder handshakeNanos = new LongAdder();
+    
+    /**
+     * @param sessionCacheSize сколько сессий хранить
+     * @param sessionTimeoutSeconds время жизни сессии в кэше
+     * @throws IOException контекст TLS недоступен
+     */
+    public TlsConnector(int sessionCacheSize, int sessionTimeoutSeconds)
+            throws IOException {
+        
+        SSLContext context;
+        
+        try {
+            
+            context = SSLContext.getInstance("TLS");
+            context.init(null, null, null);
+        }
+        
+        catch (GeneralSecurityException e) {
+            
+            throw new IOException("TLS недоступен: " + e.getMessage(), e);
+        }
+        
+        context.getClientSessionContext().setSessionCacheSize(
+                sessionCacheSize);
+        context.getClientSessionContext().setSessionTimeout(
+                sessionTimeoutSeconds);
+        factory = context.getSocketFactory();
+        maxSessions = Math.max(1, sessionCacheSize);
+    }
+    
+    /**
+     * Выполняет рукопожатие TLS поверх подключённого сокета.
+     * @param plain подключённый сокет
+     * @param host имя хоста (для SNI, проверки сертификата и кэша сессий)
+     * @param port порт
+     * @return сокет TLS
+     * @throws IOException рукопожатие не удалось
+     */
+    public SSLSocket connect(Socket plain, String host, int port)
+            throws IOException {
+        
+        SSLSocket socket = (SSLSocket) factory.createSocket(plain, host, port,
+                true);
+        
+        /**
+         * Проверяем, что сертификат выдан этому хосту.
+         */
+        SSLParameters parameters = socket.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        socket.setSSLParameters(parameters);
+        
+        long start = System.nanoTime();
+        
+        try {
+            
+            socket.startHandshake();
+        }
+        
+        catch (IOException e) {
+            
+            socket.close();
+            throw e;
+        }
+        
+        handshakeNanos.add(System.nanoTime() - start);
+        
+        /**
+         * Возобновлённая сессия TLS 1.2 сохраняет идентификатор сессии, с
+         * которой хост был открыт в прошлый раз.
+         */
+        SSLSession session = socket.getSession();
+        
+        if (session.getProtocol().equals("TLSv1.3")) {
+            
+            unknownHandshakes.increment();
+            return socket;
+        }
+        
+        byte[] id = session.getId();
+        
+        if (sessionIds.size() >= maxSessions) {
+            
+            sessionIds.clear();
+        }
+        
+        byte[] previous = id.length == 0 ? null
+                : sessionIds.put(host + ':' + port, id);
+        
+        if (previous != null && Arrays.equals(previous, id)) {
+            
+            resumedHandshakes.increment();
+        }
+        
+        else {
+            
+            fullHandshakes.increment();
+        }
+        
+        return socket;
+    }
+    
+    public long getFullHandshakes() {
+        
+        return fullHandshakes.sum();
+    }
+    
+    public long getResumedHandshakes() {
+        
+        return resumedHandshakes.sum();
+    }
+    
+    /**
+     * @return количество рукопожатий TLS 1.3, про которые неизвестно,
+     * возобновили ли они сессию
+     */
+    public long getUnknownHandshakes() {
+        
+        return unknownHandshakes.sum();
+    }
+    
+    /**
+     * @return суммарное время рукопожатий в миллисекундах
+     */
+    public long getHandshakeMillis() {
+        
+        return handshakeNanos.sum() / 1_000_000;
+    }
+    
+    @Override
+    public String toString() {
+        
+        long total = fullHandshakes.sum() + resumedHandshakes.sum()
+                + unknownHandshakes.sum();
+        
+        return String.format("TLS: рукопожатий %d, из них возобновлено %d, "
+                + "полных %d, TLS 1.3 (возобновление не видно) %d, "
+                + "время %d мс (в среднем %.1f мс)", total,
+                resumedHandshakes.sum(), fullHandshakes.sum(),
+                unknownHandshakes.sum(), getHandshakeMillis(),
+                total == 0 ? 0.0 : (double) getHandshakeMillis() / total);
+    }
+}
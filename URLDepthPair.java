@@ -1,26 +1,97 @@
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Класс, хранящий пары <URL, глубина> для класса Crawler.
+ *
+ * URL разбирается один раз при создании пары. Начало URL до пути (схема,
+ * хост и порт) хранится в общем словаре и разделяется всеми URL этого
+ * хоста, а в самой паре остаются только ссылка на запись словаря и байты
+ * пути с параметрами. Так на каждый URL в очереди приходится два небольших
+ * объекта вместо трёх, а хост, порт, схема и путь не разбираются заново при
+ * каждом обращении.
+ *
+ * Путь проверяется при создании пары: управляющие символы запрещены, а
+ * пробелы и не-ASCII символы кодируются как %XX, поэтому путь всегда можно
+ * вставить в строку запроса. Строка URL не хранится и собирается заново в
+ * getURL; для хеширования есть fingerprint, которому строка не нужна.
  * @author sergeychaika
  */
 public class URLDepthPair {
     
     /**
-     * Поля для хранения текущего URL и текущей глубины.
+     * Словарь начал URL вида "https://host:port", общий для всех пар.
+     * Когда в нём набирается MAX_ORIGINS записей, он очищается: пары
+     * сохраняют свои записи, а новые пары заполняют словарь заново
+     * хостами, которые встречаются сейчас.
      */
-    private final String currentURL;
+    private static final ConcurrentHashMap<String, Origin> ORIGINS =
+            new ConcurrentHashMap<>();
+    
+    private static final int MAX_ORIGINS = 1 << 16;
+    
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(
+            StandardCharsets.US_ASCII);
+    
+    /**
+     * Поля для хранения текущего URL и текущей глубины. URL хранится в
+     * виде начала из словаря и остатка в ASCII.
+     */
+    private final Origin origin;
+    private final byte[] rest;
     private final int currentDepth;
     
     /**
      * Конструктор сохраняет пару <URL, глубина> в соответствии с аргументом.
      * @param URL Текущий URL.
      * @param depth Текущая глубина.
+     * @throws MalformedURLException URL не абсолютный, не http или https,
+     * без хоста или с управляющими символами в пути
      */
-    public URLDepthPair(String URL, int depth) {
+    public URLDepthPair(String URL, int depth) throws MalformedURLException {
+        
+        int authority = URL.indexOf("://");
+        
+        if (authority <= 0) {
+            
+            throw new MalformedURLException("no protocol: " + URL);
+        }
+        
+        int end = authority + 3;
+        
+        while (end < URL.length() && "/?#".indexOf(URL.charAt(end)) < 0) {
+            
+            ++end;
+        }
+        
+        String prefix = URL.substring(0, end);
+        Origin known = ORIGINS.get(prefix);
         
-        currentURL = URL;
+        if (known == null) {
+            
+            /**
+             * Новый хост разбирается стандартным классом URL; дальше все URL
+             * этого хоста берут готовую запись.
+             */
+            Origin parsed = Origin.parse(prefix);
+            
+            if (ORIGINS.size() >= MAX_ORIGINS) {
+                
+                ORIGINS.clear();
+            }
+            
+            known = ORIGINS.putIfAbsent(parsed.prefix, parsed);
+            
+            if (known == null) {
+                
+                known = parsed;
+            }
+        }
+        
+        origin = known;
+        rest = encode(URL.substring(end));
         currentDepth = depth;
     }
     
@@ -30,7 +101,27 @@ public class URLDepthPair {
      */
     public String getURL() {
         
-        return currentURL;
+        return rest.length == 0 ? origin.prefix : origin.prefix.concat(
+                new String(rest, StandardCharsets.ISO_8859_1));
+    }
+    
+    /**
+     * Отпечаток URL без сборки строки URL.
+     * @return то же, что URLFingerprint.of(getURL())
+     */
+    public long fingerprint() {
+        
+        return URLFingerprint.of(origin.prefix, rest);
+    }
+    
+    /**
+     * Метод для доступа к началу URL до пути: схеме, хосту и порту в том
+     * виде, в каком они записаны в URL.
+     * @return начало URL, например "https://example.com:8443"
+     */
+    public String getOriginPrefix() {
+        
+        return origin.prefix;
     }
     
     /** 
@@ -50,26 +141,42 @@ public class URLDepthPair {
     public String toString() {
         
         String stringDepth = Integer.toString(currentDepth);
-        return stringDepth + '\t' + currentURL;
+        return stringDepth + '\t' + getURL();
     }
     
     /** 
-     * Метод, который преобразует текущий URL в путь к файлу. 
+     * Метод, который преобразует текущий URL в путь к файлу: часть после
+     * хоста без параметров и фрагмента.
      * @return Путь к файлу.
      */
     public String getDocPath() {
         
-        try {
+        int end = 0;
+            
+        while (end < rest.length && rest[end] != '?' && rest[end] != '#') {
             
-            URL url = new URL(currentURL);
-            return url.getPath();
+            ++end;
         }
         
-        catch (MalformedURLException e) {
+        return end == 0 ? "" : new String(rest, 0, end,
+                StandardCharsets.ISO_8859_1);
+    }
+    
+    /**
+     * Метод возвращает путь вместе с параметрами, но без фрагмента.
+     * @return путь с параметрами, "/" для пустого пути
+     */
+    public String getPathWithQuery() {
+        
+        int end = 0;
+        
+        while (end < rest.length && rest[end] != '#') {
             
-            System.err.println("MalformedURLException: " + e.getMessage());
-            return null;
+            ++end;
         }
+        
+        String path = new String(rest, 0, end, StandardCharsets.ISO_8859_1);
+        return path.startsWith("/") ? path : "/" + path;
     }
     
     /**
@@ -78,16 +185,138 @@ public class URLDepthPair {
      */
     public String getWebHost() {
         
-        try {
+        return origin.host;
+    }   
+    
+    /**
+     * Метод возвращает схему текущего URL (http или https).
+     * @return Схема текущего URL.
+     */
+    public String getScheme() {
+        
+        return origin.scheme;
+    }
+    
+    /**
+     * Метод возвращает порт текущего URL. Если порт не указан, то
+     * возвращается порт по умолчанию для схемы: 80 для http, 443 для https.
+     * @return Порт текущего URL.
+     */
+    public int getPort() {
+        
+        return origin.port;
+    }
+            
+    /**
+     * Значение заголовка Host: порт указывается, только если он не
+     * стандартный для схемы.
+     * @return значение заголовка Host
+     */
+    public String getHostHeader() {
+        
+        return origin.hostHeader;
+    }
+    
+    /**
+     * @return количество разных начал URL в словаре
+     */
+    public static int getOriginCount() {
+        
+        return ORIGINS.size();
+    }
+    
+    /**
+     * Переводит путь с параметрами в байты ASCII: пробелы и не-ASCII
+     * символы кодируются в UTF-8 как %XX.
+     * @throws MalformedURLException в пути есть управляющие символы, которые
+     * нельзя отправить в строке запроса
+     */
+    private static byte[] encode(String path) throws MalformedURLException {
+        
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        int escaped = 0;
+        
+        for (byte value : bytes) {
             
-            URL url = new URL(currentURL);
-            return url.getHost();
+            if (value >= 0 && value < ' ' || value == 0x7f) {
+                
+                throw new MalformedURLException("illegal character in path: "
+                        + path);
+            }
+            
+            if (value < 0 || value == ' ') {
+                
+                ++escaped;
+            }
         }
         
-        catch (MalformedURLException e) {
+        if (escaped == 0) {
             
-            System.err.println("MalformedURLException: " + e.getMessage());
-            return null;
+            return bytes;
         }
-    }   
-}
\ No newline at end of file
+        
+        byte[] encoded = new byte[bytes.length + 2 * escaped];
+        int length = 0;
+        
+        for (byte value : bytes) {
+            
+            if (value < 0 || value == ' ') {
+                
+                encoded[length++] = '%';
+                encoded[length++] = HEX[(value >>> 4) & 0xf];
+                encoded[length++] = HEX[value & 0xf];
+            }
+            
+            else {
+                
+                encoded[length++] = value;
+            }
+        }
+        
+        return encoded;
+    }
+    
+    /**
+     * Запись словаря: начало URL до пути и разобранные из него схема, хост и
+     * порт.
+     */
+    private static final class Origin {
+        
+        private final String prefix;
+        private final String scheme;
+        private final String host;
+        private final int port;
+        private final String hostHeader;
+        
+        private Origin(String prefix, String scheme, String host, int port) {
+            
+            this.prefix = prefix;
+            this.scheme = scheme;
+            this.host = host;
+            this.port = port;
+            hostHeader = port == (scheme.equals("https") ? 443 : 80) ? host
+                    : host + ':' + port;
+        }
+        
+        static Origin parse(String prefix) throws MalformedURLException {
+            
+            URL url = new URL(prefix);
+            String scheme = url.getProtocol();
+            
+            if (!scheme.equals("http") && !scheme.equals("https")) {
+                
+                throw new MalformedURLException("unsupported protocol: "
+                        + prefix);
+            }
+            
+            if (url.getHost().isEmpty()) {
+                
+                throw new MalformedURLException("no host: " + prefix);
+            }
+            
+            return new Origin(prefix, scheme.equals("http") ? "http"
+                    : "https", url.getHost(), url.getPort() < 0
+                            ? url.getDefaultPort() : url.getPort());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Компактный 64-битный отпечаток URL для множеств просмотренных адресов.
+ * @author sergeychaika
+ */
+public final class URLFingerprint {
+    
+    private URLFingerprint() {
+    
+    }
+    
+    /**
+     * Вычисляет 64-битный хеш строки без создания промежуточных объектов.
+     * @param URL исходный URL
+     * @return отпечаток URL
+     */
+    public static long of(String URL) {
+        
+        long hash = 0xcbf29ce484222325L;
+        
+        for (int index = 0; index < URL.length(); ++index) {
+            
+            hash ^= URL.charAt(index);
+            hash *= 0x100000001b3L;
+        }
+        
+        return mix(hash ^ URL.length());
+    }
+    
+    /**
+     * Отпечаток URL, записанного началом и остатком в ASCII, без сборки
+     * строки. Совпадает с of(prefix + остаток).
+     * @param prefix начало URL
+     * @param rest остаток URL в ASCII
+     * @return отпечаток URL
+     */
+    static long of(String prefix, byte[] rest) {
+        
+        long hash = 0xcbf29ce484222325L;
+        
+        for (int index = 0; index < prefix.length(); ++index) {
+            
+            hash ^= prefix.charAt(index);
+            hash *= 0x100000001b3L;
+        }
+        
+        for (byte value : rest) {
+            
+            hash ^= value & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        
+        return mix(hash ^ (prefix.length() + rest.length));
+    }
+    
+    /**
+     * Финальное перемешивание битов (fmix64 из MurmurHash3), чтобы младшие и
+     * старшие половины отпечатка были независимы.
+     * @param hash исходное значение
+     * @return перемешанное значение
+     */
+    static long mix(long hash) {
+        
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        
+        return hash;
+    }
+}
@@ -1,5 +1,8 @@
-import java.util.ArrayList;
-import java.util.LinkedList;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** 
  * Этот класс сохраняет пары <URL, глубина> для дальнейшего поиска.
@@ -8,127 +11,681 @@ import java.util.LinkedList;
 public class URLPool {
     
     /**
-     * Список для пар <URL, глубина>, которые ещё не просмотрены.
+     * Очередь для пар <URL, глубина>, которые ещё не просмотрены.
      */
-    private final LinkedList<URLDepthPair> pendingURLs;
+    private final Frontier pendingURLs;
+    
+    /**
+     * Та же очередь, если ей не нужна блокировка пула, иначе null. С такой
+     * очередью put, get и done не захватывают блокировку пула: потоки
+     * ждут и будятся в самой очереди.
+     */
+    private final ConcurrentFrontier concurrent;
     
     /** 
-     * Список для пар <URL, глубина>, которые уже просмотрены. 
+     * Получатель результатов: сюда сразу пишутся обработанные пары и пары
+     * на максимальной глубине, поэтому список просмотренных пар в памяти не
+     * хранится.
+     */
+    private final ResultSink results;
+    
+    /**
+     * Журнал для продолжения обхода после остановки или null.
+     */
+    private final CrawlJournal journal;
+    
+    /**
+     * Кэш DNS, в котором хосты новых ссылок разрешаются заранее, или null.
+     */
+    private final DnsCache dns;
+    
+    /**
+     * Адаптивные пределы параллельности или null.
+     */
+    private final ConcurrencyLimiter limiter;
+    
+    /**
+     * Правила robots.txt, по которым проверяются новые ссылки, или null.
+     */
+    private final RobotsCache robots;
+    
+    /**
+     * Узел распределённого обхода или null.
      */
-    public LinkedList<URLDepthPair> processedURLs;
+    private volatile ClusterNode cluster;
+    
+    /**
+     * Граф ссылок, в который записываются ссылки страниц, или null.
+     */
+    private volatile LinkGraph graph;
     
     /** 
-     * Список для URL, которые уже просмотрены.
+     * Множество URL, которые уже просмотрены или стоят в очереди.
      */
-    private final ArrayList<String> seenURLs = new ArrayList<>();
+    private final VisitedSet seenURLs;
     
     /**
      * Количество потоков, которые ожидают обработки.
      */
     public int waitingThreads;
     
+    /**
+     * Количество пар, которые стоят в очереди или обрабатываются прямо
+     * сейчас. Когда счётчик падает до нуля, новых ссылок больше не будет и
+     * обход закончен. Изменяется под блокировкой пула, а с очередью с
+     * кражей работы - без неё.
+     */
+    private final AtomicInteger unfinishedURLs = new AtomicInteger();
+    
     int maxDepth;
     
     /**
-     * Конструктор для инициализации waitingThreads, processedURLs и 
-     * pendingURLs.
+     * Пары на максимальной глубине проверяются запросом HEAD, а не сразу
+     * записываются в результаты.
+     */
+    private volatile boolean checkLeaves;
+    
+    /**
+     * Конструктор для инициализации waitingThreads и pendingURLs. Результаты
+     * выводятся на экран.
      * @param maxDepthPair максимальная глубина поиска
      */
     public URLPool(int maxDepthPair) {
         
-        maxDepth = maxDepthPair;
+        this(new Builder(maxDepthPair));
+    }
+    
+    /**
+     * Настройки пула. Обязательна только глубина; по умолчанию URL
+     * хранятся в HashVisitedSet, очередь - HostFrontier без задержек, а
+     * результаты выводятся на экран. Журнала, кэша DNS, ограничителя и
+     * robots.txt по умолчанию нет.
+     */
+    public static class Builder {
+        
+        private final int maxDepth;
+        private VisitedSet visited;
+        private Frontier frontier;
+        private ResultSink sink;
+        private CrawlJournal journal;
+        private DnsCache dns;
+        private ConcurrencyLimiter limiter;
+        private RobotsCache robots;
+        
+        /**
+         * @param maxDepthPair максимальная глубина поиска
+         */
+        public Builder(int maxDepthPair) {
+            
+            maxDepth = maxDepthPair;
+        }
+        
+        /**
+         * @param visitedSet множество просмотренных URL
+         * @return этот же объект
+         */
+        public Builder visited(VisitedSet visitedSet) {
+            
+            visited = visitedSet;
+            return this;
+        }
+        
+        /**
+         * @param pending очередь пар, ожидающих загрузки
+         * @return этот же объект
+         */
+        public Builder frontier(Frontier pending) {
+            
+            frontier = pending;
+            return this;
+        }
+        
+        /**
+         * @param resultSink получатель результатов
+         * @return этот же объект
+         */
+        public Builder sink(ResultSink resultSink) {
+            
+            sink = resultSink;
+            return this;
+        }
+        
+        /**
+         * @param crawlJournal журнал обхода или null
+         * @return этот же объект
+         */
+        public Builder journal(CrawlJournal crawlJournal) {
+            
+            journal = crawlJournal;
+            return this;
+        }
+        
+        /**
+         * @param dnsCache кэш DNS для разрешения хостов заранее или null
+         * @return этот же объект
+         */
+        public Builder dns(DnsCache dnsCache) {
+            
+            dns = dnsCache;
+            return this;
+        }
+        
+        /**
+         * @param concurrencyLimiter адаптивные пределы, которым передаются
+         * результаты загрузок, или null
+         * @return этот же объект
+         */
+        public Builder limiter(ConcurrencyLimiter concurrencyLimiter) {
+            
+            limiter = concurrencyLimiter;
+            return this;
+        }
+        
+        /**
+         * @param robotsCache правила robots.txt для проверки новых ссылок или
+         * null
+         * @return этот же объект
+         */
+        public Builder robots(RobotsCache robotsCache) {
+            
+            robots = robotsCache;
+            return this;
+        }
+        
+        public URLPool build() {
+            
+            return new URLPool(this);
+        }
+    }
+    
+    private URLPool(Builder builder) {
+        
+        maxDepth = builder.maxDepth;
+        seenURLs = builder.visited != null ? builder.visited
+                : new HashVisitedSet();
         waitingThreads = 0;
-        pendingURLs = new LinkedList<>();
-        processedURLs = new LinkedList<>();
+        pendingURLs = builder.frontier != null ? builder.frontier
+                : new HostFrontier.Builder().build();
+        concurrent = pendingURLs instanceof ConcurrentFrontier
+                ? (ConcurrentFrontier) pendingURLs : null;
+        results = builder.sink != null ? builder.sink
+                : new TextResultSink(System.out, false);
+        journal = builder.journal;
+        dns = builder.dns;
+        limiter = builder.limiter;
+        robots = builder.robots;
     }
     
     /**
      * Метод для доступа к waitingThreads.
      * @return waitingThreads
      */
-    public synchronized int getWaitThreads() {
+    public int getWaitThreads() {
+        
+        if (concurrent != null) {
+            
+            return concurrent.getIdle();
+        }
+        
+        synchronized (this) {
+            
+            return waitingThreads;
+        }
+    }
+    
+    /**
+     * Метод для получения количества пар, которые стоят в очереди или
+     * обрабатываются.
+     * @return количество незавершённых пар
+     */
+    public int getUnfinished() {
         
-        return waitingThreads;
+        return unfinishedURLs.get();
     }
     
     /**
      * Метод для получения размера pendingURLs.
      * @return размер pendingURLs
      */
-    public synchronized int size() {
+    public long size() {
         
         return pendingURLs.size();
     }
     
     /** 
-     * Метод для добавление новой пары <URL, глубина>.
+     * Включает распределённый обход: ссылки на хосты других узлов
+     * пересылаются им, а get не завершает обход, пока его не остановит
+     * узел кластера.
+     * @param node узел кластера
+     */
+    public void joinCluster(ClusterNode node) {
+        
+        cluster = node;
+    }
+    
+    /**
+     * Включает запись графа ссылок: ссылки каждой обработанной страницы
+     * записываются в граф. Вызывается до начала обхода.
+     * @param linkGraph граф ссылок
+     */
+    public void recordLinks(LinkGraph linkGraph) {
+        
+        graph = linkGraph;
+    }
+    
+    /**
+     * Включает проверку пар на максимальной глубине: они ставятся в очередь
+     * и проверяются запросом HEAD без загрузки тела. Вызывается до начала
+     * обхода.
+     * @param check проверять ли пары на максимальной глубине
+     */
+    public void setCheckLeaves(boolean check) {
+        
+        checkLeaves = check;
+    }
+    
+    /**
+     * @return true, если пару не нужно загружать целиком, а только
+     * проверить запросом HEAD
+     */
+    boolean isLeaf(URLDepthPair depthPair) {
+        
+        return depthPair.getDepth() >= maxDepth;
+    }
+    
+    /**
+     * Будит все ожидающие потоки, чтобы они проверили, не закончен ли
+     * обход.
+     */
+    public void wakeWaiting() {
+        
+        if (concurrent != null) {
+            
+            concurrent.wakeAll();
+            return;
+        }
+        
+        synchronized (this) {
+            
+            this.notifyAll();
+        }
+    }
+    
+    /** 
+     * Метод для доступа к множеству просмотренных URL.
+     * @return множество просмотренных URL
+     */
+    public VisitedSet getSeenURLs() {
+        
+        return seenURLs;
+    }
+    
+    /**
+     * Добавляет найденную ссылку. URL проверяется сразу: неверный URL
+     * не попадает ни в пул, ни в множество просмотренных.
+     * @param URL абсолютный URL
+     * @param depth глубина ссылки
+     */
+    public void put(String URL, int depth) {
+        
+        URLDepthPair depthPair;
+        
+        try {
+            
+            depthPair = new URLDepthPair(URL, depth);
+        }
+        
+        catch (MalformedURLException e) {
+            
+            System.err.println("MalformedURLException: " + e.getMessage());
+            return;
+        }
+        
+        put(depthPair);
+    }
+    
+    /**
+     * Добавляет все ссылки страницы на следующей глубине и, если включён,
+     * записывает их в граф ссылок.
+     * @param from пара страницы, на которой найдены ссылки
+     * @param URLs абсолютные URL ссылок
+     */
+    public void putLinks(URLDepthPair from, Collection<String> URLs) {
+        
+        LinkGraph links = graph;
+        
+        if (links != null) {
+            
+            links.record(from.getURL(), URLs);
+        }
+        
+        for (String URL : URLs) {
+            
+            put(URL, from.getDepth() + 1);
+        }
+    }
+    
+    /** 
+     * Метод для добавление новой пары <URL, глубина>. URL отмечается
+     * просмотренным сразу, поэтому одна и та же ссылка не попадает в очередь
+     * дважды. Проверка выполняется без блокировки пула.
      * @param depthPair новая пара <URL, глубина>
      */
-    public synchronized void put(URLDepthPair depthPair) {
+    public void put(URLDepthPair depthPair) {
+        
+        if (!seenURLs.add(depthPair.fingerprint())) {
+            
+            /**
+             * Очередь по приоритету учитывает ссылки на ожидающие URL.
+             */
+            pendingURLs.relink(depthPair);
+            return;
+        }
+        
+        /**
+         * Ссылку на хост другого узла загружает и записывает он. Здесь
+         * она остаётся отмеченной, чтобы не пересылать её снова.
+         */
+        ClusterNode node = cluster;
+        
+        if (node != null && node.forward(depthPair)) {
+            
+            return;
+        }
         
         /**
-         * Если был вызван put и есть потоки "в ожидании", то надо вызвать эти
-         * потоки и декрементировать счётчик потоков "в ожидании".
+         * Запрещённая robots.txt ссылка не попадает ни в очередь, ни в
+         * журнал и остаётся отмеченной, чтобы не проверять её снова. Пары
+         * на максимальной глубине без проверки не запрашиваются, и
+         * robots.txt их хоста ради них не загружается.
          */
-        if (waitingThreads != 0) {
+        boolean leaf = isLeaf(depthPair);
+        
+        if (robots != null && (!leaf || checkLeaves)
+                && !robots.allows(depthPair)) {
                 
-            --waitingThreads;
-            this.notify();
-         }
+            return;
+        }
+        
+        if (journal != null) {
+            
+            journal.seen(depthPair);
+        }
 
-        if (!seenURLs.contains(depthPair.getURL()) &
-                !pendingURLs.contains(depthPair)) {
+        /**
+         * Пара на максимальной глубине без проверки не загружается: сразу
+         * отдаём её в результаты, не занимая блокировку пула на время
+         * записи.
+         */
+        if (leaf && !checkLeaves) {
             
-            if (depthPair.getDepth() < maxDepth) {
-                
-                pendingURLs.add(depthPair);
-            }
+            record(new FetchResult(depthPair));
+            return;
+        }
+        
+        /**
+         * Пока пара стоит в очереди, её хост разрешается в фоне.
+         */
+        if (dns != null) {
             
-            else {
+            dns.prefetch(depthPair.getWebHost());
+        }
+        
+        /**
+         * Счётчик увеличивается раньше, чем пару можно забрать: иначе её
+         * обработка могла бы опустить его до нуля раньше времени.
+         */
+        if (concurrent != null) {
+            
+            unfinishedURLs.incrementAndGet();
+            concurrent.add(depthPair);
+            return;
+        }
+        
+        synchronized (this) {
+            
+            pendingURLs.add(depthPair);
+            unfinishedURLs.incrementAndGet();
+                
+            /**
+             * Будим один ожидающий поток, если такой есть.
+             */
+            if (waitingThreads != 0) {
                 
-                processedURLs.add(depthPair);
-                seenURLs.add(depthPair.getURL());
+                this.notify();
             }
         }
     }
 
     /**
-     * Метод для получения следующей пары из пула.
-     * @return следующая пара из пула
+     * Метод для получения следующей пары из пула. Ждёт, пока в пуле не
+     * появится пара, которую можно загружать прямо сейчас, или пока обход
+     * не закончится.
+     * @return следующая пара из пула или null, если обход закончен
      */
-    public synchronized URLDepthPair get() {
+    public URLDepthPair get() {
+        
+        return concurrent != null ? take() : waitForPair();
+    }
+    
+    /**
+     * Ожидание пары под блокировкой пула.
+     */
+    private synchronized URLDepthPair waitForPair() {
         
         URLDepthPair myDepthPair;
         
-        while (pendingURLs.isEmpty()) {
+        while ((myDepthPair = pendingURLs.poll(System.nanoTime()))
+                == null) {
+            
+            /**
+             * Очередь пуста и никто ничего не обрабатывает - новых ссылок
+             * не будет. В распределённом обходе они ещё могут прийти от
+             * других узлов, пока кластер не остановлен.
+             */
+            if (isFinished()) {
+                
+                return null;
+            }
+            
+            /**
+             * Если пары есть, но их хосты ещё не готовы, ждём не дольше,
+             * чем до готовности ближайшего хоста.
+             */
+            long delay = pendingURLs.readyDelay(System.nanoTime());
             
             ++waitingThreads;
             
             try {
                 
-                this.wait();
+                if (delay < 0) {
+                    
+                    this.wait();
+                }
+                
+                else {
+                    
+                    TimeUnit.NANOSECONDS.timedWait(this, Math.max(delay,
+                            1));
+                }
             }
             
             catch (InterruptedException e) {
                 
-                System.err.println("MalformedURLException: " + e.getMessage());
+                Thread.currentThread().interrupt();
                 return null;
             }
+            
+            finally {
+                
+                --waitingThreads;
+            }
         }
         
+        return myDepthPair;
+    }
+    
+    /**
+     * Ожидание пары без блокировки пула: поток засыпает в очереди, пока в
+     * ней нет готовых пар и обход не закончен, но не дольше, чем до
+     * готовности ближайшего хоста.
+     */
+    private URLDepthPair take() {
+        
+        while (true) {
+            
+            long now = System.nanoTime();
+            URLDepthPair myDepthPair = concurrent.poll(now);
+            
+            if (myDepthPair != null) {
+                
+                return myDepthPair;
+            }
+            
+            if (isFinished()) {
+                
+                concurrent.wakeAll();
+                return null;
+            }
+            
+            concurrent.park(() -> isFinished()
+                    || concurrent.readyDelay(System.nanoTime()) == 0,
+                    concurrent.readyDelay(now));
+            
+            if (Thread.currentThread().isInterrupted()) {
+                
+                return null;
+            }
+        }
+    }
+    
+    /**
+     * @return true, если незавершённых пар нет, а в распределённом обходе
+     * кластер ещё и остановлен
+     */
+    private boolean isFinished() {
+        
+        return unfinishedURLs.get() == 0
+                && (cluster == null || cluster.isStopped());
+    }
+    
+    /**
+     * Метод сообщает пулу, что обработка пары, полученной из get, закончена,
+     * и записывает её результат. Все найденные на странице ссылки должны
+     * быть добавлены через put до вызова этого метода.
+     * @param result результат обработки пары
+     */
+    public void done(FetchResult result) {
+        
         /**
-         * Удаление первой пары и добавление её в seenURLs и processedURLs.
+         * Результат записывается до того, как пара перестанет считаться
+         * незавершённой: когда обход закончен, все результаты уже записаны.
          */
-        myDepthPair = pendingURLs.pop();
+        record(result);
+        
+        if (journal != null) {
+            
+            journal.done(result.getDepthPair());
+        }
         
-        while (seenURLs.contains(myDepthPair.getURL())) {
+        /**
+         * Задержка и ошибки загрузки меняют пределы параллельности.
+         */
+        boolean raised = limiter != null && limiter.record(result);
+        
+        if (concurrent != null) {
+            
+            /**
+             * Хост пары освобождается раньше, чем пара перестаёт считаться
+             * незавершённой: освободивший хост release сам будит один
+             * поток, остальных будим по тем же причинам, что и в finish.
+             */
+            boolean opened = concurrent.release(result.getDepthPair(),
+                    System.nanoTime());
+            
+            if (unfinishedURLs.decrementAndGet() == 0 || raised || opened) {
                 
-            myDepthPair = pendingURLs.pop();
+                concurrent.wakeAll();
+            }
+            
+            return;
         }
         
-        processedURLs.add(myDepthPair);
-        seenURLs.add(myDepthPair.getURL());
+        finish(result.getDepthPair(), raised);
+    }
+    
+    /**
+     * Восстанавливает пару из журнала прошлого обхода: URL отмечается
+     * просмотренным, а необработанная страница снова ставится в очередь.
+     * В журнал пара повторно не пишется.
+     * @param depthPair пара из журнала
+     * @param done обработана ли страница
+     */
+    public void restore(URLDepthPair depthPair, boolean done) {
         
-        return myDepthPair;
+        if (!seenURLs.add(depthPair.fingerprint()) || done
+                || isLeaf(depthPair) && !checkLeaves) {
+            
+            return;
+        }
+        
+        if (dns != null) {
+            
+            dns.prefetch(depthPair.getWebHost());
+        }
+        
+        if (concurrent != null) {
+            
+            unfinishedURLs.incrementAndGet();
+            concurrent.add(depthPair);
+            return;
+        }
+        
+        synchronized (this) {
+            
+            pendingURLs.add(depthPair);
+            unfinishedURLs.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Запись результата вне блокировки пула. Ошибка записи не должна
+     * останавливать рабочий поток, иначе пара так и останется
+     * незавершённой.
+     */
+    private void record(FetchResult result) {
+        
+        try {
+            
+            results.write(result);
+        }
+        
+        catch (IOException e) {
+            
+            System.err.println("IOException: " + e.getMessage());
+        }
+    }
+    
+    private synchronized void finish(URLDepthPair depthPair,
+            boolean raised) {
+        
+        int unfinished = unfinishedURLs.decrementAndGet();
+        boolean opened = pendingURLs.release(depthPair, System.nanoTime());
+        
+        /**
+         * Обход закончен: будим все ожидающие потоки, чтобы они завершились.
+         * Если общий предел вырос или открылся следующий уровень очереди,
+         * будим всех, чтобы заняли новые места. Иначе будим один поток: хост
+         * пары мог освободиться.
+         */
+        if (unfinished == 0 || raised || opened) {
+            
+            this.notifyAll();
+        }
+        
+        else if (waitingThreads != 0) {
+            
+            this.notify();
+        }
     }
 }
\ No newline at end of file
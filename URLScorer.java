@@ -0,0 +1,24 @@
+/**
+ * Оценка полезности URL для обхода по приоритету: чем больше оценка, тем
+ * раньше URL загружается. Оценка вычисляется, когда URL попадает в очередь,
+ * и заново, когда на ожидающий URL находится ещё одна ссылка.
+ *
+ * Свою оценку можно подключить параметром --scorer: класс должен
+ * реализовывать этот интерфейс и иметь открытый конструктор без
+ * аргументов.
+ * @author sergeychaika
+ */
+public interface URLScorer {
+    
+    /**
+     * Оценка по умолчанию: количество найденных ссылок на URL.
+     */
+    URLScorer IN_LINKS = (depthPair, inLinks) -> inLinks;
+    
+    /**
+     * @param depthPair пара <URL, глубина>
+     * @param inLinks сколько ссылок на URL найдено к этому моменту
+     * @return оценка URL
+     */
+    double score(URLDepthPair depthPair, int inLinks);
+}
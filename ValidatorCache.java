@@ -0,0 +1,382 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Кэш валидаторов HTTP для повторных обходов. Для каждой загруженной
+ * страницы, у которой сервер прислал ETag или Last-Modified, сохраняются
+ * эти заголовки и найденные на странице ссылки. При следующем обходе запрос
+ * отправляется с If-None-Match и If-Modified-Since, и если сервер отвечает
+ * 304, ссылки берутся из кэша, а тело не загружается и не разбирается.
+ *
+ * Кэш хранится в памяти, ограничен по размеру (вытесняются давно не
+ * использованные страницы) и сохраняется в файл в конце обхода; файл
+ * заменяется целиком, поэтому прерванное сохранение не портит прошлый кэш.
+ * @author sergeychaika
+ */
+public class ValidatorCache {
+    
+    private static final int MAGIC = 0x56434331;
+    
+    /**
+     * Примерные накладные расходы на одну запись в памяти, байт.
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+    
+    /**
+     * Валидаторы длиннее этого не сохраняются: такой заголовок скорее всего
+     * ошибка сервера.
+     */
+    private static final int MAX_VALIDATOR = 1024;
+    
+    /**
+     * Запись кэша. Ссылки хранятся одним массивом UTF-8 через перевод
+     * строки.
+     */
+    private static final class Entry {
+        
+        final String etag;
+        final String lastModified;
+        final byte[] links;
+        final long bodyBytes;
+        
+        Entry(String entityTag, String modified, byte[] pageLinks,
+                long pageBytes) {
+            
+            etag = entityTag;
+            lastModified = modified;
+            links = pageLinks;
+            bodyBytes = pageBytes;
+        }
+        
+        long size() {
+            
+            return ENTRY_OVERHEAD + links.length
+                    + (etag == null ? 0 : etag.length() * 2)
+                    + (lastModified == null ? 0 : lastModified.length() * 2);
+        }
+    }
+    
+    private final Path path;
+    private final long maxBytes;
+    
+    /**
+     * Записи по отпечатку URL в порядке последнего использования.
+     */
+    private final LinkedHashMap<Long, Entry> entries =
+            new LinkedHashMap<>(1024, 0.75f, true);
+    private long bytes;
+    
+    /**
+     * Статистика кэша.
+     */
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder changed = new LongAdder();
+    private final LongAdder savedBytes = new LongAdder();
+    private long evicted;
+    
+    /**
+     * Загружает кэш из файла, если он есть.
+     * @param file файл кэша
+     * @param maxCacheBytes наибольший размер кэша в памяти, байт
+     * @throws IOException ошибка чтения файла
+     */
+    public ValidatorCache(Path file, long maxCacheBytes) throws IOException {
+        
+        path = file;
+        maxBytes = maxCacheBytes;
+        
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(file), 64 * 1024))) {
+            
+            if (in.readInt() != MAGIC) {
+                
+                throw new IOException("Неизвестный формат кэша: " + file);
+            }
+            
+            for (int count = in.readInt(); count > 0; --count) {
+                
+                long key = in.readLong();
+                String etag = readValidator(in);
+                String lastModified = readValidator(in);
+                long bodyBytes = in.readLong();
+                byte[] links = new byte[in.readInt()];
+                in.readFully(links);
+                
+                put(key, new Entry(etag, lastModified, links, bodyBytes));
+            }
+        }
+        
+        catch (NoSuchFileException e) {
+            
+            /**
+             * Первый обход: кэш пуст.
+             */
+        }
+        
+        catch (EOFException e) {
+            
+            throw new IOException("Файл кэша обрезан: " + file);
+        }
+    }
+    
+    /**
+     * Заголовки условного запроса для страницы.
+     * @param URL адрес страницы
+     * @return строки заголовков с \r\n в конце или пустая строка, если
+     * страницы нет в кэше
+     */
+    public synchronized String requestHeaders(String URL) {
+        
+        Entry entry = entries.get(URLFingerprint.of(URL));
+        
+        if (entry == null) {
+            
+            return "";
+        }
+        
+        StringBuilder headers = new StringBuilder();
+        
+        if (entry.etag != null) {
+            
+            headers.append("If-None-Match: ").append(entry.etag)
+                    .append("\r\n");
+        }
+        
+        if (entry.lastModified != null) {
+            
+            headers.append("If-Modified-Since: ").append(entry.lastModified)
+                    .append("\r\n");
+        }
+        
+        return headers.toString();
+    }
+    
+    /**
+     * Сервер ответил 304: страница не изменилась.
+     * @param URL адрес страницы
+     * @return ссылки страницы из кэша или null, если её уже нет в кэше
+     */
+    public List<String> notModified(String URL) {
+        
+        Entry entry;
+        
+        synchronized (this) {
+            
+            entry = entries.get(URLFingerprint.of(URL));
+        }
+        
+        if (entry == null) {
+            
+            return null;
+        }
+        
+        hits.increment();
+        savedBytes.add(entry.bodyBytes);
+        
+        List<String> links = new ArrayList<>();
+        
+        if (entry.links.length != 0) {
+            
+            for (String link : new String(entry.links,
+                    StandardCharsets.UTF_8).split("\n")) {
+                
+                links.add(link);
+            }
+        }
+        
+        return links;
+    }
+    
+    /**
+     * Страница загружена целиком. Если сервер прислал валидаторы, они
+     * сохраняются вместе со ссылками, иначе страница удаляется из кэша.
+     * @param URL адрес страницы
+     * @param response ответ сервера с прочитанным телом
+     * @param links ссылки, найденные на странице
+     */
+    public void downloaded(String URL, HttpResponse response,
+            List<String> links) {
+        
+        long key = URLFingerprint.of(URL);
+        String etag = validator(response.getHeader("ETag"));
+        String lastModified = validator(response.getHeader("Last-Modified"));
+        
+        if (etag == null && lastModified == null) {
+            
+            misses.increment();
+            
+            synchronized (this) {
+                
+                remove(key);
+            }
+            
+            return;
+        }
+        
+        StringBuilder joined = new StringBuilder();
+        
+        for (String link : links) {
+            
+            if (link.indexOf('\n') >= 0) {
+                
+                continue;
+            }
+            
+            if (joined.length() != 0) {
+                
+                joined.append('\n');
+            }
+            
+            joined.append(link);
+        }
+        
+        Entry entry = new Entry(etag, lastModified,
+                joined.toString().getBytes(StandardCharsets.UTF_8),
+                response.getWireBytes());
+        
+        synchronized (this) {
+            
+            if (remove(key)) {
+                
+                changed.increment();
+            }
+            
+            else {
+                
+                misses.increment();
+            }
+            
+            put(key, entry);
+        }
+    }
+    
+    /**
+     * Записывает кэш во временный файл и заменяет им старый.
+     * @throws IOException ошибка записи
+     */
+    public synchronized void save() throws IOException {
+        
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp),
+                        64 * 1024))) {
+            
+            out.writeInt(MAGIC);
+            out.writeInt(entries.size());
+            
+            /**
+             * Записи идут от давно не использованных к недавним, поэтому
+             * после загрузки порядок вытеснения сохраняется.
+             */
+            for (Map.Entry<Long, Entry> item : entries.entrySet()) {
+                
+                Entry entry = item.getValue();
+                
+                out.writeLong(item.getKey());
+                writeValidator(out, entry.etag);
+                writeValidator(out, entry.lastModified);
+                out.writeLong(entry.bodyBytes);
+                out.writeInt(entry.links.length);
+                out.write(entry.links);
+            }
+        }
+        
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * @return количество страниц в кэше
+     */
+    public synchronized int size() {
+        
+        return entries.size();
+    }
+    
+    @Override
+    public synchronized String toString() {
+        
+        return String.format("Кэш валидаторов: страниц %d (%d КБ), не "
+                + "изменились %d, загружены заново %d, из них изменились %d, "
+                + "вытеснено %d, не загружено %d байт", entries.size(),
+                bytes / 1024, hits.sum(), misses.sum() + changed.sum(),
+                changed.sum(), evicted, savedBytes.sum());
+    }
+    
+    /**
+     * Добавляет запись и вытесняет давно не использованные, пока кэш не
+     * уложится в размер.
+     */
+    private void put(long key, Entry entry) {
+        
+        if (entry.size() > maxBytes) {
+            
+            return;
+        }
+        
+        entries.put(key, entry);
+        bytes += entry.size();
+        
+        Iterator<Entry> oldest = entries.values().iterator();
+        
+        while (bytes > maxBytes) {
+            
+            bytes -= oldest.next().size();
+            oldest.remove();
+            ++evicted;
+        }
+    }
+    
+    private boolean remove(long key) {
+        
+        Entry entry = entries.remove(key);
+        
+        if (entry == null) {
+            
+            return false;
+        }
+        
+        bytes -= entry.size();
+        return true;
+    }
+    
+    private static String validator(String value) {
+        
+        return value == null || value.isEmpty()
+                || value.length() > MAX_VALIDATOR ? null : value;
+    }
+    
+    private static String readValidator(DataInputStream in)
+            throws IOException {
+        
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+    
+    private static void writeValidator(DataOutputStream out, String value)
+            throws IOException {
+        
+        out.writeBoolean(value != null);
+        
+        if (value != null) {
+            
+            out.writeUTF(value);
+        }
+    }
+}
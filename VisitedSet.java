@@ -0,0 +1,54 @@
+/**
+ * Множество уже просмотренных URL. Реализации должны быть потокобезопасными:
+ * URLPool обращается к ним из всех потоков без общей блокировки.
+ * @author sergeychaika
+ */
+public interface VisitedSet {
+    
+    /**
+     * Добавляет URL в множество по его отпечатку.
+     * @param fingerprint отпечаток URL (URLFingerprint.of)
+     * @return true, если URL раньше не встречался
+     */
+    boolean add(long fingerprint);
+    
+    /**
+     * Проверяет, встречался ли URL раньше, по его отпечатку.
+     * @param fingerprint отпечаток URL (URLFingerprint.of)
+     * @return true, если URL уже есть в множестве
+     */
+    boolean contains(long fingerprint);
+    
+    /**
+     * Добавляет URL в множество.
+     * @param URL добавляемый URL
+     * @return true, если URL раньше не встречался
+     */
+    default boolean add(String URL) {
+        
+        return add(URLFingerprint.of(URL));
+    }
+    
+    /**
+     * Проверяет, встречался ли URL раньше.
+     * @param URL проверяемый URL
+     * @return true, если URL уже есть в множестве
+     */
+    default boolean contains(String URL) {
+        
+        return contains(URLFingerprint.of(URL));
+    }
+    
+    /**
+     * Количество URL в множестве.
+     * @return количество добавленных URL
+     */
+    long size();
+    
+    /**
+     * Оценка вероятности ложного срабатывания contains. Для точных
+     * реализаций равна нулю.
+     * @return вероятность ложного срабатывания
+     */
+    double falsePositiveRate();
+}
@@ -0,0 +1,203 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Очередь без общей блокировки: у каждого потока, который берёт пары из
+ * пула, своя очередь. Найденные потоком ссылки кладутся в его очередь и им
+ * же забираются, а когда своя очередь пуста, поток забирает пары из общей
+ * очереди (туда кладут потоки без своей очереди: разбор nio, узлы
+ * кластера, восстановление из журнала) и затем из очередей других потоков,
+ * начиная со случайной. Очереди - неблокирующие ConcurrentLinkedQueue, и
+ * свою очередь поток, как и чужие, читает по порядку поступления, поэтому
+ * обход остаётся близким к обходу в ширину.
+ *
+ * Это не классическая очередь с кражей работы, где владелец берёт
+ * последнюю добавленную пару, а вор - самую старую: владелец и воры здесь
+ * читают одну голову очереди. Так сделано намеренно. Просмотренные URL
+ * запоминаются при первой встрече, и при обходе вглубь страница, впервые
+ * найденная глубже, чем могла бы, теряет ссылки за пределом глубины;
+ * набор страниц тогда зависит от того, как потоки разобрали очереди.
+ * Ценой этого воры соревнуются с владельцем за одну голову, но крадут,
+ * только когда своя и общая очереди пусты.
+ *
+ * Поток без работы засыпает в IdleWorkers, а add будит один спящий поток;
+ * пока спящих нет, add только читает счётчик. URLPool не захватывает свою
+ * блокировку для этой очереди: ожидание и пробуждение целиком здесь.
+ *
+ * Задержки между запросами к хосту, ограничения одновременных запросов к
+ * хосту и Crawl-delay эта очередь не соблюдает; число соединений с хостом
+ * по-прежнему ограничивает ConnectionPool.
+ * @author sergeychaika
+ */
+public class WorkStealingFrontier implements ConcurrentFrontier {
+    
+    /**
+     * Очередь одного потока.
+     */
+    private static final class Worker {
+        
+        final ConcurrentLinkedQueue<URLDepthPair> local =
+                new ConcurrentLinkedQueue<>();
+    }
+    
+    /**
+     * Пары от потоков без своей очереди.
+     */
+    private final ConcurrentLinkedQueue<URLDepthPair> shared =
+            new ConcurrentLinkedQueue<>();
+    
+    /**
+     * Очереди потоков. Массив заменяется целиком при появлении нового
+     * потока, это бывает по одному разу на поток.
+     */
+    private volatile Worker[] workers = new Worker[0];
+    
+    private final ThreadLocal<Worker> current = new ThreadLocal<>();
+    
+    private final IdleWorkers idle = new IdleWorkers();
+    private final LongAdder size = new LongAdder();
+    
+    /**
+     * Статистика.
+     */
+    private final LongAdder localTaken = new LongAdder();
+    private final LongAdder stolen = new LongAdder();
+    
+    @Override
+    public void add(URLDepthPair depthPair) {
+        
+        Worker worker = current.get();
+        (worker == null ? shared : worker.local).add(depthPair);
+        size.increment();
+        idle.wakeOne();
+    }
+    
+    /**
+     * Выдаёт пару из своей очереди, из общей или из чужой. Поток, впервые
+     * вызвавший poll, получает свою очередь.
+     */
+    @Override
+    public URLDepthPair poll(long now) {
+        
+        Worker worker = register();
+        URLDepthPair depthPair = worker.local.poll();
+        
+        if (depthPair != null) {
+            
+            localTaken.increment();
+        }
+        
+        else if ((depthPair = shared.poll()) == null) {
+            
+            depthPair = steal(worker);
+        }
+        
+        if (depthPair != null) {
+            
+            size.decrement();
+        }
+        
+        return depthPair;
+    }
+    
+    /**
+     * Задержек эта очередь не знает: пара готова сразу или появится только
+     * после add.
+     */
+    @Override
+    public long readyDelay(long now) {
+        
+        return size.sum() > 0 ? 0 : -1;
+    }
+    
+    @Override
+    public boolean release(URLDepthPair depthPair, long now) {
+        
+        return false;
+    }
+    
+    @Override
+    public long size() {
+        
+        return size.sum();
+    }
+    
+    @Override
+    public void park(BooleanSupplier ready, long nanos) {
+        
+        idle.park(ready, nanos);
+    }
+    
+    @Override
+    public void wakeAll() {
+        
+        idle.wakeAll();
+    }
+    
+    @Override
+    public int getIdle() {
+        
+        return idle.getIdle();
+    }
+    
+    @Override
+    public String toString() {
+        
+        return String.format("Очереди потоков: %d, из своей очереди %d, "
+                + "украдено %d, засыпаний %d", workers.length,
+                localTaken.sum(), stolen.sum(), idle.getParks());
+    }
+    
+    /**
+     * Забирает пару из чужой очереди, начиная со случайной.
+     */
+    private URLDepthPair steal(Worker thief) {
+        
+        Worker[] all = workers;
+        int start = ThreadLocalRandom.current().nextInt(all.length);
+        
+        for (int index = 0; index < all.length; ++index) {
+            
+            Worker victim = all[(start + index) % all.length];
+            
+            if (victim == thief) {
+                
+                continue;
+            }
+            
+            URLDepthPair depthPair = victim.local.poll();
+            
+            if (depthPair != null) {
+                
+                stolen.increment();
+                return depthPair;
+            }
+        }
+        
+        return null;
+    }
+    
+    private Worker register() {
+        
+        Worker worker = current.get();
+        
+        if (worker == null) {
+            
+            worker = new Worker();
+            current.set(worker);
+            
+            synchronized (this) {
+                
+                Worker[] grown = Arrays.copyOf(workers,
+                        workers.length + 1);
+                grown[grown.length - 1] = worker;
+                workers = grown;
+            }
+        }
+        
+        return worker;
+    }
+}
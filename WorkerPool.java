@@ -0,0 +1,80 @@
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+
+/**
+ * Фиксированный пул долгоживущих рабочих потоков. Каждый поток выполняет свою
+ * задачу один раз; задача сама крутится в цикле, пока в URLPool есть работа.
+ * Потоки могут быть виртуальными, если JVM их поддерживает.
+ * @author sergeychaika
+ */
+public class WorkerPool {
+    
+    private final List<Thread> workers = new ArrayList<>();
+    private final ThreadFactory factory;
+    private final int numThreads;
+    
+    /**
+     * @param threads количество рабочих потоков
+     * @param virtual использовать виртуальные потоки
+     */
+    public WorkerPool(int threads, boolean virtual) {
+        
+        numThreads = threads;
+        factory = virtual ? virtualThreadFactory() : Thread::new;
+    }
+    
+    /**
+     * Запускает рабочие потоки.
+     * @param tasks источник задач, по одной на поток
+     */
+    public void start(Supplier<Runnable> tasks) {
+        
+        for (int counter = 0; counter < numThreads; ++counter) {
+            
+            Thread worker = factory.newThread(tasks.get());
+            worker.setName("crawler-" + counter);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+    
+    /**
+     * Ждёт завершения всех рабочих потоков.
+     * @throws InterruptedException ожидание прервано
+     */
+    public void join() throws InterruptedException {
+        
+        for (Thread worker : workers) {
+            
+            worker.join();
+        }
+    }
+    
+    /**
+     * Фабрика виртуальных потоков (Java 21+). Ищется через отражение, чтобы
+     * программа собиралась и на более старых JVM; там используются обычные
+     * потоки.
+     * @return фабрика потоков
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        
+        try {
+            
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factoryMethod = Class.forName("java.lang.Thread$Builder")
+                    .getMethod("factory");
+            
+            return (ThreadFactory) factoryMethod.invoke(builder);
+        }
+        
+        catch (ReflectiveOperationException e) {
+            
+            System.err.println("Виртуальные потоки недоступны в этой JVM, "
+                    + "используются обычные потоки");
+            return Thread::new;
+        }
+    }
+}
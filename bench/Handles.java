@@ -0,0 +1,268 @@
+package bench;
+
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Доступ к классам обходчика из бенчмарков. JMH не принимает бенчмарки в
+ * пакете по умолчанию, а из именованного пакета классы пакета по умолчанию
+ * не импортируются, поэтому они вызываются через MethodHandle. Дескрипторы
+ * лежат в static final полях, и JIT встраивает вызовы так же, как прямые.
+ * @author sergeychaika
+ */
+final class Handles {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    static final Class<?> URL_DEPTH_PAIR = type("URLDepthPair");
+    static final Class<?> URL_POOL = type("URLPool");
+    static final Class<?> URL_POOL_BUILDER = type("URLPool$Builder");
+    static final Class<?> VISITED_SET = type("VisitedSet");
+    static final Class<?> FRONTIER = type("Frontier");
+    static final Class<?> RESULT_SINK = type("ResultSink");
+    static final Class<?> FETCH_RESULT = type("FetchResult");
+    static final Class<?> HOST_FRONTIER = type("HostFrontier");
+    static final Class<?> HOST_FRONTIER_BUILDER = type(
+            "HostFrontier$Builder");
+    static final Class<?> WORK_STEALING_FRONTIER = type(
+            "WorkStealingFrontier");
+    static final Class<?> LINK_EXTRACTOR = type("LinkExtractor");
+
+    private static final MethodHandle NEW_PAIR = constructor(URL_DEPTH_PAIR,
+            String.class, int.class);
+    private static final MethodHandle GET_WEB_HOST = virtual(URL_DEPTH_PAIR,
+            "getWebHost", String.class);
+    private static final MethodHandle GET_DOC_PATH = virtual(URL_DEPTH_PAIR,
+            "getDocPath", String.class);
+    private static final MethodHandle GET_PORT = virtual(URL_DEPTH_PAIR,
+            "getPort", int.class);
+
+    private static final MethodHandle NEW_HOST_FRONTIER_BUILDER =
+            constructor(HOST_FRONTIER_BUILDER);
+    private static final MethodHandle BUILD_HOST_FRONTIER = virtual(
+            HOST_FRONTIER_BUILDER, "build", HOST_FRONTIER);
+    private static final MethodHandle NEW_WORK_STEALING_FRONTIER =
+            constructor(WORK_STEALING_FRONTIER);
+    private static final MethodHandle NEW_POOL_BUILDER = constructor(
+            URL_POOL_BUILDER, int.class);
+    private static final MethodHandle POOL_VISITED = virtual(
+            URL_POOL_BUILDER, "visited", URL_POOL_BUILDER, VISITED_SET);
+    private static final MethodHandle POOL_FRONTIER = virtual(
+            URL_POOL_BUILDER, "frontier", URL_POOL_BUILDER, FRONTIER);
+    private static final MethodHandle POOL_SINK = virtual(URL_POOL_BUILDER,
+            "sink", URL_POOL_BUILDER, RESULT_SINK);
+    private static final MethodHandle BUILD_POOL = virtual(URL_POOL_BUILDER,
+            "build", URL_POOL);
+    private static final MethodHandle PUT = virtual(URL_POOL, "put",
+            void.class, URL_DEPTH_PAIR);
+    private static final MethodHandle GET = virtual(URL_POOL, "get",
+            URL_DEPTH_PAIR);
+    private static final MethodHandle DONE = virtual(URL_POOL, "done",
+            void.class, FETCH_RESULT);
+    private static final MethodHandle NEW_RESULT = constructor(FETCH_RESULT,
+            URL_DEPTH_PAIR);
+
+    private static final MethodHandle NEW_EXTRACTOR = constructor(
+            LINK_EXTRACTOR, String.class, Charset.class);
+    private static final MethodHandle EXTRACT = virtual(LINK_EXTRACTOR,
+            "extract", List.class, InputStream.class);
+
+    private Handles() {
+
+    }
+
+    static Object newPair(String URL, int depth) throws Throwable {
+
+        return NEW_PAIR.invokeExact(URL, depth);
+    }
+
+    static String getWebHost(Object depthPair) throws Throwable {
+
+        return (String) GET_WEB_HOST.invokeExact(depthPair);
+    }
+
+    static String getDocPath(Object depthPair) throws Throwable {
+
+        return (String) GET_DOC_PATH.invokeExact(depthPair);
+    }
+
+    static int getPort(Object depthPair) throws Throwable {
+
+        return (int) GET_PORT.invokeExact(depthPair);
+    }
+
+    /**
+     * Пул с очередью по хостам без задержек и ограничений, множеством
+     * просмотренных URL, которое принимает любой URL, и получателем
+     * результатов, который ничего не пишет. Так бенчмарк измеряет только
+     * блокировку пула и очередь.
+     * @param maxDepth максимальная глубина
+     * @param stealing очередь с кражей работы вместо очереди по хостам
+     * @return пул
+     */
+    static Object newPool(int maxDepth, boolean stealing) throws Throwable {
+
+        Object frontier = stealing ? NEW_WORK_STEALING_FRONTIER.invokeExact()
+                : BUILD_HOST_FRONTIER.invokeExact(
+                        NEW_HOST_FRONTIER_BUILDER.invokeExact());
+
+        Object visited = proxy(VISITED_SET, (method, args) -> {
+
+            switch (method) {
+
+                case "add":
+                    return Boolean.TRUE;
+                case "contains":
+                    return Boolean.FALSE;
+                case "size":
+                    return 0L;
+                default:
+                    return 0.0;
+            }
+        });
+
+        Object sink = proxy(RESULT_SINK, (method, args) -> null);
+
+        Object builder = NEW_POOL_BUILDER.invokeExact(maxDepth);
+        builder = POOL_VISITED.invokeExact(builder, visited);
+        builder = POOL_FRONTIER.invokeExact(builder, frontier);
+        builder = POOL_SINK.invokeExact(builder, sink);
+
+        return BUILD_POOL.invokeExact(builder);
+    }
+
+    static void put(Object pool, Object depthPair) throws Throwable {
+
+        PUT.invokeExact(pool, depthPair);
+    }
+
+    static Object get(Object pool) throws Throwable {
+
+        return GET.invokeExact(pool);
+    }
+
+    static void done(Object pool, Object depthPair) throws Throwable {
+
+        DONE.invokeExact(pool, NEW_RESULT.invokeExact(depthPair));
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<String> extractLinks(String pageURL, Charset charset,
+            InputStream in) throws Throwable {
+
+        Object extractor = NEW_EXTRACTOR.invokeExact(pageURL, charset);
+        return (List<String>) EXTRACT.invokeExact(extractor, in);
+    }
+
+    /**
+     * Реализация интерфейса обходчика, отвечающая по имени метода.
+     */
+    private interface Answer {
+
+        Object call(String method, Object[] args);
+    }
+
+    private static Object proxy(Class<?> type, Answer answer) {
+
+        return Proxy.newProxyInstance(type.getClassLoader(),
+                new Class<?>[] {type}, (self, method, args) -> {
+
+                    if (method.getDeclaringClass() == Object.class) {
+
+                        return method.getName().equals("equals")
+                                ? self == args[0]
+                                : method.getName().equals("hashCode")
+                                        ? System.identityHashCode(self)
+                                        : type.getName();
+                    }
+
+                    return answer.call(method.getName(), args);
+                });
+    }
+
+    private static Class<?> type(String name) {
+
+        try {
+
+            return Class.forName(name);
+        }
+
+        catch (ClassNotFoundException e) {
+
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Конструктор, приведённый к типам Object для invokeExact.
+     */
+    private static MethodHandle constructor(Class<?> owner,
+            Class<?>... parameters) {
+
+        try {
+
+            MethodHandle handle = LOOKUP.findConstructor(owner,
+                    MethodType.methodType(void.class, parameters));
+            return handle.asType(MethodType.methodType(Object.class,
+                    erase(parameters, 0)));
+        }
+
+        catch (ReflectiveOperationException e) {
+
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Метод экземпляра, приведённый к типам Object для invokeExact.
+     */
+    private static MethodHandle virtual(Class<?> owner, String name,
+            Class<?> returnType, Class<?>... parameters) {
+
+        try {
+
+            MethodHandle handle = LOOKUP.findVirtual(owner, name,
+                    MethodType.methodType(returnType, parameters));
+
+            Class<?>[] erased = erase(parameters, 1);
+            erased[0] = Object.class;
+
+            return handle.asType(MethodType.methodType(erase(returnType),
+                    erased));
+        }
+
+        catch (ReflectiveOperationException e) {
+
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Заменяет типы параметров на erase и сдвигает их на offset позиций.
+     */
+    private static Class<?>[] erase(Class<?>[] parameters, int offset) {
+
+        Class<?>[] erased = new Class<?>[parameters.length + offset];
+
+        for (int i = 0; i < parameters.length; ++i) {
+
+            erased[i + offset] = erase(parameters[i]);
+        }
+
+        return erased;
+    }
+
+    /**
+     * Типы JDK и примитивы остаются, классы обходчика заменяются на Object.
+     */
+    private static Class<?> erase(Class<?> type) {
+
+        return type.getClassLoader() == Handles.class.getClassLoader()
+                ? Object.class : type;
+    }
+}
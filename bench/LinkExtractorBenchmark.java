@@ -0,0 +1,78 @@
+package bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Скорость поиска ссылок LinkExtractor на записанных страницах. Страницы
+ * берутся из каталога corpusDir (по умолчанию bench/corpus); свой набор
+ * страниц можно передать через -p corpusDir=... -p page=... Кроме операций
+ * в секунду выводится скорость в байтах страницы.
+ * @author sergeychaika
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinkExtractorBenchmark {
+
+    @Param("bench/corpus")
+    public String corpusDir;
+
+    @Param({"news.html", "catalog.html", "scripts.html"})
+    public String page;
+
+    private byte[] html;
+
+    /**
+     * Байты страниц, обработанные за итерацию.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+
+        Path file = Paths.get(corpusDir, page);
+        html = Files.readAllBytes(file);
+    }
+
+    @Benchmark
+    public List<String> extract(Bytes counter) throws Throwable {
+
+        counter.bytes += html.length;
+        return Handles.extractLinks("http://site.test/section/index.html",
+                StandardCharsets.UTF_8, new ByteArrayInputStream(html));
+    }
+}
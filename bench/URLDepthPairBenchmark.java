@@ -0,0 +1,80 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Стоимость разбора URL в URLDepthPair: создание пары и методы, которые
+ * обходчик вызывает для каждой загрузки.
+ * @author sergeychaika
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class URLDepthPairBenchmark {
+
+    @Param({
+        "http://site.test/",
+        "https://www.example.com:8443/catalog/item/12345/reviews?page=2&sort=date",
+        "http://xn--80aswg.xn--p1ai/%D0%BD%D0%BE%D0%B2%D0%BE%D1%81%D1%82%D0%B8/"
+    })
+    public String url;
+
+    private Object depthPair;
+
+    @Setup
+    public void setUp() throws Throwable {
+
+        depthPair = Handles.newPair(url, 1);
+    }
+
+    @Benchmark
+    public Object create() throws Throwable {
+
+        return Handles.newPair(url, 1);
+    }
+
+    @Benchmark
+    public String getWebHost() throws Throwable {
+
+        return Handles.getWebHost(depthPair);
+    }
+
+    @Benchmark
+    public String getDocPath() throws Throwable {
+
+        return Handles.getDocPath(depthPair);
+    }
+
+    @Benchmark
+    public int getPort() throws Throwable {
+
+        return Handles.getPort(depthPair);
+    }
+
+    /**
+     * Всё, что обходчик берёт из пары при одной загрузке.
+     */
+    @Benchmark
+    public void fetchPath(Blackhole blackhole) throws Throwable {
+
+        Object pair = Handles.newPair(url, 1);
+        blackhole.consume(Handles.getWebHost(pair));
+        blackhole.consume(Handles.getPort(pair));
+        blackhole.consume(Handles.getDocPath(pair));
+    }
+}
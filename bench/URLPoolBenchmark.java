@@ -0,0 +1,104 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Пропускная способность URLPool при 1-64 конкурирующих потоках. Каждая
+ * операция - один цикл рабочего потока: put новой пары, get и done. Поток
+ * кладёт пару раньше, чем забирает, поэтому пул никогда не пуст и get не
+ * ждёт: измеряется только борьба за блокировку пула и очередь. С очередью
+ * steal блокировки пула нет, и поток обычно забирает свою же пару из своей
+ * очереди.
+ * @author sergeychaika
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class URLPoolBenchmark {
+
+    /**
+     * На сколько хостов распределяются URL: один хост - одна очередь в
+     * HostFrontier, много хостов - большая куча готовности.
+     */
+    @Param({"1", "1024"})
+    public int hosts;
+
+    /**
+     * host - HostFrontier под блокировкой пула, steal -
+     * WorkStealingFrontier.
+     */
+    @Param({"host", "steal"})
+    public String frontier;
+
+    private Object pool;
+    private String[] prefixes;
+    private final AtomicLong counter = new AtomicLong();
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Throwable {
+
+        pool = Handles.newPool(Integer.MAX_VALUE, frontier.equals("steal"));
+        prefixes = new String[hosts];
+
+        for (int i = 0; i < hosts; ++i) {
+
+            prefixes[i] = "http://host" + i + ".test/page";
+        }
+    }
+
+    private Object cycle() throws Throwable {
+
+        long id = counter.getAndIncrement();
+        Handles.put(pool, Handles.newPair(prefixes[(int) (id % hosts)] + id,
+                1));
+
+        Object depthPair = Handles.get(pool);
+        Handles.done(pool, depthPair);
+        return depthPair;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object threads01() throws Throwable {
+
+        return cycle();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object threads04() throws Throwable {
+
+        return cycle();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Object threads16() throws Throwable {
+
+        return cycle();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Object threads64() throws Throwable {
+
+        return cycle();
+    }
+}